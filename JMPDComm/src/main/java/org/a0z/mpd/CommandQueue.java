@@ -27,18 +27,42 @@
 
 package org.a0z.mpd;
 
+import org.a0z.mpd.connection.CommandFuture;
+import org.a0z.mpd.connection.CommandListResponseHandler;
 import org.a0z.mpd.connection.MPDConnection;
+import org.a0z.mpd.connection.ResponseHandler;
 import org.a0z.mpd.exception.MPDException;
 
 import java.io.IOException;
+import java.io.Writer;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.Iterator;
 import java.util.List;
 
-/** A class to generate and send a command queue. */
+/**
+ * A class to generate and send a command queue. The queued commands are written straight to the
+ * connection when sent, and their length is tracked as they are added, so the command list is
+ * never built as a single {@code String}.
+ * <BR><BR>
+ * Queues longer than the {@link #setMaxCommands(int) command} or {@link #setMaxLength(int) length}
+ * limits are sent as several command lists, so they are not refused by the media server for
+ * exceeding its {@code max_command_list_size}, nor produce more output than its
+ * {@code max_output_buffer_size}. The media server runs each command list on its own: a failing
+ * command aborts the rest of its command list, but the previous lists stay applied.
+ */
 public class CommandQueue implements Iterable<MPDCommand> {
 
+    /** The default maximum number of commands sent in one command list. */
+    public static final int DEFAULT_MAX_COMMANDS = 1024;
+
+    /**
+     * The default maximum length, in bytes, of one command list, half the default
+     * {@code max_command_list_size} of the media server.
+     */
+    public static final int DEFAULT_MAX_LENGTH = 1024 * 1024;
+
     private static final boolean DEBUG = false;
 
     private static final String MPD_CMD_BULK_SEP = "list_OK";
@@ -53,50 +77,42 @@ public class CommandQueue implements Iterable<MPDCommand> {
 
     private final List<MPDCommand> mCommandQueue;
 
-    private int mCommandQueueStringLength;
+    /** The length, in bytes, of the queued commands as sent to the media server. */
+    private int mCommandQueueLength;
+
+    /** The maximum number of commands sent in one command list. */
+    private int mMaxCommands = DEFAULT_MAX_COMMANDS;
+
+    /** The maximum length, in bytes, of one command list. */
+    private int mMaxLength = DEFAULT_MAX_LENGTH;
 
     public CommandQueue() {
         super();
 
         mCommandQueue = new ArrayList<>();
-        mCommandQueueStringLength = getStartLength();
     }
 
     public CommandQueue(final int size) {
         super();
 
         mCommandQueue = new ArrayList<>(size);
-        mCommandQueueStringLength = getStartLength();
-    }
-
-    private static int getStartLength() {
-        return MPD_CMD_START_BULK_OK.length() + MPD_CMD_END_BULK.length() + 5;
     }
 
     /**
-     * Processes the raw results from a command queue and returns a list of those results.
+     * Separates the results of a command list, at its {@code list_OK} lines.
      *
-     * @param lines The raw results of a command queue from the media server.
-     * @return A list of results from the command queue.
+     * @param lines   The results of a command list.
+     * @param results The list to add one array of lines per command to.
      */
-    private static List<String[]> separatedQueueResults(final Iterable<String> lines) {
-        final List<String[]> result = new ArrayList<>();
-        final ArrayList<String> lineCache = new ArrayList<>();
-
-        for (final String line : lines) {
-            if (line.equals(MPD_CMD_BULK_SEP)) { // new part
-                if (!lineCache.isEmpty()) {
-                    result.add(lineCache.toArray(new String[lineCache.size()]));
-                    lineCache.clear();
-                }
-            } else {
-                lineCache.add(line);
+    private static void separate(final List<String> lines, final Collection<String[]> results) {
+        int start = 0;
+
+        for (int i = 0; i < lines.size(); i++) {
+            if (MPD_CMD_BULK_SEP.equals(lines.get(i))) {
+                results.add(lines.subList(start, i).toArray(new String[i - start]));
+                start = i + 1;
             }
         }
-        if (!lineCache.isEmpty()) {
-            result.add(lineCache.toArray(new String[lineCache.size()]));
-        }
-        return result;
     }
 
     /**
@@ -106,7 +122,7 @@ public class CommandQueue implements Iterable<MPDCommand> {
      */
     public void add(final CommandQueue commandQueue) {
         mCommandQueue.addAll(commandQueue.mCommandQueue);
-        mCommandQueueStringLength += commandQueue.mCommandQueueStringLength;
+        mCommandQueueLength += commandQueue.mCommandQueueLength;
     }
 
     /**
@@ -117,7 +133,7 @@ public class CommandQueue implements Iterable<MPDCommand> {
      */
     public void add(final int position, final CommandQueue commandQueue) {
         mCommandQueue.addAll(position, commandQueue.mCommandQueue);
-        mCommandQueueStringLength += commandQueue.mCommandQueueStringLength;
+        mCommandQueueLength += commandQueue.mCommandQueueLength;
     }
 
     /**
@@ -128,7 +144,7 @@ public class CommandQueue implements Iterable<MPDCommand> {
      */
     public void add(final int position, final MPDCommand command) {
         mCommandQueue.add(position, command);
-        mCommandQueueStringLength += command.toString().length();
+        mCommandQueueLength += command.getLength();
     }
 
     /**
@@ -138,7 +154,7 @@ public class CommandQueue implements Iterable<MPDCommand> {
      */
     public void add(final MPDCommand command) {
         mCommandQueue.add(command);
-        mCommandQueueStringLength += command.toString().length();
+        mCommandQueueLength += command.getLength();
     }
 
     /**
@@ -152,10 +168,80 @@ public class CommandQueue implements Iterable<MPDCommand> {
 
     /** Clear the command queue. */
     public void clear() {
-        mCommandQueueStringLength = getStartLength();
+        mCommandQueueLength = 0;
         mCommandQueue.clear();
     }
 
+    /**
+     * Builds the commands to send the commands which were {@code add}ed to the queue, split
+     * into command lists within the command and length limits.
+     *
+     * @param separated Whether the results should be separated.
+     * @return The commands to send, in order.
+     */
+    private List<MPDCommand> getCommands(final boolean separated) {
+        final List<MPDCommand> commands = new ArrayList<>();
+        final int size = mCommandQueue.size();
+        int start = 0;
+        int length = 0;
+
+        if (mCommandQueue.isEmpty()) {
+            throw new IllegalStateException("Cannot send an empty command queue.");
+        }
+
+        for (int i = 0; i < size; i++) {
+            final int commandLength = mCommandQueue.get(i).getLength();
+
+            if (i > start && (i - start == mMaxCommands || length + commandLength > mMaxLength)) {
+                commands.add(getCommand(start, i, length, separated));
+                start = i;
+                length = 0;
+            }
+
+            length += commandLength;
+        }
+        commands.add(getCommand(start, size, length, separated));
+
+        return commands;
+    }
+
+    /**
+     * Builds the command to send a range of the queued commands.
+     *
+     * @param start     The index of the first queued command of the range.
+     * @param end       The index after the last queued command of the range.
+     * @param length    The length of the queued commands of the range.
+     * @param separated Whether the results should be separated.
+     * @return The command to send.
+     */
+    private MPDCommand getCommand(final int start, final int end, final int length,
+            final boolean separated) {
+        final MPDCommand mpdCommand;
+
+        if (end - start == 1 && !separated) {
+            /** OK, it's not really a command queue. Send it anyhow. */
+            mpdCommand = mCommandQueue.get(start);
+        } else {
+            mpdCommand = new CommandList(mCommandQueue.subList(start, end), length, separated);
+        }
+
+        if (DEBUG) {
+            Log.debug(TAG, mpdCommand.toString());
+        }
+
+        return mpdCommand;
+    }
+
+    /**
+     * The length, in bytes, of the queued commands as sent to the media server, excluding the
+     * command list delimiters.
+     *
+     * @return The length of the queued commands.
+     */
+    public int getLength() {
+        return mCommandQueueLength;
+    }
+
     public boolean isEmpty() {
         return mCommandQueue.isEmpty();
     }
@@ -177,6 +263,7 @@ public class CommandQueue implements Iterable<MPDCommand> {
 
     /**
      * Sends the commands (without separated results) which were {@code add}ed to the queue.
+     * Command lists are sent one after the other, none is sent once one has failed.
      *
      * @param mpdConnection The connection to send the queued commands to.
      * @return The results of from the media server.
@@ -184,50 +271,115 @@ public class CommandQueue implements Iterable<MPDCommand> {
      * @throws MPDException Thrown if an error occurs as a result of command execution.
      */
     public List<String> send(final MPDConnection mpdConnection) throws IOException, MPDException {
-        return send(mpdConnection, false);
+        final List<MPDCommand> commands = getCommands(false);
+        final List<String> result;
+
+        if (commands.size() == 1) {
+            result = mpdConnection.sendCommand(commands.get(0));
+        } else {
+            result = new ArrayList<>();
+
+            for (final MPDCommand command : commands) {
+                result.addAll(mpdConnection.sendCommand(command));
+            }
+        }
+
+        return result;
     }
 
     /**
-     * Sends the commands which were {@code add}ed to the queue.
+     * Sends the commands (without separated results) which were {@code add}ed to the queue,
+     * streaming the results to a handler as they are read. Command lists are sent one after the
+     * other, none is sent once one has failed.
      *
      * @param mpdConnection The connection to send the queued commands to.
-     * @return The results of from the media server.
+     * @param handler       The handler to stream the results to.
      * @throws IOException  Thrown upon a communication error with the server.
      * @throws MPDException Thrown if an error occurs as a result of command execution.
      */
-    private List<String> send(final MPDConnection mpdConnection, final boolean separated)
+    public void send(final MPDConnection mpdConnection, final ResponseHandler handler)
             throws IOException, MPDException {
-        final MPDCommand mpdCommand;
-
-        if (mCommandQueue.isEmpty()) {
-            throw new IllegalStateException("Cannot send an empty command queue.");
+        for (final MPDCommand command : getCommands(false)) {
+            mpdConnection.sendCommand(command, handler);
         }
+    }
 
-        if (mCommandQueue.size() == 1) {
-            /** OK, it's not really a command queue. Send it anyhow. */
-            mpdCommand = mCommandQueue.get(0);
-        } else {
-            mpdCommand = new MPDCommand(toString(separated));
-        }
+    /**
+     * Sends the commands (with separated results) which were {@code add}ed to the queue. The
+     * command lists are pipelined, the next one is written while the results of the current one
+     * are read, so the server side output buffer holds the output of two command lists at most.
+     * As the next command list is already written, it runs even if the current one fails.
+     *
+     * @param mpdConnection The connection to send the queued commands to.
+     * @return The results of from the media server, one array of lines per queued command.
+     * @throws IOException  Thrown upon a communication error with the server.
+     * @throws MPDException Thrown if an error occurs as a result of command execution.
+     */
+    public List<String[]> sendSeparated(final MPDConnection mpdConnection)
+            throws IOException, MPDException {
+        final List<MPDCommand> commands = getCommands(true);
+        final List<String[]> results = new ArrayList<>(mCommandQueue.size());
+        final int size = commands.size();
+        CommandFuture next = mpdConnection.submit(commands.get(0));
 
-        if (DEBUG) {
-            Log.debug(TAG, toString(separated));
+        for (int i = 1; i <= size; i++) {
+            final CommandFuture current = next;
+
+            if (i < size) {
+                next = mpdConnection.submit(commands.get(i));
+            }
+
+            separate(current.getResponse((long) mpdConnection.getReadWriteTimeout()), results);
         }
 
-        return mpdConnection.sendCommand(mpdCommand);
+        return results;
     }
 
     /**
-     * Sends the commands (with separated results) which were {@code add}ed to the queue.
+     * Sends the commands (with separated results) which were {@code add}ed to the queue,
+     * streaming the results to a handler as they are read. Command lists are sent one after the
+     * other, none is sent once one has failed.
      *
      * @param mpdConnection The connection to send the queued commands to.
-     * @return The results of from the media server.
+     * @param handler       The handler to stream the results to, told where the results of
+     *                      each queued command end.
      * @throws IOException  Thrown upon a communication error with the server.
      * @throws MPDException Thrown if an error occurs as a result of command execution.
      */
-    public List<String[]> sendSeparated(final MPDConnection mpdConnection)
-            throws IOException, MPDException {
-        return separatedQueueResults(send(mpdConnection, true));
+    public void sendSeparated(final MPDConnection mpdConnection,
+            final CommandListResponseHandler handler) throws IOException, MPDException {
+        for (final MPDCommand command : getCommands(true)) {
+            mpdConnection.sendCommand(command, handler);
+        }
+    }
+
+    /**
+     * Sets the maximum number of commands sent in one command list.
+     *
+     * @param maxCommands The maximum number of commands in one command list.
+     * @see #DEFAULT_MAX_COMMANDS
+     */
+    public void setMaxCommands(final int maxCommands) {
+        if (maxCommands <= 0) {
+            throw new IllegalArgumentException("Invalid maximum command count: " + maxCommands);
+        }
+
+        mMaxCommands = maxCommands;
+    }
+
+    /**
+     * Sets the maximum length, in bytes, of one command list. A command longer than this limit
+     * is sent on its own.
+     *
+     * @param maxLength The maximum length of one command list.
+     * @see #DEFAULT_MAX_LENGTH
+     */
+    public void setMaxLength(final int maxLength) {
+        if (maxLength <= 0) {
+            throw new IllegalArgumentException("Invalid maximum length: " + maxLength);
+        }
+
+        mMaxLength = maxLength;
     }
 
     public int size() {
@@ -241,30 +393,72 @@ public class CommandQueue implements Iterable<MPDCommand> {
      */
     @Override
     public String toString() {
-        return toString(false);
+        return new CommandList(mCommandQueue, mCommandQueueLength, false).toString();
     }
 
     /**
-     * The command queue builder.
-     *
-     * @param separated Whether the results should be separated.
-     * @return A string to be parsed by either {@code send()} or {@code sendSeparated()}.
+     * The command list of a command queue, written command by command to the media server.
      */
-    private String toString(final boolean separated) {
-        final StringBuilder commandString = new StringBuilder(mCommandQueueStringLength);
+    private static final class CommandList extends MPDCommand {
 
-        if (separated) {
-            commandString.append(MPD_CMD_START_BULK_OK);
-        } else {
-            commandString.append(MPD_CMD_START_BULK);
+        private final MPDCommand[] mCommands;
+
+        private final int mLength;
+
+        /** Whether the results are separated, one array of lines per command. */
+        private final boolean mSeparated;
+
+        CommandList(final List<MPDCommand> commands, final int length,
+                final boolean separated) {
+            super(separated ? MPD_CMD_START_BULK_OK : MPD_CMD_START_BULK);
+
+            mCommands = commands.toArray(new MPDCommand[commands.size()]);
+            mSeparated = separated;
+            mLength = getCommand().length() + length + MPD_CMD_END_BULK.length() + 2;
         }
-        commandString.append(MPDCommand.MPD_CMD_NEWLINE);
 
-        for (final MPDCommand command : mCommandQueue) {
-            commandString.append(command);
+        @Override
+        public int getLength() {
+            return mLength;
         }
-        commandString.append(MPD_CMD_END_BULK);
 
-        return commandString.toString();
+        /**
+         * An error is non-fatal to the command list if it is non-fatal to one of its commands, as
+         * the list stops at the command which failed. The error is always fatal to a list with
+         * separated results, as the results of the commands after the failed one would be
+         * missing, and the results would no longer match the commands.
+         *
+         * @param errorCodeToCheck The {@code ACK} error code to check.
+         * @return True if the {@code ACK} error code is non-fatal to one of the commands of a
+         * list without separated results.
+         */
+        @Override
+        public boolean isErrorNonfatal(final int errorCodeToCheck) {
+            boolean result = false;
+
+            if (!mSeparated) {
+                for (final MPDCommand command : mCommands) {
+                    if (command.isErrorNonfatal(errorCodeToCheck)) {
+                        result = true;
+                        break;
+                    }
+                }
+            }
+
+            return result;
+        }
+
+        @Override
+        public void write(final Writer out) throws IOException {
+            out.write(getCommand());
+            out.write(MPD_CMD_NEWLINE);
+
+            for (final MPDCommand command : mCommands) {
+                command.write(out);
+            }
+
+            out.write(MPD_CMD_END_BULK);
+            out.write(MPD_CMD_NEWLINE);
+        }
     }
 }
@@ -0,0 +1,216 @@
+/*
+ * Copyright (C) 2004 Felipe Gustavo de Almeida
+ * Copyright (C) 2010-2014 The MPDroid Project
+ *
+ * All Rights Reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice,this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE AUTHOR AND CONTRIBUTORS ``AS IS'' AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED.  IN NO EVENT SHALL THE AUTHOR OR CONTRIBUTORS BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ * THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+
+package org.a0z.mpd;
+
+import java.util.Arrays;
+
+/**
+ * A hash map from {@code int} keys to {@code int} values, without boxing. This uses open
+ * addressing with linear probing, and removes entries by shifting the following entries back,
+ * so lookups never need to skip deleted entries. This class is not thread safe.
+ */
+final class IntIntHashMap {
+
+    /** The value returned for keys which are not in the map. */
+    static final int NO_VALUE = -1;
+
+    /** The key marking an empty slot, which can not be used as a key. */
+    private static final int EMPTY = Integer.MIN_VALUE;
+
+    /** The minimum table size, must be a power of two. */
+    private static final int MINIMUM_CAPACITY = 16;
+
+    /** The keys of the table, {@link #EMPTY} for empty slots. */
+    private int[] mKeys;
+
+    /** The number of entries in the map. */
+    private int mSize;
+
+    /** The values of the table, at the same index as their key. */
+    private int[] mValues;
+
+    IntIntHashMap() {
+        this(0);
+    }
+
+    /**
+     * Constructs a copy of a map.
+     *
+     * @param map The map to copy.
+     */
+    IntIntHashMap(final IntIntHashMap map) {
+        super();
+
+        mKeys = map.mKeys.clone();
+        mValues = map.mValues.clone();
+        mSize = map.mSize;
+    }
+
+    /**
+     * Constructs a map which holds {@code expectedSize} entries without growing.
+     *
+     * @param expectedSize The expected number of entries.
+     */
+    IntIntHashMap(final int expectedSize) {
+        super();
+
+        allocate(tableSize(expectedSize));
+    }
+
+    /**
+     * Mixes the bits of a key, so sequential keys do not cluster.
+     *
+     * @param key The key to hash.
+     * @return The hash of the key.
+     */
+    private static int hash(final int key) {
+        final int hash = key * 0x9E3779B9;
+
+        return hash ^ hash >>> 16;
+    }
+
+    /**
+     * The table size needed to hold a number of entries, keeping the load at most one half.
+     *
+     * @param size The number of entries.
+     * @return A power of two table size.
+     */
+    private static int tableSize(final int size) {
+        int tableSize = MINIMUM_CAPACITY;
+
+        while (tableSize < size * 2) {
+            tableSize <<= 1;
+        }
+
+        return tableSize;
+    }
+
+    private void allocate(final int tableSize) {
+        mKeys = new int[tableSize];
+        mValues = new int[tableSize];
+        Arrays.fill(mKeys, EMPTY);
+    }
+
+    /**
+     * Retrieves the value of a key.
+     *
+     * @param key The key to look up.
+     * @return The value of the key, {@link #NO_VALUE} if the key is not in the map.
+     */
+    int get(final int key) {
+        final int mask = mKeys.length - 1;
+        int value = NO_VALUE;
+
+        for (int i = hash(key) & mask; mKeys[i] != EMPTY; i = i + 1 & mask) {
+            if (mKeys[i] == key) {
+                value = mValues[i];
+                break;
+            }
+        }
+
+        return value;
+    }
+
+    /**
+     * Sets the value of a key.
+     *
+     * @param key   The key to set, must not be {@link Integer#MIN_VALUE}.
+     * @param value The value to set.
+     */
+    void put(final int key, final int value) {
+        if (key == EMPTY) {
+            throw new IllegalArgumentException("Invalid key: " + key);
+        }
+
+        if ((mSize + 1) * 2 > mKeys.length) {
+            rehash(mKeys.length << 1);
+        }
+
+        final int mask = mKeys.length - 1;
+        int i = hash(key) & mask;
+
+        while (mKeys[i] != EMPTY && mKeys[i] != key) {
+            i = i + 1 & mask;
+        }
+
+        if (mKeys[i] == EMPTY) {
+            mKeys[i] = key;
+            mSize++;
+        }
+        mValues[i] = value;
+    }
+
+    private void rehash(final int tableSize) {
+        final int[] keys = mKeys;
+        final int[] values = mValues;
+
+        allocate(tableSize);
+        mSize = 0;
+        for (int i = 0; i < keys.length; i++) {
+            if (keys[i] != EMPTY) {
+                put(keys[i], values[i]);
+            }
+        }
+    }
+
+    /**
+     * Removes a key, if its value is the one given.
+     *
+     * @param key   The key to remove.
+     * @param value The value the key must have to be removed.
+     * @return True if the key was removed, false otherwise.
+     */
+    boolean remove(final int key, final int value) {
+        final int mask = mKeys.length - 1;
+        int i = hash(key) & mask;
+
+        while (mKeys[i] != EMPTY && mKeys[i] != key) {
+            i = i + 1 & mask;
+        }
+
+        final boolean isRemoved = key != EMPTY && mKeys[i] == key && mValues[i] == value;
+        if (isRemoved) {
+            /** Shift back the following entries which would not be found past the new hole. */
+            int hole = i;
+            for (int j = i + 1 & mask; mKeys[j] != EMPTY; j = j + 1 & mask) {
+                final int home = hash(mKeys[j]) & mask;
+
+                if ((j - home & mask) >= (j - hole & mask)) {
+                    mKeys[hole] = mKeys[j];
+                    mValues[hole] = mValues[j];
+                    hole = j;
+                }
+            }
+            mKeys[hole] = EMPTY;
+            mSize--;
+        }
+
+        return isRemoved;
+    }
+}
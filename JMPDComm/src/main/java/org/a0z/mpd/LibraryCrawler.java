@@ -0,0 +1,284 @@
+/*
+ * Copyright (C) 2004 Felipe Gustavo de Almeida
+ * Copyright (C) 2010-2014 The MPDroid Project
+ *
+ * All Rights Reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice,this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE AUTHOR AND CONTRIBUTORS ``AS IS'' AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED.  IN NO EVENT SHALL THE AUTHOR OR CONTRIBUTORS BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ * THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.a0z.mpd;
+
+import org.a0z.mpd.connection.MPDConnection;
+import org.a0z.mpd.connection.ResponseHandler;
+import org.a0z.mpd.exception.MPDException;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.LinkedList;
+import java.util.List;
+
+/**
+ * This class crawls the entire media server database in bounded chunks, for databases too large
+ * to be listed with a single {@code listallinfo} without exceeding the server
+ * {@code max_output_buffer_size}.
+ *
+ * <p>The root directory is listed with {@code lsinfo}, then each of its subdirectories with
+ * {@code listallinfo}. If the connection fails during a {@code listallinfo}, as it does when the
+ * server output buffer overflows, the directory is split: it is listed with {@code lsinfo} and its
+ * subdirectories are crawled one by one. A directory whose {@code lsinfo} fails twice, which is
+ * unlikely to be a mere disconnection, is crawled in {@code find} windows on MPD protocol 0.20.0
+ * and newer, halving the window on each failure.</p>
+ *
+ * <p>The responses are streamed to a {@link CrawlHandler} while they are read. A failed chunk is
+ * kept, so a crawl interrupted by a disconnection resumes from it on the next call to
+ * {@link #crawl(CrawlHandler)}. A crawler should be discarded if the database is updated while
+ * crawling.</p>
+ *
+ * @see MPD#createLibraryCrawler(int)
+ */
+public class LibraryCrawler {
+
+    /** The default number of songs of a {@code find} window. */
+    public static final int DEFAULT_WINDOW_SIZE = 1000;
+
+    /** Lists a directory and its subdirectories with {@code listallinfo}. */
+    private static final int MODE_LIST_ALL = 0;
+
+    /** Lists a directory with {@code lsinfo}, then crawls its subdirectories. */
+    private static final int MODE_LIST = 1;
+
+    /** Lists the songs of a directory and its subdirectories with a {@code find} window. */
+    private static final int MODE_WINDOW = 2;
+
+    private static final String TAG = "LibraryCrawler";
+
+    private final MPDConnection mConnection;
+
+    /** The chunks left to crawl, the chunk to crawl next first. */
+    private final Deque<Chunk> mPending = new LinkedList<>();
+
+    /** The number of songs of a {@code find} window. */
+    private int mWindowSize;
+
+    /**
+     * Constructs a crawler, starting from the root directory.
+     *
+     * @param connection The connection to crawl the database with.
+     * @param windowSize The number of songs of a {@code find} window.
+     */
+    LibraryCrawler(final MPDConnection connection, final int windowSize) {
+        super();
+
+        if (windowSize <= 0) {
+            throw new IllegalArgumentException("Invalid window size: " + windowSize);
+        }
+
+        mConnection = connection;
+        mWindowSize = windowSize;
+        mPending.add(new Chunk(MODE_LIST, "", 0));
+    }
+
+    /**
+     * Crawls the chunks left, streaming their responses to a handler. The handler is called from
+     * the thread processing the commands. If a chunk fails, {@link CrawlHandler#abortChunk()} is
+     * called and the exception is thrown; the chunk is crawled again, split if it could be too
+     * large, on the next call.
+     *
+     * @param handler The handler of the responses.
+     * @throws IOException  Thrown upon a communication error with the server.
+     * @throws MPDException Thrown if an error occurs as a result of command execution.
+     */
+    public void crawl(final CrawlHandler handler) throws IOException, MPDException {
+        while (!mPending.isEmpty()) {
+            final Chunk chunk = mPending.getFirst();
+            final int windowSize = mWindowSize;
+            final ChunkReader reader = new ChunkReader(handler, chunk.mMode == MODE_LIST);
+
+            try {
+                mConnection.sendCommand(getCommand(chunk, windowSize), reader);
+            } catch (final IOException e) {
+                handler.abortChunk();
+                split(chunk);
+                throw e;
+            } catch (final MPDException e) {
+                handler.abortChunk();
+                if (e.mErrorCode != MPDException.ACK_ERROR_NO_EXIST) {
+                    throw e;
+                }
+
+                /** The directory was removed by a database update since it was listed. */
+                Log.warning(TAG, "Skipping missing directory: " + chunk.mPath, e);
+                mPending.removeFirst();
+                continue;
+            }
+
+            mPending.removeFirst();
+            if (chunk.mMode == MODE_WINDOW && reader.mSongCount >= windowSize) {
+                mPending.addFirst(new Chunk(MODE_WINDOW, chunk.mPath,
+                        chunk.mStart + reader.mSongCount));
+            }
+            for (int i = reader.mDirectories.size() - 1; i >= 0; i--) {
+                mPending.addFirst(new Chunk(MODE_LIST_ALL, reader.mDirectories.get(i), 0));
+            }
+            handler.endChunk();
+        }
+    }
+
+    /**
+     * Builds the command to list a chunk.
+     *
+     * @param chunk      The chunk to list.
+     * @param windowSize The number of songs of a {@code find} window.
+     * @return The command listing the chunk.
+     */
+    private static MPDCommand getCommand(final Chunk chunk, final int windowSize) {
+        final MPDCommand command;
+
+        switch (chunk.mMode) {
+            case MODE_LIST_ALL:
+                command = new MPDCommand(MPDCommand.MPD_CMD_LISTALLINFO, chunk.mPath);
+                break;
+            case MODE_LIST:
+                command = new MPDCommand(MPDCommand.MPD_CMD_LSDIR, chunk.mPath);
+                break;
+            default:
+                final String window = Integer.toString(chunk.mStart) + ':' +
+                        Integer.toString(chunk.mStart + windowSize);
+
+                if (chunk.mPath.isEmpty()) {
+                    /** Any song was modified since the epoch, as the base can't be the root. */
+                    command = new MPDCommand(MPDCommand.MPD_CMD_FIND,
+                            MPDCommand.MPD_SEARCH_MODIFIED_SINCE, "0",
+                            MPDCommand.MPD_SEARCH_WINDOW, window);
+                } else {
+                    command = new MPDCommand(MPDCommand.MPD_CMD_FIND,
+                            MPDCommand.MPD_SEARCH_BASE, chunk.mPath,
+                            MPDCommand.MPD_SEARCH_WINDOW, window);
+                }
+                break;
+        }
+
+        return command;
+    }
+
+    /**
+     * Whether the entire database has been crawled.
+     *
+     * @return True if there are no chunks left to crawl.
+     */
+    public boolean isDone() {
+        return mPending.isEmpty();
+    }
+
+    /**
+     * Replaces a failed chunk by smaller chunks, if it can be split further.
+     *
+     * @param chunk The chunk which failed, first of the pending chunks.
+     */
+    private void split(final Chunk chunk) {
+        switch (chunk.mMode) {
+            case MODE_LIST_ALL:
+                mPending.removeFirst();
+                mPending.addFirst(new Chunk(MODE_LIST, chunk.mPath, 0));
+                break;
+            case MODE_LIST:
+                chunk.mFailures++;
+                if (chunk.mFailures > 1 && mConnection.isProtocolVersionSupported(0, 20)) {
+                    mPending.removeFirst();
+                    mPending.addFirst(new Chunk(MODE_WINDOW, chunk.mPath, 0));
+                }
+                break;
+            default:
+                mWindowSize = Math.max(1, mWindowSize / 2);
+                break;
+        }
+
+        Log.warning(TAG, "Failed to list " + chunk.mPath + '.');
+    }
+
+    /** The handler of the responses of a crawl. */
+    public interface CrawlHandler extends ResponseHandler {
+
+        /**
+         * Called if the response of a chunk failed; the pairs handled since the last
+         * {@link #endChunk()} should be discarded, as the chunk will be crawled again.
+         */
+        void abortChunk();
+
+        /** Called once the response of a chunk has been handled entirely. */
+        void endChunk();
+    }
+
+    /** A part of the database listed with a single command. */
+    private static final class Chunk {
+
+        private final int mMode;
+
+        /** The number of times this chunk failed. */
+        private int mFailures;
+
+        private final String mPath;
+
+        /** The position of the first song of a {@code find} window. */
+        private final int mStart;
+
+        private Chunk(final int mode, final String path, final int start) {
+            super();
+
+            mMode = mode;
+            mPath = path;
+            mStart = start;
+        }
+    }
+
+    /** Passes the response of a chunk on to the crawl handler, keeping track of its entries. */
+    private static final class ChunkReader implements ResponseHandler {
+
+        /** The subdirectories to crawl next, if the chunk is listed with {@code lsinfo}. */
+        private final List<String> mDirectories = new ArrayList<>();
+
+        private final CrawlHandler mHandler;
+
+        private final boolean mIsList;
+
+        private int mSongCount;
+
+        private ChunkReader(final CrawlHandler handler, final boolean isList) {
+            super();
+
+            mHandler = handler;
+            mIsList = isList;
+        }
+
+        @Override
+        public void handle(final String key, final String value) {
+            if ("file".equals(key)) {
+                mSongCount++;
+            } else if (mIsList && "directory".equals(key)) {
+                mDirectories.add(value);
+            }
+
+            mHandler.handle(key, value);
+        }
+    }
+}
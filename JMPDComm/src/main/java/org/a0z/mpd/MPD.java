@@ -27,9 +27,12 @@
 
 package org.a0z.mpd;
 
+import org.a0z.mpd.connection.CommandFuture;
 import org.a0z.mpd.connection.MPDConnection;
 import org.a0z.mpd.connection.MPDConnectionMonoSocket;
 import org.a0z.mpd.connection.MPDConnectionMultiSocket;
+import org.a0z.mpd.connection.ReconnectPolicy;
+import org.a0z.mpd.connection.ResponseHandler;
 import org.a0z.mpd.exception.MPDException;
 import org.a0z.mpd.item.Album;
 import org.a0z.mpd.item.Artist;
@@ -38,18 +41,29 @@ import org.a0z.mpd.item.FilesystemTreeEntry;
 import org.a0z.mpd.item.Genre;
 import org.a0z.mpd.item.Item;
 import org.a0z.mpd.item.Music;
+import org.a0z.mpd.item.MusicBuilder;
 import org.a0z.mpd.item.PlaylistFile;
 import org.a0z.mpd.item.Stream;
+import org.a0z.mpd.subsystem.Artwork;
 import org.a0z.mpd.subsystem.Sticker;
 
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.net.InetAddress;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.Date;
+import java.util.Deque;
+import java.util.HashMap;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
 
 import static org.a0z.mpd.Tools.KEY;
 import static org.a0z.mpd.Tools.VALUE;
@@ -59,27 +73,85 @@ import static org.a0z.mpd.Tools.VALUE;
  */
 public class MPD {
 
+    /**
+     * The default maximum number of first track lookups waiting for a response at once.
+     *
+     * @see #setMaxPendingLookups(int)
+     */
+    public static final int DEFAULT_MAX_PENDING_LOOKUPS = 32;
+
     public static final String STREAMS_PLAYLIST = "[Radio Streams]";
 
+    /** The first track lookup finding track "1", the most likely match. */
+    private static final int FIRST_TRACK_FIND = 0;
+
+    /** The first track lookup finding track "01". */
+    private static final int FIRST_TRACK_FIND_PADDED = 1;
+
+    /** The first track lookup searching for track "1", also matching "1/12" and such. */
+    private static final int FIRST_TRACK_SEARCH = 2;
+
+    /** The first track lookup finding all tracks, the last resort. */
+    private static final int FIRST_TRACK_ALL = 3;
+
+    /** The number of first track lookups. */
+    private static final int FIRST_TRACK_LOOKUPS = 4;
+
+    /**
+     * Matches the songs with an album artist tag. Without it, the media server matches a missing
+     * album artist against the artist.
+     */
+    private static final String HAS_ALBUM_ARTIST =
+            '(' + MPDCommand.MPD_TAG_ALBUM_ARTIST + " != \"\")";
+
     private static final String TAG = "MPD";
 
     protected final MPDPlaylist mPlaylist;
 
+    private final Artwork mArtwork;
+
     private final MPDConnection mConnection;
 
     private final MPDConnection mIdleConnection;
 
+    /** The root of the directory tree of this media server. */
+    private final Directory mRootDirectory = Directory.makeRootDirectory();
+
     private final MPDStatistics mStatistics;
 
     private final MPDStatus mStatus;
 
+    /**
+     * The first track lookup which matched the most albums in the last batch, tried first by the
+     * next batch as the tags of a library tend to be formatted alike.
+     */
+    private volatile int mFirstTrackLookup = FIRST_TRACK_FIND;
+
+    /** The maximum number of first track lookups waiting for a response at once. */
+    private volatile int mMaxPendingLookups = DEFAULT_MAX_PENDING_LOOKUPS;
+
     /**
      * Constructs a new MPD server controller without connection.
      */
     public MPD() {
+        this(new MPDConnectionMultiSocket(5000, 2), new MPDConnectionMonoSocket(0));
+    }
+
+    /**
+     * Constructs a new MPD server controller without connection, using the given connections.
+     * For instance, {@link org.a0z.mpd.connection.MPDConnectionSelector} connections let many
+     * server controllers share a single thread.
+     *
+     * @param connection     The connection used for commands.
+     * @param idleConnection The connection dedicated to the {@code idle} command, which must not
+     *                       time out.
+     */
+    public MPD(final MPDConnection connection, final MPDConnection idleConnection) {
         super();
-        mConnection = new MPDConnectionMultiSocket(5000, 2);
-        mIdleConnection = new MPDConnectionMonoSocket(0);
+        mConnection = connection;
+        mIdleConnection = idleConnection;
+        mIdleConnection.setReconnectPolicy(mConnection.getReconnectPolicy());
+        mArtwork = new Artwork(mConnection);
         mStatistics = new MPDStatistics();
 
         mPlaylist = new MPDPlaylist(mConnection);
@@ -131,6 +203,47 @@ public class MPD {
         return artistPair;
     }
 
+    /**
+     * The tag and value pairs matching the songs of an album.
+     *
+     * @param album The album to match.
+     * @return The album tag and value pairs, with a null artist pair if the album has no artist.
+     */
+    private static String[] getAlbumTags(final Album album) {
+        final String[] artistPair = getAlbumArtistPair(album);
+
+        return new String[]{MPDCommand.MPD_TAG_ALBUM, album.getName(), artistPair[0],
+                artistPair[1]};
+    }
+
+    /**
+     * Builds a filter expression matching the songs of an album exactly: the songs with the album
+     * artist for an album artist, or the songs of the artist without an album artist. This is
+     * the filter syntax added in MPD protocol 0.21.0.
+     *
+     * @param album       The album name, null to match all the albums of the artist.
+     * @param artist      The artist name.
+     * @param albumArtist Whether the artist is an album artist.
+     * @return The filter expression, to be sent as a single argument.
+     */
+    private static String getExactAlbumFilter(final String album, final String artist,
+            final boolean albumArtist) {
+        final String albumTag = album == null ? null : MPDCommand.MPD_TAG_ALBUM;
+        final String filter;
+
+        if (albumArtist) {
+            final String tags = MPDCommand.filterExpression(albumTag, album,
+                    MPDCommand.MPD_TAG_ALBUM_ARTIST, artist);
+
+            filter = tags.substring(0, tags.length() - 1) + " AND " + HAS_ALBUM_ARTIST + ')';
+        } else {
+            filter = MPDCommand.filterExpression(albumTag, album, MPDCommand.MPD_TAG_ARTIST,
+                    artist, MPDCommand.MPD_TAG_ALBUM_ARTIST, "");
+        }
+
+        return filter;
+    }
+
     private static MPDCommand getAlbumDetailsCommand(final Album album) {
         final String[] artistPair = getAlbumArtistPair(album);
 
@@ -139,11 +252,21 @@ public class MPD {
                 artistPair[0], artistPair[1]);
     }
 
-    private static MPDCommand getSongsCommand(final Album album) {
-        final String[] artistPair = getAlbumArtistPair(album);
+    /**
+     * Builds a {@code findadd} command inserting the matching songs at a position of the playlist
+     * queue. Positional insert was added in MPD protocol 0.23.0.
+     *
+     * @param position The position of the first of the inserted songs.
+     * @param tags     The tag and value pairs to match.
+     * @return The {@code findadd} command.
+     */
+    private static MPDCommand getFindAddCommand(final int position, final String... tags) {
+        return new MPDCommand(MPDCommand.MPD_CMD_FIND_ADD, MPDCommand.filterExpression(tags),
+                MPDCommand.MPD_CMD_POSITION, Integer.toString(position));
+    }
 
-        return new MPDCommand(MPDCommand.MPD_CMD_FIND, MPDCommand.MPD_TAG_ALBUM, album.getName(),
-                artistPair[0], artistPair[1]);
+    private static MPDCommand getSongsCommand(final Album album) {
+        return new MPDCommand(MPDCommand.MPD_CMD_FIND, getAlbumTags(album));
     }
 
     /*
@@ -209,13 +332,9 @@ public class MPD {
         final CommandQueue commandQueue;
 
         if (isCommandAvailable(MPDCommand.MPD_CMD_FIND_ADD)) {
-            final String[] artistPair = getAlbumArtistPair(album);
-
             commandQueue = new CommandQueue();
 
-            commandQueue
-                    .add(MPDCommand.MPD_CMD_FIND_ADD, MPDCommand.MPD_TAG_ALBUM, album.getName(),
-                            artistPair[0], artistPair[1]);
+            commandQueue.add(MPDCommand.MPD_CMD_FIND_ADD, getAlbumTags(album));
         } else {
             final List<Music> songs = getSongs(album);
             commandQueue = MPDPlaylist.addAllCommand(songs);
@@ -224,6 +343,23 @@ public class MPD {
         add(commandQueue, replace, play);
     }
 
+    /**
+     * Inserts a {@code Album} item object at a position of the playlist queue, with a single
+     * {@code findadd} if the media server supports positional insert.
+     *
+     * @param album    {@code Album} item object to be inserted in the playlist queue.
+     * @param position The position of the first of the inserted songs.
+     * @throws IOException  Thrown upon a communication error with the server.
+     * @throws MPDException Thrown if an error occurs as a result of command execution.
+     */
+    public void add(final Album album, final int position) throws IOException, MPDException {
+        if (mConnection.isProtocolVersionSupported(0, 23)) {
+            mConnection.sendCommand(getFindAddCommand(position, getAlbumTags(album)));
+        } else {
+            MPDPlaylist.addAllCommand(getSongs(album), position).send(mConnection);
+        }
+    }
+
     /**
      * Adds a {@code Artist} item object to the playlist queue.
      *
@@ -261,6 +397,24 @@ public class MPD {
         add(commandQueue, replace, play);
     }
 
+    /**
+     * Inserts a {@code Artist} item object at a position of the playlist queue, with a single
+     * {@code findadd} if the media server supports positional insert.
+     *
+     * @param artist   {@code Artist} item object to be inserted in the playlist queue.
+     * @param position The position of the first of the inserted songs.
+     * @throws IOException  Thrown upon a communication error with the server.
+     * @throws MPDException Thrown if an error occurs as a result of command execution.
+     */
+    public void add(final Artist artist, final int position) throws IOException, MPDException {
+        if (mConnection.isProtocolVersionSupported(0, 23)) {
+            mConnection.sendCommand(getFindAddCommand(position, MPDCommand.MPD_TAG_ARTIST,
+                    artist.getName()));
+        } else {
+            MPDPlaylist.addAllCommand(getSongs(artist), position).send(mConnection);
+        }
+    }
+
     /**
      * Add a {@code Music} or {@code Directory} item object to the playlist queue.
      * {@code PlaylistFile} items are added in it's own method.
@@ -313,6 +467,26 @@ public class MPD {
         add(commandQueue, replace, play);
     }
 
+    /**
+     * Inserts a {@code Genre} item object at a position of the playlist queue, with a single
+     * {@code findadd} if the media server supports positional insert.
+     *
+     * @param genre    {@code Genre} item object to be inserted in the playlist queue.
+     * @param position The position of the first of the inserted songs.
+     * @throws IOException  Thrown upon a communication error with the server.
+     * @throws MPDException Thrown if an error occurs as a result of command execution.
+     */
+    public void add(final Genre genre, final int position) throws IOException, MPDException {
+        if (mConnection.isProtocolVersionSupported(0, 23)) {
+            mConnection.sendCommand(getFindAddCommand(position, MPDCommand.MPD_TAG_GENRE,
+                    genre.getName()));
+        } else {
+            final Collection<Music> music = find(MPDCommand.MPD_TAG_GENRE, genre.getName());
+
+            MPDPlaylist.addAllCommand(music, position).send(mConnection);
+        }
+    }
+
     /**
      * Adds songs to the queue. Optionally, clears the queue prior to the addition. Optionally,
      * play the added songs afterward.
@@ -410,10 +584,12 @@ public class MPD {
 
     protected void addAlbumPaths(final List<Album> albums) throws IOException, MPDException {
         if (albums != null && !albums.isEmpty()) {
-            for (final Album album : albums) {
-                final List<Music> songs = getFirstTrack(album);
+            final List<List<Music>> firstTracks = getFirstTracks(albums);
+
+            for (int i = 0; i < albums.size(); i++) {
+                final List<Music> songs = firstTracks.get(i);
                 if (!songs.isEmpty()) {
-                    album.setPath(songs.get(0).getPath());
+                    albums.get(i).setPath(songs.get(0).getPath());
                 }
             }
         }
@@ -428,23 +604,40 @@ public class MPD {
         add(commandQueue, replace, play);
     }
 
+    /**
+     * Adds the songs of an album to a stored playlist. With MPD protocol 0.21.0 and newer, this is
+     * a single {@code searchaddpl} with a filter expression matching the tags as a whole, rather
+     * than as substrings.
+     *
+     * @param playlistName The stored playlist to add the songs to.
+     * @param album        The album to add.
+     * @throws IOException  Thrown upon a communication error with the server.
+     * @throws MPDException Thrown if an error occurs as a result of command execution.
+     */
     public void addToPlaylist(final String playlistName, final Album album)
             throws IOException, MPDException {
-        if (mIdleConnection.isCommandAvailable(MPDCommand.MPD_CMD_SEARCH_ADD_PLAYLIST)) {
-            final String[] artistPair = getAlbumArtistPair(album);
-
+        if (mConnection.isProtocolVersionSupported(0, 21)) {
             mConnection.sendCommand(MPDCommand.MPD_CMD_SEARCH_ADD_PLAYLIST, playlistName,
-                    MPDCommand.MPD_SEARCH_ALBUM, album.getName(), artistPair[0], artistPair[1]);
+                    MPDCommand.filterExpression(getAlbumTags(album)));
         } else {
             addToPlaylist(playlistName, new ArrayList<>(getSongs(album)));
         }
     }
 
+    /**
+     * Adds the songs of an artist to a stored playlist.
+     *
+     * @param playlistName The stored playlist to add the songs to.
+     * @param artist       The artist to add.
+     * @throws IOException  Thrown upon a communication error with the server.
+     * @throws MPDException Thrown if an error occurs as a result of command execution.
+     * @see #addToPlaylist(String, Album)
+     */
     public void addToPlaylist(final String playlistName, final Artist artist)
             throws IOException, MPDException {
-        if (mIdleConnection.isCommandAvailable(MPDCommand.MPD_CMD_SEARCH_ADD_PLAYLIST)) {
+        if (mConnection.isProtocolVersionSupported(0, 21)) {
             mConnection.sendCommand(MPDCommand.MPD_CMD_SEARCH_ADD_PLAYLIST, playlistName,
-                    MPDCommand.MPD_SEARCH_ARTIST, artist.getName());
+                    MPDCommand.filterExpression(MPDCommand.MPD_TAG_ARTIST, artist.getName()));
         } else {
             addToPlaylist(playlistName, new ArrayList<>(getSongs(artist)));
         }
@@ -469,11 +662,20 @@ public class MPD {
                 entry.getFullPath());
     }
 
+    /**
+     * Adds the songs of a genre to a stored playlist.
+     *
+     * @param playlistName The stored playlist to add the songs to.
+     * @param genre        The genre to add.
+     * @throws IOException  Thrown upon a communication error with the server.
+     * @throws MPDException Thrown if an error occurs as a result of command execution.
+     * @see #addToPlaylist(String, Album)
+     */
     public void addToPlaylist(final String playlistName, final Genre genre)
             throws IOException, MPDException {
-        if (mIdleConnection.isCommandAvailable(MPDCommand.MPD_CMD_SEARCH_ADD_PLAYLIST)) {
+        if (mConnection.isProtocolVersionSupported(0, 21)) {
             mConnection.sendCommand(MPDCommand.MPD_CMD_SEARCH_ADD_PLAYLIST, playlistName,
-                    MPDCommand.MPD_SEARCH_GENRE, genre.getName());
+                    MPDCommand.filterExpression(MPDCommand.MPD_TAG_GENRE, genre.getName()));
         } else {
             final Collection<Music> music = find(MPDCommand.MPD_TAG_GENRE, genre.getName());
 
@@ -563,6 +765,21 @@ public class MPD {
         connect(host, port, password);
     }
 
+    /**
+     * Creates a crawler which lists the entire database in bounded chunks, streaming them to a
+     * handler, rather than with a single {@code listallinfo} which may exceed the server
+     * max_output_buffer_size.
+     *
+     * @param windowSize The number of songs of a {@code find} window, for the directories too
+     *                   large to be listed at once.
+     * @return A new crawler, starting from the root directory.
+     * @see LibraryCrawler#DEFAULT_WINDOW_SIZE
+     * @see #listAllInfo(ResponseHandler)
+     */
+    public LibraryCrawler createLibraryCrawler(final int windowSize) {
+        return new LibraryCrawler(mConnection, windowSize);
+    }
+
     public void disableOutput(final int id) throws IOException, MPDException {
         mConnection.sendCommand(MPDCommand.MPD_CMD_OUTPUTDISABLE, Integer.toString(id));
     }
@@ -592,6 +809,26 @@ public class MPD {
         }
     }
 
+    /**
+     * Waits for the responses of pipelined commands abandoned after a failure, so they are not
+     * left pending on the connection. Waiting stops at the first communication error, as the
+     * commands submitted after it can't complete any sooner.
+     *
+     * @param futures The futures of the abandoned commands.
+     */
+    private void drainResponses(final Iterable<CommandFuture> futures) {
+        for (final CommandFuture future : futures) {
+            try {
+                getResponse(future);
+            } catch (final IOException e) {
+                Log.warning(TAG, "Failed to drain the pending responses.", e);
+                break;
+            } catch (final MPDException ignored) {
+                /** The failure of an abandoned command is of no interest. */
+            }
+        }
+    }
+
     public void editSavedStream(final String url, final String name, final Integer pos)
             throws IOException, MPDException {
         removeSavedStream(pos);
@@ -620,6 +857,29 @@ public class MPD {
         return genericSearch(MPDCommand.MPD_CMD_FIND, type, locatorString);
     }
 
+    /**
+     * Retrieves the songs of the database modified since a time, to find the songs whose tags
+     * changed without the content of their directory changing.
+     *
+     * @param date The time to look for modifications from.
+     * @return The songs modified since {@code date}, null if the media server is older than
+     * protocol 0.19.0, which added the {@code modified-since} filter.
+     * @throws IOException  Thrown upon a communication error with the server.
+     * @throws MPDException Thrown if an error occurs as a result of command execution.
+     */
+    public List<Music> findModifiedSince(final Date date) throws IOException, MPDException {
+        final List<Music> result;
+
+        if (mConnection.isProtocolVersionSupported(0, 19)) {
+            result = genericSearch(MPDCommand.MPD_CMD_FIND, MPDCommand.MPD_SEARCH_MODIFIED_SINCE,
+                    Long.toString(date.getTime() / 1000L));
+        } else {
+            result = null;
+        }
+
+        return result;
+    }
+
     public List<Music> find(final String[] args) throws IOException, MPDException {
         return genericSearch(MPDCommand.MPD_CMD_FIND, args, true);
     }
@@ -671,13 +931,12 @@ public class MPD {
 
     protected List<Music> genericSearch(final String searchCommand, final String[] args,
             final boolean sort) throws IOException, MPDException {
-        return Music.getMusicFromList(mConnection.sendCommand(searchCommand, args), sort);
+        return getMusic(new MPDCommand(searchCommand, args), sort);
     }
 
     protected List<Music> genericSearch(final String searchCommand, final String type,
             final String strToFind) throws IOException, MPDException {
-        final List<String> response = mConnection.sendCommand(searchCommand, type, strToFind);
-        return Music.getMusicFromList(response, true);
+        return getMusic(new MPDCommand(searchCommand, type, strToFind), true);
     }
 
     public int getAlbumCount(final Artist artist, final boolean useAlbumArtistTag)
@@ -709,14 +968,100 @@ public class MPD {
                         a.setDuration(Long.parseLong(pair[VALUE]));
                     }
                 }
+            }
 
-                if (findYear) {
-                    final List<Music> songs = getFirstTrack(a);
+            if (findYear) {
+                final List<List<Music>> firstTracks = getFirstTracks(albums);
+
+                for (int i = 0; i < albums.size(); i++) {
+                    final List<Music> songs = firstTracks.get(i);
                     if (null != songs && !songs.isEmpty()) {
-                        a.setYear(songs.get(0).getDate());
-                        a.setPath(songs.get(0).getPath());
+                        albums.get(i).setYear(songs.get(0).getDate());
+                        albums.get(i).setPath(songs.get(0).getPath());
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Adds the song count, duration, year and path to albums, matching their songs exactly: an
+     * album with an album artist has the songs with that album artist, other albums the songs of
+     * the artist without an album artist. The songs of each artist are counted with a single
+     * {@code count ... group album}, and the year and path are those of the first song of each
+     * album, found with a {@code find ... window 0:1}. The commands are pipelined, with up to
+     * {@link #setMaxPendingLookups(int)} commands waiting for a response at once. This requires
+     * MPD protocol 0.21.0, for filter expressions.
+     *
+     * @param albums The albums to add details to.
+     * @throws IOException  Thrown upon a communication error with the server.
+     * @throws MPDException Thrown if an error occurs as a result of command execution.
+     * @see #getAlbumDetails(List, boolean)
+     */
+    public void getExactAlbumDetails(final List<Album> albums) throws IOException, MPDException {
+        final List<Map<String, Album>> artistAlbums = new ArrayList<>();
+        final List<MPDCommand> commands = new ArrayList<>();
+        final Map<List<Object>, Map<String, Album>> byArtist = new HashMap<>();
+
+        for (final Album album : albums) {
+            final String artist = album.getArtist() == null ? "" : album.getArtist().getName();
+            final List<Object> key = Arrays.<Object>asList(artist,
+                    Boolean.valueOf(album.hasAlbumArtist()));
+            Map<String, Album> byName = byArtist.get(key);
+
+            if (byName == null) {
+                byName = new HashMap<>();
+                byArtist.put(key, byName);
+                artistAlbums.add(byName);
+                commands.add(new MPDCommand(MPDCommand.MPD_CMD_COUNT,
+                        getExactAlbumFilter(null, artist, album.hasAlbumArtist()),
+                        MPDCommand.MPD_CMD_GROUP, MPDCommand.MPD_TAG_ALBUM));
+            }
+            byName.put(album.getName(), album);
+        }
+
+        for (final Album album : albums) {
+            final String artist = album.getArtist() == null ? "" : album.getArtist().getName();
+
+            commands.add(new MPDCommand(MPDCommand.MPD_CMD_FIND,
+                    getExactAlbumFilter(album.getName(), artist, album.hasAlbumArtist()),
+                    MPDCommand.MPD_SEARCH_WINDOW, "0:1"));
+        }
+
+        final int maxPending = mMaxPendingLookups;
+        final Deque<CommandFuture> futures = new ArrayDeque<>(maxPending);
+        int submitted = 0;
+
+        for (int i = 0; i < commands.size(); i++) {
+            while (submitted < commands.size() && futures.size() < maxPending) {
+                futures.add(mConnection.submit(commands.get(submitted)));
+                submitted++;
+            }
+
+            final List<String> response = getResponse(futures.remove());
+
+            if (i < artistAlbums.size()) {
+                final Map<String, Album> byName = artistAlbums.get(i);
+                Album album = null;
+
+                for (final String[] pair : Tools.splitResponse(response)) {
+                    if ("Album".equals(pair[KEY])) {
+                        album = byName.get(pair[VALUE]);
+                    } else if (album != null && "songs".equals(pair[KEY])) {
+                        album.setSongCount(Long.parseLong(pair[VALUE]));
+                    } else if (album != null && "playtime".equals(pair[KEY])) {
+                        album.setDuration(Long.parseLong(pair[VALUE]));
                     }
                 }
+            } else {
+                final List<Music> songs = Music.getMusicFromList(response, false);
+
+                if (!songs.isEmpty()) {
+                    final Album album = albums.get(i - artistAlbums.size());
+
+                    album.setYear(songs.get(0).getDate());
+                    album.setPath(songs.get(0).getPath());
+                }
             }
         }
     }
@@ -849,7 +1194,7 @@ public class MPD {
         return artists;
     }
 
-    protected List<Music> getFirstTrack(final Album album) throws IOException, MPDException {
+    private static String[] getFirstTrackArgs(final Album album) {
         final Artist artist = album.getArtist();
         final String[] args = new String[6];
 
@@ -870,20 +1215,130 @@ public class MPD {
         args[3] = album.getName();
         args[4] = "track";
         args[5] = "1";
-        List<Music> songs = find(args);
-        if (null == songs || songs.isEmpty()) {
-            args[5] = "01";
-            songs = find(args);
+
+        return args;
+    }
+
+    /**
+     * Builds the command of a first track lookup.
+     *
+     * @param album  The album to find the first track for.
+     * @param lookup The first track lookup, {@link #FIRST_TRACK_FIND} for instance.
+     * @return The command looking up the first track of the album.
+     */
+    private static MPDCommand getFirstTrackCommand(final Album album, final int lookup) {
+        final String[] args = getFirstTrackArgs(album);
+        final MPDCommand command;
+
+        switch (lookup) {
+            case FIRST_TRACK_FIND_PADDED:
+                args[5] = "01";
+                command = new MPDCommand(MPDCommand.MPD_CMD_FIND, args);
+                break;
+            case FIRST_TRACK_SEARCH:
+                command = new MPDCommand(MPDCommand.MPD_CMD_SEARCH, args);
+                break;
+            case FIRST_TRACK_ALL:
+                command = new MPDCommand(MPDCommand.MPD_CMD_FIND, Arrays.copyOf(args, 4));
+                break;
+            default:
+                command = new MPDCommand(MPDCommand.MPD_CMD_FIND, args);
+                break;
         }
-        if (null == songs || songs.isEmpty()) {
-            args[5] = "1";
-            songs = search(args);
+
+        return command;
+    }
+
+    /**
+     * Retrieves the first track lookup to run on an attempt; the preferred lookup first, then the
+     * others in their default order.
+     *
+     * @param preferred The first track lookup to try first.
+     * @param attempt   The attempt, from 0 to {@link #FIRST_TRACK_LOOKUPS} exclusive.
+     * @return The first track lookup to run.
+     */
+    private static int getFirstTrackLookup(final int preferred, final int attempt) {
+        final int lookup;
+
+        if (attempt == 0) {
+            lookup = preferred;
+        } else if (attempt <= preferred) {
+            lookup = attempt - 1;
+        } else {
+            lookup = attempt;
         }
-        if (null == songs || songs.isEmpty()) {
-            final String[] args2 = Arrays.copyOf(args, 4); // find all tracks
-            songs = find(args2);
+
+        return lookup;
+    }
+
+    /**
+     * Retrieves the first track of each album. Each lookup is run for every album still without a
+     * match, pipelined with up to {@link #setMaxPendingLookups(int)} commands waiting for a
+     * response at once, so the round trips depend on the number of lookups rather than on the
+     * number of albums. The lookup which matched the most albums is tried first on the next call.
+     *
+     * @param albums The albums to find the first track for.
+     * @return A list of first track(s), in the same order as the {@code albums}, empty for albums
+     * without any track.
+     * @throws IOException  Thrown upon a communication error with the server.
+     * @throws MPDException Thrown if an error occurs as a result of command execution.
+     */
+    protected List<List<Music>> getFirstTracks(final List<Album> albums)
+            throws IOException, MPDException {
+        final List<Music> noTracks = Collections.emptyList();
+        final List<List<Music>> result = new ArrayList<>(Collections.nCopies(albums.size(),
+                noTracks));
+        final int preferred = mFirstTrackLookup;
+        int bestLookup = preferred;
+        int bestMatches = 0;
+        List<Integer> pending = new ArrayList<>(albums.size());
+
+        for (int i = 0; i < albums.size(); i++) {
+            pending.add(Integer.valueOf(i));
         }
-        return songs;
+
+        for (int attempt = 0; attempt < FIRST_TRACK_LOOKUPS && !pending.isEmpty(); attempt++) {
+            final int lookup = getFirstTrackLookup(preferred, attempt);
+            final int maxPending = mMaxPendingLookups;
+            final Deque<CommandFuture> futures = new ArrayDeque<>(maxPending);
+            final List<Integer> unmatched = new ArrayList<>();
+            int submitted = 0;
+
+            try {
+                for (final Integer index : pending) {
+                    while (submitted < pending.size() && futures.size() < maxPending) {
+                        final Album album = albums.get(pending.get(submitted).intValue());
+
+                        futures.add(mConnection.submit(getFirstTrackCommand(album, lookup)));
+                        submitted++;
+                    }
+
+                    final List<Music> songs =
+                            Music.getMusicFromList(getResponse(futures.remove()), true);
+
+                    if (songs.isEmpty()) {
+                        unmatched.add(index);
+                    } else {
+                        result.set(index.intValue(), songs);
+                    }
+                }
+            } finally {
+                /** Only left with futures if a lookup failed. */
+                drainResponses(futures);
+            }
+
+            final int matches = pending.size() - unmatched.size();
+            if (lookup != FIRST_TRACK_ALL && matches > bestMatches) {
+                bestLookup = lookup;
+                bestMatches = matches;
+            }
+
+            pending = unmatched;
+        }
+
+        mFirstTrackLookup = bestLookup;
+
+        return result;
     }
 
     public List<Genre> getGenres() throws IOException, MPDException {
@@ -970,6 +1425,40 @@ public class MPD {
         return mPlaylist;
     }
 
+    /**
+     * The policy deciding when the connections to the server are reopened after a failure,
+     * shared by the command and the idle connection.
+     *
+     * @return The reconnect policy of the connections.
+     */
+    public ReconnectPolicy getReconnectPolicy() {
+        return mConnection.getReconnectPolicy();
+    }
+
+    /**
+     * Waits for the response to a pipelined command, for no longer than the read write timeout,
+     * so a media server which stopped responding doesn't block the caller forever.
+     *
+     * @param future The future of the command.
+     * @return The response to the command.
+     * @throws IOException  Thrown upon a communication error with the server, or if the response
+     *                      was not received in time.
+     * @throws MPDException Thrown if an error occurs as a result of command execution.
+     */
+    private List<String> getResponse(final CommandFuture future)
+            throws IOException, MPDException {
+        return future.getResponse((long) mConnection.getReadWriteTimeout());
+    }
+
+    /**
+     * Retrieves the root of the directory tree of the connected server.
+     *
+     * @return The root directory of the connected server.
+     */
+    public Directory getRootDirectory() {
+        return mRootDirectory;
+    }
+
     public List<Music> getPlaylistSongs(final String playlistName)
             throws IOException, MPDException {
         final String[] args = new String[1];
@@ -1030,9 +1519,31 @@ public class MPD {
         return savedStreams;
     }
 
+    /**
+     * Sends a command and builds the {@code Music} items of the response while it is read.
+     *
+     * @param command The command to send.
+     * @param sort    Whether to sort the resulting list.
+     * @return A list of {@code Music} items.
+     * @throws IOException  Thrown upon a communication error with the server.
+     * @throws MPDException Thrown if an error occurs as a result of command execution.
+     */
+    private List<Music> getMusic(final MPDCommand command, final boolean sort)
+            throws IOException, MPDException {
+        final MusicBuilder builder = new MusicBuilder();
+
+        mConnection.sendCommand(command, builder);
+
+        final List<Music> result = builder.getMusic();
+        if (sort) {
+            Collections.sort(result);
+        }
+
+        return result;
+    }
+
     public List<Music> getSongs(final Album album) throws IOException, MPDException {
-        final List<Music> songs = Music.getMusicFromList
-                (mConnection.sendCommand(getSongsCommand(album)), true);
+        final List<Music> songs = getMusic(getSongsCommand(album), true);
         if (album.hasAlbumArtist()) {
             // remove songs that don't have this album artist (mpd >=0.18 puts them in)
             final Artist artist = album.getArtist();
@@ -1083,6 +1594,15 @@ public class MPD {
         return mStatus;
     }
 
+    /**
+     * Retrieves the cover art manager for the connected server.
+     *
+     * @return The cover art manager for the connected server.
+     */
+    public Artwork getArtwork() {
+        return mArtwork;
+    }
+
     public Sticker getStickerManager() {
         return new Sticker(mConnection);
     }
@@ -1092,7 +1612,12 @@ public class MPD {
      */
     public boolean isAlbumInGenre(final Album album, final Genre genre)
             throws IOException, MPDException {
-        final List<String> response;
+        final List<String> response = mConnection.sendCommand(isAlbumInGenreCommand(album, genre));
+
+        return !response.isEmpty();
+    }
+
+    private static MPDCommand isAlbumInGenreCommand(final Album album, final Genre genre) {
         final Artist artist = album.getArtist();
         String artistName = null;
         String artistType = null;
@@ -1107,13 +1632,38 @@ public class MPD {
             }
         }
 
-        response = mConnection.sendCommand(new MPDCommand(
-                MPDCommand.MPD_CMD_LIST_TAG, MPDCommand.MPD_TAG_ALBUM,
+        return new MPDCommand(MPDCommand.MPD_CMD_LIST_TAG, MPDCommand.MPD_TAG_ALBUM,
                 MPDCommand.MPD_TAG_ALBUM, album.getName(),
                 artistType, artistName,
-                MPDCommand.MPD_TAG_GENRE, genre.getName()));
+                MPDCommand.MPD_TAG_GENRE, genre.getName());
+    }
 
-        return !response.isEmpty();
+    /**
+     * Tests whether each of the given albums is in the given genre. The tests are pipelined, so
+     * this costs about one round trip regardless of the number of albums.
+     *
+     * @param albums The albums to test.
+     * @param genre  The genre to test the albums against.
+     * @return An array with the result for each album, in the same order as the {@code albums}.
+     * @throws IOException  Thrown upon a communication error with the server.
+     * @throws MPDException Thrown if an error occurs as a result of command execution.
+     * @see #isAlbumInGenre(Album, Genre)
+     */
+    public boolean[] areAlbumsInGenre(final List<Album> albums, final Genre genre)
+            throws IOException, MPDException {
+        final List<MPDCommand> commands = new ArrayList<>(albums.size());
+        final boolean[] result = new boolean[albums.size()];
+
+        for (final Album album : albums) {
+            commands.add(isAlbumInGenreCommand(album, genre));
+        }
+
+        final List<CommandFuture> futures = mConnection.submit(commands);
+        for (int i = 0; i < result.length; i++) {
+            result[i] = !getResponse(futures.get(i)).isEmpty();
+        }
+
+        return result;
     }
 
     /**
@@ -1246,6 +1796,54 @@ public class MPD {
         return result;
     }
 
+    /**
+     * Lists the album, artist and album artist combinations of the database, with a
+     * {@code list album group albumartist group artist} for the songs with an album artist and a
+     * {@code list album group artist} for the other songs, as the media server would otherwise
+     * report their artist as album artist.
+     *
+     * @return The combinations, as {album, artist, album artist} arrays, the album artist being
+     * "" for the songs without one; null if the media server is older than protocol 0.21.0, which
+     * added grouping by more than one tag and filter expressions.
+     * @throws IOException  Thrown upon a communication error with the server.
+     * @throws MPDException Thrown if an error occurs as a result of command execution.
+     * @see #getExactAlbumDetails(List)
+     */
+    public List<String[]> listAllAlbumCombinations() throws IOException, MPDException {
+        List<String[]> result = null;
+
+        if (mConnection.isProtocolVersionSupported(0, 21)) {
+            final List<CommandFuture> futures = mConnection.submit(Arrays.asList(
+                    new MPDCommand(MPDCommand.MPD_CMD_LIST_TAG, MPDCommand.MPD_TAG_ALBUM,
+                            '(' + HAS_ALBUM_ARTIST + ')', MPDCommand.MPD_CMD_GROUP,
+                            MPDCommand.MPD_TAG_ALBUM_ARTIST, MPDCommand.MPD_CMD_GROUP,
+                            MPDCommand.MPD_TAG_ARTIST),
+                    new MPDCommand(MPDCommand.MPD_CMD_LIST_TAG, MPDCommand.MPD_TAG_ALBUM,
+                            MPDCommand.filterExpression(MPDCommand.MPD_TAG_ALBUM_ARTIST, ""),
+                            MPDCommand.MPD_CMD_GROUP, MPDCommand.MPD_TAG_ARTIST)));
+
+            result = new ArrayList<>();
+            for (final CommandFuture future : futures) {
+                String albumArtist = "";
+                String artist = "";
+
+                /** The last group is the outermost, each group being printed when it changes. */
+                for (final String[] pair : Tools.splitResponse(getResponse(future))) {
+                    if ("Artist".equals(pair[KEY])) {
+                        artist = pair[VALUE];
+                        albumArtist = "";
+                    } else if ("AlbumArtist".equals(pair[KEY])) {
+                        albumArtist = pair[VALUE];
+                    } else if ("Album".equals(pair[KEY])) {
+                        result.add(new String[]{pair[VALUE], artist, albumArtist});
+                    }
+                }
+            }
+        }
+
+        return result;
+    }
+
     /**
      * List all albums grouped by Artist/AlbumArtist
      * This method queries both Artist/AlbumArtist and tries to detect if the artist is an artist
@@ -1337,8 +1935,22 @@ public class MPD {
      * @throws MPDException Thrown if an error occurs as a result of command execution.
      */
     public List<Music> listAllInfo() throws IOException, MPDException {
-        final List<String> allInfo = mConnection.sendCommand(MPDCommand.MPD_CMD_LISTALLINFO);
-        return Music.getMusicFromList(allInfo, false);
+        return getMusic(new MPDCommand(MPDCommand.MPD_CMD_LISTALLINFO), false);
+    }
+
+    /**
+     * Streams a {@code listallinfo} response to a handler while it is read, rather than building
+     * a list of every song. The response includes the {@code directory} entries with their
+     * {@code Last-Modified} time. The server max_output_buffer_size still applies.
+     *
+     * @param handler The handler of the response.
+     * @throws IOException  Thrown upon a communication error with the server.
+     * @throws MPDException Thrown if an error occurs as a result of command execution.
+     * @see #listAllInfo()
+     * @see #createLibraryCrawler(int)
+     */
+    public void listAllInfo(final ResponseHandler handler) throws IOException, MPDException {
+        mConnection.sendCommand(new MPDCommand(MPDCommand.MPD_CMD_LISTALLINFO), handler);
     }
 
     /**
@@ -1385,7 +1997,6 @@ public class MPD {
 
             final List<String[]> responses = listArtistsCommand(albums, useAlbumArtist);
             result = new ArrayList<>(responses.size());
-            ArrayList<String> albumResult = null;
             final int artistLength;
 
             if (useAlbumArtist) {
@@ -1394,23 +2005,15 @@ public class MPD {
                 artistLength = "Artist: ".length();
             }
 
+            /** An album without the tag has an empty response, and no artist. */
             for (final String[] response : responses) {
-                if (albumResult != null) {
-                    albumResult.clear();
-                }
-
-                for (final String album : response) {
-                    final String name = album.substring(artistLength);
+                final String[] albumResult = new String[response.length];
 
-                    if (albumResult == null) {
-                        /** Give the array list an approximate size. */
-                        albumResult = new ArrayList<>(album.length() * response.length);
-                    }
-
-                    albumResult.add(name);
+                for (int i = 0; i < response.length; i++) {
+                    albumResult[i] = response[i].substring(artistLength);
                 }
 
-                result.add(albumResult.toArray(new String[albumResult.size()]));
+                result.add(albumResult);
             }
         }
 
@@ -1498,6 +2101,21 @@ public class MPD {
         return Tools.parseResponse(response, "Genre", sortInsensitive);
     }
 
+    /**
+     * Streams the {@code lsinfo} response of a database directory to a handler: its
+     * subdirectories with their {@code Last-Modified} time, its songs and its playlists. Unlike
+     * {@link #refreshDirectory(Directory)}, nothing is kept in the directory tree of this server.
+     *
+     * @param path    The path of the directory, "" for the root of the database.
+     * @param handler The handler of the response.
+     * @throws IOException  Thrown upon a communication error with the server.
+     * @throws MPDException Thrown if an error occurs as a result of command execution.
+     */
+    public void listInfo(final String path, final ResponseHandler handler)
+            throws IOException, MPDException {
+        mConnection.sendCommand(new MPDCommand(MPDCommand.MPD_CMD_LSDIR, path), handler);
+    }
+
     public void movePlaylistSong(final String playlistName, final int from, final int to)
             throws IOException, MPDException {
         mConnection.sendCommand(MPDCommand.MPD_CMD_PLAYLIST_MOVE, playlistName,
@@ -1524,6 +2142,17 @@ public class MPD {
         mConnection.sendCommand(MPDCommand.MPD_CMD_PAUSE);
     }
 
+    /**
+     * Pauses or resumes music playing, regardless of the current state.
+     *
+     * @param pause True to pause, false to resume.
+     * @throws IOException  Thrown upon a communication error with the server.
+     * @throws MPDException Thrown if an error occurs as a result of command execution.
+     */
+    public void pause(final boolean pause) throws IOException, MPDException {
+        mConnection.sendCommand(MPDCommand.MPD_CMD_PAUSE, MPDCommand.booleanValue(pause));
+    }
+
     /**
      * Starts playing music.
      *
@@ -1599,6 +2228,38 @@ public class MPD {
                 Integer.toString(pos));
     }
 
+    /**
+     * Restores a copy of the playlist saved by {@link #saveQueue(OutputStream)}, so the next
+     * playlist refresh only retrieves the changes since the copy was saved rather than the entire
+     * playlist. The copy is discarded if the media server has been restarted since, or if the
+     * playlist has already been retrieved.
+     *
+     * @param inputStream The stream to read the playlist from.
+     * @return True if the playlist was restored, false otherwise.
+     * @throws IOException  Thrown upon a communication error with the server, or if the playlist
+     *                      could not be read.
+     * @throws MPDException Thrown if an error occurs as a result of command execution.
+     */
+    public boolean restoreQueue(final InputStream inputStream) throws IOException, MPDException {
+        updateStatistics();
+
+        return mPlaylist.restore(new DataInputStream(inputStream), mStatistics.getStartTime());
+    }
+
+    /**
+     * Saves a copy of the playlist, along with its version, to be restored by
+     * {@link #restoreQueue(InputStream)} on a later connection to the same media server.
+     *
+     * @param outputStream The stream to write the playlist to, not closed by this method.
+     * @throws IOException Thrown if the playlist could not be written.
+     */
+    public void saveQueue(final OutputStream outputStream) throws IOException {
+        final DataOutputStream output = new DataOutputStream(outputStream);
+
+        mPlaylist.save(output, mStatistics.getStartTime());
+        output.flush();
+    }
+
     public void saveStream(final String url, final String name) throws IOException, MPDException {
         mConnection.sendCommand(MPDCommand.MPD_CMD_PLAYLIST_ADD, STREAMS_PLAYLIST,
                 Stream.addStreamName(url, name));
@@ -1688,6 +2349,22 @@ public class MPD {
                 .sendCommand(MPDCommand.MPD_CMD_CROSSFADE, Integer.toString(Math.max(0, time)));
     }
 
+    /**
+     * Sets the maximum number of first track lookups waiting for a response at once, when loading
+     * album details. A lower limit leaves more room for other commands on a shared connection.
+     *
+     * @param maxPendingLookups The maximum number of first track lookups waiting for a response.
+     * @see #DEFAULT_MAX_PENDING_LOOKUPS
+     */
+    public void setMaxPendingLookups(final int maxPendingLookups) {
+        if (maxPendingLookups <= 0) {
+            throw new IllegalArgumentException("Invalid maximum pending lookups: " +
+                    maxPendingLookups);
+        }
+
+        mMaxPendingLookups = maxPendingLookups;
+    }
+
     /**
      * Enabled or disable random.
      *
@@ -1700,6 +2377,17 @@ public class MPD {
         mConnection.sendCommand(MPDCommand.MPD_CMD_RANDOM, MPDCommand.booleanValue(random));
     }
 
+    /**
+     * Sets the policy deciding when the connections to the server are reopened after a failure,
+     * for both the command and the idle connection.
+     *
+     * @param reconnectPolicy The reconnect policy.
+     */
+    public void setReconnectPolicy(final ReconnectPolicy reconnectPolicy) {
+        mConnection.setReconnectPolicy(reconnectPolicy);
+        mIdleConnection.setReconnectPolicy(reconnectPolicy);
+    }
+
     /**
      * Enabled or disable repeating.
      *
@@ -1789,9 +2477,7 @@ public class MPD {
      * @see MPDStatusMonitor
      */
     public void updateStatistics() throws IOException, MPDException {
-        final List<String> response = mConnection.sendCommand(MPDCommand.MPD_CMD_STATISTICS);
-
-        mStatistics.update(response);
+        mConnection.sendCommand(new MPDCommand(MPDCommand.MPD_CMD_STATISTICS), mStatistics);
     }
 
     /**
@@ -1804,12 +2490,10 @@ public class MPD {
      * @see MPDStatusMonitor
      */
     void updateStatus() throws IOException, MPDException {
-        final List<String> response = mConnection.sendCommand(MPDCommand.MPD_CMD_STATUS);
+        final MPDStatus status = new MPDStatus();
 
-        if (response == null) {
-            Log.error(TAG, "No status response from the MPD server.");
-        } else {
-            mStatus.updateStatus(response);
-        }
+        /** Parse aside, so a failed round trip leaves the last status untouched. */
+        mConnection.sendCommand(new MPDCommand(MPDCommand.MPD_CMD_STATUS), status);
+        mStatus.updateStatus(status);
     }
 }
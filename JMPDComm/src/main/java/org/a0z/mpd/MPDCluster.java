@@ -0,0 +1,410 @@
+/*
+ * Copyright (C) 2004 Felipe Gustavo de Almeida
+ * Copyright (C) 2010-2014 The MPDroid Project
+ *
+ * All Rights Reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice,this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE AUTHOR AND CONTRIBUTORS ``AS IS'' AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED.  IN NO EVENT SHALL THE AUTHOR OR CONTRIBUTORS BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ * THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.a0z.mpd;
+
+import org.a0z.mpd.connection.CommandFuture;
+import org.a0z.mpd.connection.MPDConnectionSelector;
+import org.a0z.mpd.event.ServerChangeListener;
+import org.a0z.mpd.exception.MPDException;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A registry of media servers controlled from one process. Each media server has its own
+ * {@link MPD} controller, and therefore its own status, playlist and directory tree, while the
+ * threads are shared: the connections of all media servers are multiplexed by one selector
+ * thread, and status updates and group operations run on a fixed size executor, regardless of
+ * the number of media servers.
+ */
+public class MPDCluster {
+
+    /** The read write timeout for the command connections. */
+    private static final int READ_WRITE_TIMEOUT = 5000;
+
+    private static final String TAG = "MPDCluster";
+
+    /** The executor for status updates and group operations. */
+    private final ScheduledExecutorService mExecutor;
+
+    /**
+     * Runs the idle responses on the executor. The responses are handed over on the selector
+     * thread, which must not fail once the executor is shut down, so they are dropped instead.
+     */
+    private final Executor mIdleExecutor = new Executor() {
+        @Override
+        public void execute(final Runnable command) {
+            try {
+                mExecutor.execute(command);
+            } catch (final RejectedExecutionException ignored) {
+                Log.debug(TAG, "Dropping an idle response after shutdown.");
+            }
+        }
+    };
+
+    private final Queue<ServerChangeListener> mListeners = new ConcurrentLinkedQueue<>();
+
+    /** The names of the media servers whose connection has been lost. */
+    private final Set<String> mLostServers =
+            Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+
+    /** The media servers of this cluster, by name. */
+    private final Map<String, MPD> mServers = new ConcurrentHashMap<>();
+
+    /**
+     * Creates an empty cluster.
+     *
+     * @param threads The number of threads used for status updates and group operations.
+     */
+    public MPDCluster(final int threads) {
+        super();
+
+        mExecutor = new ScheduledThreadPoolExecutor(threads);
+    }
+
+    /**
+     * Connects to a media server and adds it to this cluster. The status of the media server is
+     * kept up to date from then on.
+     *
+     * @param name     The unique name of the media server in this cluster.
+     * @param server   The media server host to connect to.
+     * @param port     The media server port to connect to.
+     * @param password The MPD protocol password, null if none.
+     * @return The controller of the media server.
+     * @throws IOException  Thrown upon a communication error with the server.
+     * @throws MPDException Thrown if an error occurs as a result of command execution.
+     */
+    public MPD add(final String name, final InetAddress server, final int port,
+            final String password) throws IOException, MPDException {
+        final MPD mpd = new MPD(new MPDConnectionSelector(READ_WRITE_TIMEOUT),
+                new MPDConnectionSelector(0));
+
+        synchronized (mServers) {
+            if (mServers.containsKey(name)) {
+                throw new IllegalArgumentException("Media server already added: " + name);
+            }
+
+            mServers.put(name, mpd);
+        }
+
+        try {
+            mpd.connect(server, port, password);
+            mpd.updateStatus();
+            mpd.updateStatistics();
+        } catch (final IOException | MPDException e) {
+            mServers.remove(name);
+            try {
+                mpd.disconnect();
+            } catch (final IOException de) {
+                Log.warning(TAG, "Failed to disconnect from " + name + '.', de);
+            }
+            throw e;
+        }
+
+        watch(name, mpd);
+
+        return mpd;
+    }
+
+    public void addServerChangeListener(final ServerChangeListener listener) {
+        mListeners.add(listener);
+    }
+
+    /**
+     * Runs an operation on a group of media servers in parallel, waiting for all of them to
+     * complete. This must not be called from a {@link ServerChangeListener}.
+     *
+     * @param names     The names of the media servers to run the operation on.
+     * @param operation The operation to run.
+     * @return The exceptions the operation failed with, by media server name; empty if the
+     * operation succeeded on all media servers.
+     */
+    public Map<String, Exception> execute(final Collection<String> names,
+            final Operation operation) {
+        final Map<String, Future<Void>> futures = new HashMap<>(names.size());
+        final Map<String, Exception> failures = new HashMap<>();
+
+        for (final String name : names) {
+            final MPD mpd = mServers.get(name);
+
+            if (mpd == null) {
+                failures.put(name, new IllegalArgumentException("Unknown media server: " + name));
+            } else {
+                futures.put(name, mExecutor.submit(new Callable<Void>() {
+                    @Override
+                    public Void call() throws IOException, MPDException {
+                        operation.run(mpd);
+                        return null;
+                    }
+                }));
+            }
+        }
+
+        for (final Map.Entry<String, Future<Void>> entry : futures.entrySet()) {
+            try {
+                entry.getValue().get();
+            } catch (final ExecutionException e) {
+                if (e.getCause() instanceof Exception) {
+                    failures.put(entry.getKey(), (Exception) e.getCause());
+                } else {
+                    failures.put(entry.getKey(), e);
+                }
+            } catch (final InterruptedException e) {
+                failures.put(entry.getKey(), e);
+            }
+        }
+
+        return failures;
+    }
+
+    /**
+     * Runs an operation on all media servers of this cluster in parallel.
+     *
+     * @param operation The operation to run.
+     * @return The exceptions the operation failed with, by media server name.
+     * @see #execute(Collection, Operation)
+     */
+    public Map<String, Exception> executeAll(final Operation operation) {
+        return execute(getNames(), operation);
+    }
+
+    /**
+     * Retrieves the controller of a media server.
+     *
+     * @param name The name of the media server.
+     * @return The controller of the media server, null if there is none by that name.
+     */
+    public MPD get(final String name) {
+        return mServers.get(name);
+    }
+
+    /**
+     * Retrieves the names of all media servers of this cluster.
+     *
+     * @return The names of the media servers.
+     */
+    public Collection<String> getNames() {
+        return new ArrayList<>(mServers.keySet());
+    }
+
+    /**
+     * Refreshes the status of a media server after an idle response, then waits for the next
+     * change.
+     *
+     * @param name   The name of the media server.
+     * @param mpd    The controller of the media server.
+     * @param future The idle command future.
+     */
+    private void onIdle(final String name, final MPD mpd, final CommandFuture future) {
+        if (mServers.get(name) != mpd) {
+            return;
+        }
+
+        long delay = 0L;
+        try {
+            final List<String> changes = new ArrayList<>(future.getResponse().size());
+            for (final String line : future.getResponse()) {
+                changes.add(line.substring("changed: ".length()));
+            }
+
+            mpd.updateStatus();
+            if (mLostServers.remove(name)) {
+                for (final ServerChangeListener listener : mListeners) {
+                    listener.connectionStateChanged(name, mpd, true);
+                }
+            }
+
+            if (changes.contains(MPDStatusMonitor.IDLE_DATABASE)) {
+                mpd.updateStatistics();
+            }
+            if (changes.contains(MPDStatusMonitor.IDLE_PLAYLIST)) {
+                mpd.getPlaylist().refresh(mpd.getStatus());
+            }
+
+            for (final ServerChangeListener listener : mListeners) {
+                listener.serverChanged(name, mpd, Collections.unmodifiableList(changes));
+            }
+        } catch (final IOException e) {
+            Log.warning(TAG, "Lost connection to " + name + '.', e);
+            delay = mpd.getReconnectPolicy().getReconnectDelay();
+
+            if (mLostServers.add(name)) {
+                for (final ServerChangeListener listener : mListeners) {
+                    listener.connectionStateChanged(name, mpd, false);
+                }
+            }
+        } catch (final MPDException e) {
+            Log.error(TAG, "Failed to refresh the status of " + name + '.', e);
+        }
+
+        /** The reconnection backoff is only applied here, submitting never waits. */
+        try {
+            mExecutor.schedule(new Runnable() {
+                @Override
+                public void run() {
+                    watch(name, mpd);
+                }
+            }, delay, TimeUnit.MILLISECONDS);
+        } catch (final RejectedExecutionException ignored) {
+            Log.debug(TAG, "Not watching " + name + " after shutdown.");
+        }
+    }
+
+    /**
+     * Pauses or resumes a group of media servers.
+     *
+     * @param names The names of the media servers.
+     * @param pause True to pause, false to resume.
+     * @return The exceptions the operation failed with, by media server name.
+     */
+    public Map<String, Exception> pause(final Collection<String> names, final boolean pause) {
+        return execute(names, new Operation() {
+            @Override
+            public void run(final MPD mpd) throws IOException, MPDException {
+                mpd.pause(pause);
+            }
+        });
+    }
+
+    /**
+     * Disconnects from a media server and removes it from this cluster.
+     *
+     * @param name The name of the media server.
+     * @throws IOException Thrown if there is a problem closing the connection.
+     */
+    public void remove(final String name) throws IOException {
+        final MPD mpd = mServers.remove(name);
+
+        mLostServers.remove(name);
+        if (mpd != null) {
+            mpd.disconnect();
+        }
+    }
+
+    public void removeServerChangeListener(final ServerChangeListener listener) {
+        mListeners.remove(listener);
+    }
+
+    /**
+     * Sets the volume of a group of media servers.
+     *
+     * @param names  The names of the media servers.
+     * @param volume The volume to set.
+     * @return The exceptions the operation failed with, by media server name.
+     */
+    public Map<String, Exception> setVolume(final Collection<String> names, final int volume) {
+        return execute(names, new Operation() {
+            @Override
+            public void run(final MPD mpd) throws IOException, MPDException {
+                mpd.setVolume(volume);
+            }
+        });
+    }
+
+    /**
+     * Disconnects from all media servers and stops the executor of this cluster.
+     */
+    public void shutdown() {
+        for (final String name : getNames()) {
+            try {
+                remove(name);
+            } catch (final IOException e) {
+                Log.warning(TAG, "Failed to disconnect from " + name + '.', e);
+            }
+        }
+
+        mExecutor.shutdown();
+    }
+
+    /**
+     * Stops playback on a group of media servers.
+     *
+     * @param names The names of the media servers.
+     * @return The exceptions the operation failed with, by media server name.
+     */
+    public Map<String, Exception> stop(final Collection<String> names) {
+        return execute(names, new Operation() {
+            @Override
+            public void run(final MPD mpd) throws IOException, MPDException {
+                mpd.stop();
+            }
+        });
+    }
+
+    /**
+     * Sends an idle command to a media server without blocking a thread; the response is
+     * handled on the executor.
+     *
+     * @param name The name of the media server.
+     * @param mpd  The controller of the media server.
+     */
+    private void watch(final String name, final MPD mpd) {
+        if (mServers.get(name) == mpd && !mExecutor.isShutdown()) {
+            final CommandFuture future = mpd.getIdleConnection()
+                    .submit(new MPDCommand(MPDCommand.MPD_CMD_IDLE));
+
+            future.addListener(new Runnable() {
+                @Override
+                public void run() {
+                    onIdle(name, mpd, future);
+                }
+            }, mIdleExecutor);
+        }
+    }
+
+    /** An operation run on each media server of a group. */
+    public interface Operation {
+
+        /**
+         * Runs the operation on a media server.
+         *
+         * @param mpd The controller of the media server.
+         * @throws IOException  Thrown upon a communication error with the server.
+         * @throws MPDException Thrown if an error occurs as a result of command execution.
+         */
+        void run(MPD mpd) throws IOException, MPDException;
+    }
+}
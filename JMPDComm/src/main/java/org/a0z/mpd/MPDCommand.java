@@ -27,6 +27,9 @@
 
 package org.a0z.mpd;
 
+import java.io.IOException;
+import java.io.StringWriter;
+import java.io.Writer;
 import java.util.Arrays;
 import java.util.List;
 import java.util.regex.Pattern;
@@ -101,6 +104,9 @@ public class MPDCommand {
 
     public static final String MPD_CMD_PLAY_ID = "playid";
 
+    /** Positional insert for {@code findadd}, added in MPD protocol 0.23.0. */
+    public static final String MPD_CMD_POSITION = "position";
+
     public static final String MPD_CMD_PREV = "previous";
 
     private static final List<String> NON_RETRYABLE_COMMANDS = Arrays.asList(MPD_CMD_NEXT,
@@ -140,12 +146,21 @@ public class MPDCommand {
 
     public static final String MPD_SEARCH_ARTIST = "artist";
 
+    /** Restricts a search to a directory, added in MPD protocol 0.18.0. */
+    public static final String MPD_SEARCH_BASE = "base";
+
     public static final String MPD_SEARCH_FILENAME = "filename";
 
     public static final String MPD_SEARCH_GENRE = "genre";
 
+    /** Matches the songs modified since a time, added in MPD protocol 0.19.0. */
+    public static final String MPD_SEARCH_MODIFIED_SINCE = "modified-since";
+
     public static final String MPD_SEARCH_TITLE = "title";
 
+    /** Restricts a search to a range of its results, added in MPD protocol 0.20.0. */
+    public static final String MPD_SEARCH_WINDOW = "window";
+
     public static final String MPD_TAG_ALBUM = "album";
 
     public static final String MPD_TAG_ALBUM_ARTIST = "albumartist";
@@ -158,7 +173,8 @@ public class MPDCommand {
 
     private static final int[] EMPTY_INT_ARRAY = new int[0];
 
-    private static final Pattern QUOTATION_DELIMITER = Pattern.compile("\"");
+    /** The characters escaped in command arguments. */
+    private static final Pattern ESCAPED_CHARACTERS = Pattern.compile("[\\\\\"]");
 
     private static final String TAG = "MPDCommand";
 
@@ -217,14 +233,99 @@ public class MPDCommand {
         return result;
     }
 
+    /**
+     * Escapes the backslashes and quotation marks of a quoted string.
+     *
+     * @param string The string to escape.
+     * @return The escaped string.
+     */
+    private static String escape(final String string) {
+        return ESCAPED_CHARACTERS.matcher(string).replaceAll("\\\\$0");
+    }
+
+    /**
+     * Builds a filter expression matching all of the given tags with their value, for the filter
+     * syntax added in MPD protocol 0.21.0.
+     *
+     * @param tags Tag and value pairs, pairs with a null tag are skipped.
+     * @return The filter expression, to be sent as a single argument.
+     */
+    public static String filterExpression(final String... tags) {
+        final StringBuilder filter = new StringBuilder();
+
+        filter.append('(');
+        for (int i = 0; i + 1 < tags.length; i += 2) {
+            if (tags[i] != null) {
+                if (filter.length() > 1) {
+                    filter.append(" AND ");
+                }
+
+                filter.append('(').append(tags[i]).append(" == \"").append(escape(tags[i + 1]))
+                        .append("\")");
+            }
+        }
+        filter.append(')');
+
+        return filter.toString();
+    }
+
     public static boolean isRetryable(final String command) {
         return !NON_RETRYABLE_COMMANDS.contains(command);
     }
 
+    /**
+     * The length, in bytes, of a quoted argument as sent to the media server.
+     *
+     * @param arg The argument.
+     * @return The UTF-8 encoded length of the escaped argument, with its leading space and quotes.
+     */
+    private static int getLength(final String arg) {
+        final int length = arg.length();
+        int encodedLength = 3;
+
+        for (int i = 0; i < length; i++) {
+            final char c = arg.charAt(i);
+
+            if (c == '\\' || c == '"') {
+                encodedLength += 2;
+            } else if (c < 0x80) {
+                encodedLength++;
+            } else if (c < 0x800) {
+                encodedLength += 2;
+            } else if (Character.isHighSurrogate(c)) {
+                /** The pair is encoded on four bytes. */
+                encodedLength += 4;
+                i++;
+            } else {
+                encodedLength += 3;
+            }
+        }
+
+        return encodedLength;
+    }
+
     public String getCommand() {
         return mCommand;
     }
 
+    /**
+     * The length, in bytes, of this command as sent to the media server, computed without
+     * building the command string.
+     *
+     * @return The UTF-8 encoded length of this command, including the newline.
+     */
+    public int getLength() {
+        int length = mCommand.length() + 1;
+
+        for (final String arg : mArgs) {
+            if (arg != null) {
+                length += getLength(arg);
+            }
+        }
+
+        return length;
+    }
+
     /**
      * This method is used to check if this command was loaded with a command code, specified by
      * the parameter, which is to be considered as non-fatal.
@@ -247,27 +348,17 @@ public class MPDCommand {
 
     @Override
     public String toString() {
-        final String outString;
+        final StringWriter writer = new StringWriter(getLength());
 
-        if (mArgs.length == 0) {
-            outString = mCommand + MPD_CMD_NEWLINE;
-        } else {
-            final int argsLength = Arrays.toString(mArgs).length();
-            final int approximateLength = argsLength + mCommand.length() + 10;
-            final StringBuilder outBuf = new StringBuilder(approximateLength);
-
-            outBuf.append(mCommand);
-            for (final String arg : mArgs) {
-                if (arg != null) {
-                    outBuf.append(" \"");
-                    outBuf.append(QUOTATION_DELIMITER.matcher(arg).replaceAll("\\\\\""));
-                    outBuf.append('"');
-                }
-            }
-            outBuf.append(MPD_CMD_NEWLINE);
-            outString = outBuf.toString();
+        try {
+            write(writer);
+        } catch (final IOException e) {
+            /** A StringWriter does not throw. */
+            throw new IllegalStateException(e);
         }
 
+        final String outString = writer.toString();
+
         if (DEBUG) {
             final String safeCommand;
             if (mCommand.equals(MPD_CMD_PASSWORD)) {
@@ -280,4 +371,37 @@ public class MPDCommand {
 
         return outString;
     }
+
+    /**
+     * Writes this command as sent to the media server, escaping the arguments on the fly rather
+     * than building the command string first.
+     *
+     * @param out The writer to write the command to.
+     * @throws IOException Thrown upon an error writing to {@code out}.
+     */
+    public void write(final Writer out) throws IOException {
+        out.write(mCommand);
+
+        for (final String arg : mArgs) {
+            if (arg != null) {
+                final int length = arg.length();
+                int start = 0;
+
+                out.write(" \"");
+                for (int i = 0; i < length; i++) {
+                    final char c = arg.charAt(i);
+
+                    if (c == '\\' || c == '"') {
+                        out.write(arg, start, i - start);
+                        out.write('\\');
+                        start = i;
+                    }
+                }
+                out.write(arg, start, length - start);
+                out.write('"');
+            }
+        }
+
+        out.write(MPD_CMD_NEWLINE);
+    }
 }
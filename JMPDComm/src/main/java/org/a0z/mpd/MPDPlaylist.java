@@ -28,11 +28,16 @@
 package org.a0z.mpd;
 
 import org.a0z.mpd.connection.MPDConnection;
+import org.a0z.mpd.connection.ResponseHandler;
 import org.a0z.mpd.exception.MPDException;
 import org.a0z.mpd.item.FilesystemTreeEntry;
 import org.a0z.mpd.item.Music;
+import org.a0z.mpd.item.MusicBuilder;
 
+import java.io.DataInput;
+import java.io.DataOutput;
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.List;
@@ -44,12 +49,18 @@ public class MPDPlaylist {
 
     public static final String MPD_CMD_PLAYLIST_ADD = "add";
 
+    public static final String MPD_CMD_PLAYLIST_ADD_ID = "addid";
+
     public static final String MPD_CMD_PLAYLIST_CHANGES = "plchanges";
 
+    public static final String MPD_CMD_PLAYLIST_CHANGES_POSID = "plchangesposid";
+
     public static final String MPD_CMD_PLAYLIST_CLEAR = "clear";
 
     public static final String MPD_CMD_PLAYLIST_DELETE = "rm";
 
+    public static final String MPD_CMD_PLAYLIST_INFO = "playlistinfo";
+
     public static final String MPD_CMD_PLAYLIST_LIST = "playlistid";
 
     public static final String MPD_CMD_PLAYLIST_LOAD = "load";
@@ -72,13 +83,26 @@ public class MPDPlaylist {
 
     private static final boolean DEBUG = false;
 
+    /** The format of a saved playlist, to be incremented if the format changes. */
+    private static final int SAVED_FORMAT = 1;
+
+    /**
+     * The difference tolerated between server start times, in seconds, as these are derived from
+     * the server up time and the local clock.
+     */
+    private static final long START_TIME_TOLERANCE = 5L;
+
+    /** The maximum number of {@code playlistid} commands sent in one command list. */
+    private static final int MAX_PLAYLIST_ID_BATCH = 256;
+
     private static final String TAG = "MPDPlaylist";
 
     private final MPDConnection mConnection;
 
     private final MusicList mList;
 
-    private int mLastPlaylistVersion = -1;
+    /** Serializes playlist refreshes. */
+    private final Object mRefreshLock = new Object();
 
     /**
      * Creates a new playlist.
@@ -100,6 +124,26 @@ public class MPDPlaylist {
         return commandQueue;
     }
 
+    /**
+     * Builds the commands to insert music at a position of the playlist, in order.
+     *
+     * @param collection The music to insert.
+     * @param position   The position of the first of the inserted entries.
+     * @return The commands to insert the music.
+     */
+    static CommandQueue addAllCommand(final Iterable<Music> collection, final int position) {
+        final CommandQueue commandQueue = new CommandQueue();
+        int songPos = position;
+
+        for (final Music music : collection) {
+            commandQueue.add(MPD_CMD_PLAYLIST_ADD_ID, music.getFullPath(),
+                    Integer.toString(songPos));
+            songPos++;
+        }
+
+        return commandQueue;
+    }
+
     static MPDCommand addCommand(final String fullPath) {
         return new MPDCommand(MPD_CMD_PLAYLIST_ADD, fullPath);
     }
@@ -132,17 +176,54 @@ public class MPDPlaylist {
         return new MPDCommand(MPD_CMD_PLAYLIST_LOAD, file);
     }
 
+    /**
+     * Builds the commands to remove entries by position, coalescing contiguous positions into
+     * {@code delete START:END} ranges. Ranges are removed from the end of the playlist, so the
+     * positions of the entries not removed yet stay valid.
+     *
+     * @param songs The positions of the entries to remove.
+     * @return The commands to remove the entries.
+     */
     static CommandQueue removeByIndexCommand(final int... songs) {
-        Arrays.sort(songs);
+        final int[] positions = songs.clone();
         final CommandQueue commandQueue = new CommandQueue();
-
-        for (int i = songs.length - 1; i >= 0; i--) {
-            commandQueue.add(MPD_CMD_PLAYLIST_REMOVE, Integer.toString(songs[i]));
+        int end = positions.length - 1;
+
+        Arrays.sort(positions);
+        for (int i = end; i >= 0; i--) {
+            if (i == 0 || positions[i - 1] < positions[i] - 1) {
+                commandQueue.add(rangeCommand(MPD_CMD_PLAYLIST_REMOVE, positions[i],
+                        positions[end] + 1));
+                end = i - 1;
+            }
         }
 
         return commandQueue;
     }
 
+    /**
+     * Builds a command taking a position range, using a single position for a one entry range.
+     *
+     * @param command The command taking the range.
+     * @param start   The first position of the range.
+     * @param end     The position after the last position of the range.
+     * @param args    The arguments following the range.
+     * @return The command for the range.
+     */
+    private static MPDCommand rangeCommand(final String command, final int start, final int end,
+            final String... args) {
+        final String[] rangeArgs = new String[args.length + 1];
+
+        if (end - start == 1) {
+            rangeArgs[0] = Integer.toString(start);
+        } else {
+            rangeArgs[0] = Integer.toString(start) + ':' + Integer.toString(end);
+        }
+        System.arraycopy(args, 0, rangeArgs, 1, args.length);
+
+        return new MPDCommand(command, rangeArgs);
+    }
+
     /**
      * Adds a music to playlist.
      *
@@ -188,6 +269,17 @@ public class MPDPlaylist {
         mConnection.sendCommand(clearCommand());
     }
 
+    /**
+     * Retrieves music by its songId in playlist. Operates on local copy of playlist, may not
+     * reflect server's current playlist.
+     *
+     * @param songId The songId of the music.
+     * @return The music with the given songId, or null if it is not in the playlist.
+     */
+    public Music getById(final int songId) {
+        return mList.getById(songId);
+    }
+
     /**
      * Retrieves music at position index in playlist. Operates on local copy of
      * playlist, may not reflect server's current playlist.
@@ -199,6 +291,66 @@ public class MPDPlaylist {
         return mList.getByIndex(index);
     }
 
+    /**
+     * Retrieves the entries of the playlist which changed since a playlist version.
+     *
+     * <p>If the media server supports it, only the positions and songIds of the changed entries
+     * are retrieved. A known entry which changed position was moved, so its {@code Music} item is
+     * repositioned without retrieving its metadata again. The metadata of unknown entries, and of
+     * known entries which changed in place, such as after a tag update, is retrieved in batches.
+     * A move near the top of a long queue then costs a few bytes per moved entry, rather than
+     * its full metadata.</p>
+     *
+     * @param playlistVersion The playlist version of the local copy of the playlist.
+     * @return The changed entries, at their new position.
+     * @throws IOException  Thrown upon a communication error with the server.
+     * @throws MPDException Thrown if an error occurs as a result of command execution.
+     */
+    private Collection<Music> getChanges(final int playlistVersion)
+            throws IOException, MPDException {
+        final String version = Integer.toString(playlistVersion);
+
+        if (!mConnection.isCommandAvailable(MPD_CMD_PLAYLIST_CHANGES_POSID)) {
+            return getMusic(new MPDCommand(MPD_CMD_PLAYLIST_CHANGES, version));
+        }
+
+        final PositionHandler positions = new PositionHandler();
+        mConnection.sendCommand(new MPDCommand(MPD_CMD_PLAYLIST_CHANGES_POSID, version),
+                positions);
+
+        final List<Music> changes = new ArrayList<>(positions.mSize);
+        final CommandQueue commandQueue = new CommandQueue();
+        int repositioned = 0;
+        for (int i = 0; i < positions.mSize; i++) {
+            final int songId = positions.mSongIds[i];
+            final int songPos = positions.mSongPositions[i];
+            final Music music = mList.getById(songId);
+
+            if (music == null || music.getPos() == songPos) {
+                commandQueue.add(MPD_CMD_PLAYLIST_LIST, Integer.toString(songId));
+
+                if (commandQueue.size() == MAX_PLAYLIST_ID_BATCH) {
+                    changes.addAll(getMusic(commandQueue));
+                    commandQueue.clear();
+                }
+            } else {
+                changes.add(MusicBuilder.reposition(music, songPos));
+                repositioned++;
+            }
+        }
+
+        if (!commandQueue.isEmpty()) {
+            changes.addAll(getMusic(commandQueue));
+        }
+
+        if (DEBUG) {
+            Log.debug(TAG, positions.mSize + " entries changed, " + repositioned +
+                    " repositioned without retrieving metadata.");
+        }
+
+        return changes;
+    }
+
     /**
      * This replaces the entire {@code MusicList} with a full playlist response from the media
      * server.
@@ -207,12 +359,46 @@ public class MPDPlaylist {
      * @throws MPDException Thrown if an error occurs as a result of command execution.
      */
     private Collection<Music> getFullPlaylist() throws IOException, MPDException {
-        final List<String> response = mConnection.sendCommand(MPD_CMD_PLAYLIST_LIST);
-        return Music.getMusicFromList(response, false);
+        return getMusic(new MPDCommand(MPD_CMD_PLAYLIST_LIST));
+    }
+
+    /**
+     * Sends a command and builds the {@code Music} items of the response while it is read.
+     *
+     * @param command The command to send.
+     * @return A list of {@code Music} items, in response order.
+     * @throws IOException  Thrown upon a communication error with the server.
+     * @throws MPDException Thrown if an error occurs as a result of command execution.
+     */
+    private List<Music> getMusic(final MPDCommand command) throws IOException, MPDException {
+        final MusicBuilder builder = new MusicBuilder();
+
+        mConnection.sendCommand(command, builder);
+
+        return builder.getMusic();
+    }
+
+    /**
+     * Sends a command queue and builds the {@code Music} items of the response while it is read.
+     *
+     * @param commandQueue The command queue to send.
+     * @return A list of {@code Music} items, in response order.
+     * @throws IOException  Thrown upon a communication error with the server.
+     * @throws MPDException Thrown if an error occurs as a result of command execution.
+     */
+    private List<Music> getMusic(final CommandQueue commandQueue)
+            throws IOException, MPDException {
+        final MusicBuilder builder = new MusicBuilder();
+
+        commandQueue.send(mConnection, builder);
+
+        return builder.getMusic();
     }
 
     /**
-     * Retrieves all songs as an {@code List} of {@code Music}.
+     * Retrieves all songs as an {@code List} of {@code Music}. The list is an immutable snapshot
+     * of the local copy of the playlist; it is not affected by later refreshes, so it can be
+     * iterated without locking or copying.
      *
      * @return all songs as an {@code List} of {@code Music}.
      * @see Music
@@ -221,6 +407,27 @@ public class MPDPlaylist {
         return mList.getMusic();
     }
 
+    /**
+     * Retrieves the position of music by its songId in playlist. Operates on local copy of
+     * playlist, may not reflect server's current playlist.
+     *
+     * @param songId The songId of the music.
+     * @return The position of the music with the given songId, or -1 if it is not in the
+     * playlist.
+     */
+    public int getPositionById(final int songId) {
+        return mList.getPosition(songId);
+    }
+
+    /**
+     * The playlist version of the local copy of the playlist.
+     *
+     * @return The playlist version of the local copy, -1 if the playlist was never loaded.
+     */
+    public int getVersion() {
+        return mList.getVersion();
+    }
+
     /**
      * Load playlist file.
      *
@@ -282,36 +489,90 @@ public class MPDPlaylist {
     }
 
     /**
-     * Reloads the playlist content. This is the only place the {@link org.a0z.mpd.MusicList}
-     * should be modified.
+     * Reloads the playlist content. Apart from restoring a saved copy, this is the only place
+     * the {@link org.a0z.mpd.MusicList} should be modified.
      *
      * @param mpdStatus A current {@code MPDStatus} object.
      * @throws IOException  Thrown upon a communication error with the server.
      * @throws MPDException Thrown if an error occurs as a result of command execution.
      */
     void refresh(final MPDStatus mpdStatus) throws IOException, MPDException {
-        /** Synchronize this block to make sure the playlist version stays coherent. */
-        synchronized (mList) {
+        /**
+         * Synchronize this block to make sure the playlist version stays coherent. Readers are
+         * not blocked, they keep the current snapshot until the next one is published.
+         */
+        synchronized (mRefreshLock) {
+            final int lastPlaylistVersion = mList.getVersion();
             final int newPlaylistVersion = mpdStatus.getPlaylistVersion();
 
-            if (mLastPlaylistVersion == -1 || mList.size() == 0) {
-                mList.replace(getFullPlaylist());
-            } else if (mLastPlaylistVersion != newPlaylistVersion) {
-                final List<String> response =
-                        mConnection.sendCommand(MPD_CMD_PLAYLIST_CHANGES,
-                                Integer.toString(mLastPlaylistVersion));
-                final Collection<Music> changes = Music.getMusicFromList(response, false);
-
+            /**
+             * A version newer than the media server's can't be reconciled with it, this is a copy
+             * saved before the media server reset its playlist version.
+             */
+            if (lastPlaylistVersion == -1 || lastPlaylistVersion > newPlaylistVersion ||
+                    mList.size() == 0) {
+                mList.replace(getFullPlaylist(), newPlaylistVersion);
+            } else if (lastPlaylistVersion != newPlaylistVersion) {
                 try {
-                    mList.manipulate(changes, mpdStatus.getPlaylistLength());
+                    mList.manipulate(getChanges(lastPlaylistVersion),
+                            mpdStatus.getPlaylistLength(), newPlaylistVersion);
                 } catch (final IllegalStateException e) {
                     Log.error(TAG, "Partial update failed, running full update.", e);
-                    mList.replace(getFullPlaylist());
+                    mList.replace(getFullPlaylist(), newPlaylistVersion);
+                } catch (final MPDException e) {
+                    /** An entry was removed before its metadata was retrieved. */
+                    Log.warning(TAG, "Partial update failed, running full update.", e);
+                    mList.replace(getFullPlaylist(), newPlaylistVersion);
                 }
             }
+        }
+    }
 
-            mLastPlaylistVersion = newPlaylistVersion;
+    /**
+     * Restores a copy of the playlist written by {@link #save(DataOutput, long)}, unless the
+     * playlist has already been retrieved. The next refresh reconciles the copy with the media
+     * server playlist, from the version of the copy.
+     *
+     * @param input     The input to read the playlist from.
+     * @param startTime The start time of the connected media server, in seconds since the epoch.
+     * @return True if the playlist was restored, false if the copy is stale or if the playlist has
+     * already been retrieved.
+     * @throws IOException Thrown if the playlist could not be read.
+     */
+    boolean restore(final DataInput input, final long startTime) throws IOException {
+        boolean isRestored = false;
+
+        if (input.readInt() == SAVED_FORMAT) {
+            final long savedStartTime = input.readLong();
+            final int version = input.readInt();
+            final int size = input.readInt();
+
+            /**
+             * A restarted media server reloads its playlist, reusing playlist versions for other
+             * content, so a copy saved before a restart can't be reconciled.
+             */
+            if (startTime != -1L && savedStartTime != -1L && version != -1 &&
+                    Math.abs(startTime - savedStartTime) <= START_TIME_TOLERANCE) {
+                final List<Music> music = new ArrayList<>(size);
+
+                for (int i = 0; i < size; i++) {
+                    music.add(MusicBuilder.read(input));
+                }
+
+                synchronized (mRefreshLock) {
+                    if (mList.getVersion() == -1) {
+                        mList.replace(music, version);
+                        isRestored = true;
+                    }
+                }
+            }
         }
+
+        if (DEBUG) {
+            Log.debug(TAG, "Saved playlist restored: " + isRestored);
+        }
+
+        return isRestored;
     }
 
     /**
@@ -323,51 +584,43 @@ public class MPDPlaylist {
      * @see #removeById(int[])
      */
     public void removeAlbumById(final int songId) throws IOException, MPDException {
-        // Better way to get artist of given songId?
         String artist = "";
         String album = "";
         int num = 0;
         boolean usingAlbumArtist = true;
 
-        synchronized (mList) {
-            for (final Music song : mList) {
-                if (song.getSongId() == songId) {
-                    artist = song.getAlbumArtist();
-                    if (artist == null || artist.isEmpty()) {
-                        usingAlbumArtist = false;
-                        artist = song.getArtist();
-                    }
-                    album = song.getAlbum();
-                    break;
-                }
+        final Music song = mList.getById(songId);
+        if (song != null) {
+            artist = song.getAlbumArtist();
+            if (artist == null || artist.isEmpty()) {
+                usingAlbumArtist = false;
+                artist = song.getArtist();
             }
+            album = song.getAlbum();
         }
 
         if (artist != null && album != null) {
             if (DEBUG) {
                 Log.debug(TAG, "Remove album " + album + " of " + artist);
             }
-            final CommandQueue commandQueue = new CommandQueue();
-
-            /** Don't allow the list to change before we've computed the CommandList. */
-            synchronized (mList) {
-                for (final Music track : mList) {
-                    if (album.equals(track.getAlbum())) {
-                        final boolean songIsAlbumArtist =
-                                usingAlbumArtist && artist.equals(track.getAlbumArtist());
-                        final boolean songIsArtist =
-                                !usingAlbumArtist && artist.equals(track.getArtist());
-
-                        if (songIsArtist || songIsAlbumArtist) {
-                            final String songID = Integer.toString(track.getSongId());
-                            commandQueue.add(MPD_CMD_PLAYLIST_REMOVE_ID, songID);
-                            num++;
-                        }
+            final Collection<Integer> songIds = new ArrayList<>();
+
+            /** The snapshot iterated does not change while the songIds are collected. */
+            for (final Music track : mList) {
+                if (album.equals(track.getAlbum())) {
+                    final boolean songIsAlbumArtist =
+                            usingAlbumArtist && artist.equals(track.getAlbumArtist());
+                    final boolean songIsArtist =
+                            !usingAlbumArtist && artist.equals(track.getArtist());
+
+                    if (songIsArtist || songIsAlbumArtist) {
+                        songIds.add(Integer.valueOf(track.getSongId()));
+                        num++;
                     }
                 }
             }
 
-            commandQueue.send(mConnection);
+            removeById(songIds);
         }
         if (DEBUG) {
             Log.debug(TAG, "Removed " + num + " songs");
@@ -382,12 +635,15 @@ public class MPDPlaylist {
      * @throws MPDException Thrown if an error occurs as a result of command execution.
      */
     public void removeById(final int... songIds) throws IOException, MPDException {
-        final CommandQueue commandQueue = new CommandQueue();
+        final CommandQueue commandQueue = new CommandQueue(songIds.length);
 
         for (final int id : songIds) {
             commandQueue.add(MPD_CMD_PLAYLIST_REMOVE_ID, Integer.toString(id));
         }
-        commandQueue.send(mConnection);
+
+        if (!commandQueue.isEmpty()) {
+            commandQueue.send(mConnection);
+        }
     }
 
     /**
@@ -396,15 +652,18 @@ public class MPDPlaylist {
      * @param songIds Playlist songIDs to remove.
      * @throws IOException  Thrown upon a communication error with the server.
      * @throws MPDException Thrown if an error occurs as a result of command execution.
+     * @see #removeById(int[])
      */
     public void removeById(final Collection<Integer> songIds) throws IOException, MPDException {
-        final CommandQueue commandQueue = new CommandQueue(songIds.size());
+        final int[] ids = new int[songIds.size()];
+        int i = 0;
 
         for (final Integer id : songIds) {
-            commandQueue.add(MPD_CMD_PLAYLIST_REMOVE_ID, id.toString());
+            ids[i] = id.intValue();
+            i++;
         }
 
-        commandQueue.send(mConnection);
+        removeById(ids);
     }
 
     /**
@@ -416,7 +675,11 @@ public class MPDPlaylist {
      * @see #removeById(int[])
      */
     void removeByIndex(final int... songs) throws IOException, MPDException {
-        removeByIndexCommand(songs).send(mConnection);
+        final CommandQueue commandQueue = removeByIndexCommand(songs);
+
+        if (!commandQueue.isEmpty()) {
+            commandQueue.send(mConnection);
+        }
     }
 
     /**
@@ -430,6 +693,34 @@ public class MPDPlaylist {
         mConnection.sendCommand(MPD_CMD_PLAYLIST_DELETE, file);
     }
 
+    /**
+     * Writes a copy of the playlist, along with its version, to be restored by
+     * {@link #restore(DataInput, long)}.
+     *
+     * @param output    The output to write the playlist to.
+     * @param startTime The start time of the connected media server, in seconds since the epoch.
+     * @throws IOException Thrown if the playlist could not be written.
+     */
+    void save(final DataOutput output, final long startTime) throws IOException {
+        final List<Music> music;
+        final int version;
+
+        /** The list is only modified while refreshing, keep the version coherent with it. */
+        synchronized (mRefreshLock) {
+            music = mList.getMusic();
+            version = mList.getVersion();
+        }
+
+        output.writeInt(SAVED_FORMAT);
+        output.writeLong(startTime);
+        output.writeInt(version);
+        output.writeInt(music.size());
+
+        for (final Music item : music) {
+            MusicBuilder.write(item, output);
+        }
+    }
+
     /**
      * Save playlist file.
      *
@@ -501,13 +792,47 @@ public class MPDPlaylist {
      */
     public String toString() {
         final StringBuilder stringBuilder = new StringBuilder();
-        synchronized (mList) {
-            for (final Music music : mList) {
-                stringBuilder.append(music);
-                stringBuilder.append(MPDCommand.MPD_CMD_NEWLINE);
-            }
+        for (final Music music : mList) {
+            stringBuilder.append(music);
+            stringBuilder.append(MPDCommand.MPD_CMD_NEWLINE);
         }
         return stringBuilder.toString();
     }
 
+    /** This class collects the positions and songIds of a {@code plchangesposid} response. */
+    private static final class PositionHandler implements ResponseHandler {
+
+        /** The number of entries collected. */
+        private int mSize;
+
+        /** The songIds of the entries, in response order. */
+        private int[] mSongIds = new int[16];
+
+        /** The position of the entry being read. */
+        private int mSongPos;
+
+        /** The positions of the entries, in response order. */
+        private int[] mSongPositions = new int[16];
+
+        @Override
+        public void handle(final String key, final String value) {
+            switch (key) {
+                case "cpos":
+                    mSongPos = Integer.parseInt(value);
+                    break;
+                case "Id":
+                    if (mSize == mSongIds.length) {
+                        mSongIds = Arrays.copyOf(mSongIds, mSize * 2);
+                        mSongPositions = Arrays.copyOf(mSongPositions, mSize * 2);
+                    }
+
+                    mSongIds[mSize] = Integer.parseInt(value);
+                    mSongPositions[mSize] = mSongPos;
+                    mSize++;
+                    break;
+                default:
+                    break;
+            }
+        }
+    }
 }
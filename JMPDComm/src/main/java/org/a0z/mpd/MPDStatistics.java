@@ -27,6 +27,8 @@
 
 package org.a0z.mpd;
 
+import org.a0z.mpd.connection.ResponseHandler;
+
 import java.util.Collection;
 import java.util.Date;
 
@@ -38,7 +40,7 @@ import static org.a0z.mpd.Tools.VALUE;
  *
  * @author Felipe Gustavo de Almeida
  */
-public class MPDStatistics {
+public class MPDStatistics implements ResponseHandler {
 
     private static final long MILLI_TO_SEC = 1000L;
 
@@ -56,6 +58,9 @@ public class MPDStatistics {
 
     private long mSongs = -1L;
 
+    /** The time the media server was started, in seconds since the epoch. */
+    private long mStartTime = -1L;
+
     private long mUpTime = -1L;
 
     MPDStatistics() {
@@ -124,6 +129,17 @@ public class MPDStatistics {
         return mSongs;
     }
 
+    /**
+     * Retrieves the time the media server was started, derived from its up time when the
+     * statistics were last updated. As the up time has a resolution of one second, this value may
+     * drift by a second or two between updates.
+     *
+     * @return The time the media server was started, in seconds since the epoch, -1 if unknown.
+     */
+    public long getStartTime() {
+        return mStartTime;
+    }
+
     /**
      * Retrieves server up time.
      *
@@ -155,34 +171,45 @@ public class MPDStatistics {
      */
     public final void update(final Collection<String> response) {
         for (final String[] pair : Tools.splitResponse(response)) {
+            handle(pair[KEY], pair[VALUE]);
+        }
+    }
 
-            switch (pair[KEY]) {
-                case "albums":
-                    mAlbums = Long.parseLong(pair[VALUE]);
-                    break;
-                case "artists":
-                    mArtists = Long.parseLong(pair[VALUE]);
-                    break;
-                case "db_playtime":
-                    mDBPlaytime = Long.parseLong(pair[VALUE]);
-                    break;
-                case "db_update":
-                    mDbUpdate = new Date(Long.parseLong(pair[VALUE]) * MILLI_TO_SEC);
-                    break;
-                case "playtime":
-                    mPlayTime = Long.parseLong(pair[VALUE]);
-                    break;
-                case "songs":
-                    mSongs = Long.parseLong(pair[VALUE]);
-                    break;
-                case "uptime":
-                    mUpTime = Long.parseLong(pair[VALUE]);
-                    break;
-                default:
-                    Log.warning(TAG,
-                            "Undocumented statistic: Key: " + pair[KEY] + " Value: " + pair[VALUE]);
-                    break;
-            }
+    /**
+     * Updates one value of the statistics, as a key/value pair of the media server response.
+     *
+     * @param key   The key of the response line.
+     * @param value The value of the response line.
+     */
+    @Override
+    public final void handle(final String key, final String value) {
+        switch (key) {
+            case "albums":
+                mAlbums = Long.parseLong(value);
+                break;
+            case "artists":
+                mArtists = Long.parseLong(value);
+                break;
+            case "db_playtime":
+                mDBPlaytime = Long.parseLong(value);
+                break;
+            case "db_update":
+                mDbUpdate = new Date(Long.parseLong(value) * MILLI_TO_SEC);
+                break;
+            case "playtime":
+                mPlayTime = Long.parseLong(value);
+                break;
+            case "songs":
+                mSongs = Long.parseLong(value);
+                break;
+            case "uptime":
+                mUpTime = Long.parseLong(value);
+                mStartTime = System.currentTimeMillis() / MILLI_TO_SEC - mUpTime;
+                break;
+            default:
+                Log.warning(TAG,
+                        "Undocumented statistic: Key: " + key + " Value: " + value);
+                break;
         }
     }
 }
@@ -27,6 +27,8 @@
 
 package org.a0z.mpd;
 
+import org.a0z.mpd.connection.ResponseHandler;
+
 import java.util.Collection;
 import java.util.Date;
 
@@ -38,7 +40,7 @@ import static org.a0z.mpd.Tools.VALUE;
  *
  * @author Felipe Gustavo de Almeida
  */
-public class MPDStatus {
+public class MPDStatus implements ResponseHandler {
 
     /**
      * MPD State: paused.
@@ -369,7 +371,7 @@ public class MPDStatus {
      * These values are not necessarily reset by a response
      * and must be reset prior to response parsing.
      */
-    private void resetValues() {
+    void resetValues() {
         mBitRate = 0L;
         mBitsPerSample = 0;
         mChannels = 0;
@@ -432,121 +434,169 @@ public class MPDStatus {
         resetValues();
 
         for (final String[] pair : Tools.splitResponse(response)) {
+            handle(pair[KEY], pair[VALUE]);
+        }
+    }
 
-            switch (pair[KEY]) {
-                case "audio":
-                    final int delimiterIndex = pair[VALUE].indexOf(':');
-                    final String tmp = pair[VALUE].substring(delimiterIndex + 1);
-                    final int secondIndex = tmp.indexOf(':');
-
-                    try {
-                        mSampleRate = Integer.parseInt(pair[VALUE].substring(0, delimiterIndex));
-                        mBitsPerSample = Integer.parseInt(tmp.substring(0, secondIndex));
-                        mChannels = Integer.parseInt(tmp.substring(secondIndex + 1));
-                    } catch (final NumberFormatException ignored) {
-                        // Sometimes mpd sends "?" as a sampleRate or
-                        // bitsPerSample, etc ... hotfix for a bugreport I had.
-                    }
-                    break;
-                case "bitrate":
-                    mBitRate = Long.parseLong(pair[VALUE]);
-                    break;
-                case "consume":
-                    mConsume = "1".equals(pair[VALUE]);
-                    break;
-                case "elapsed":
-                    mElapsedTimeHighResolution = Float.parseFloat(pair[VALUE]);
-                    break;
-                case "error":
-                    mError = pair[VALUE];
-                    break;
-                case "mixrampdb":
-                    try {
-                        mMixRampDB = Float.parseFloat(pair[VALUE]);
-                    } catch (final NumberFormatException e) {
-                        if ("nan".equals(pair[VALUE])) {
-                            mMixRampDisabled = true;
-                        } else {
-                            Log.error(TAG, "Unexpected value from mixrampdb.", e);
-                        }
-                    }
-                    break;
-                case "mixrampdelay":
-                    try {
-                        mMixRampDelay = Float.parseFloat(pair[VALUE]);
-                    } catch (final NumberFormatException e) {
-                        if ("nan".equals(pair[VALUE])) {
-                            mMixRampDisabled = true;
-                        } else {
-                            Log.error(TAG, "Unexpected value from mixrampdelay", e);
-                        }
+    /**
+     * Updates the state of the MPD Server from a status parsed separately.
+     *
+     * @param status The status parsed from a complete response from the server.
+     */
+    final void updateStatus(final MPDStatus status) {
+        mBitRate = status.mBitRate;
+        mBitsPerSample = status.mBitsPerSample;
+        mChannels = status.mChannels;
+        mConsume = status.mConsume;
+        mCrossFade = status.mCrossFade;
+        mElapsedTime = status.mElapsedTime;
+        mElapsedTimeHighResolution = status.mElapsedTimeHighResolution;
+        mError = status.mError;
+        mMixRampDB = status.mMixRampDB;
+        mMixRampDelay = status.mMixRampDelay;
+        mMixRampDisabled = status.mMixRampDisabled;
+        mNextSong = status.mNextSong;
+        mNextSongId = status.mNextSongId;
+        mPlaylistLength = status.mPlaylistLength;
+        mPlaylistVersion = status.mPlaylistVersion;
+        mRandom = status.mRandom;
+        mRepeat = status.mRepeat;
+        mSampleRate = status.mSampleRate;
+        mSingle = status.mSingle;
+        mSong = status.mSong;
+        mSongId = status.mSongId;
+        mState = status.mState;
+        mTotalTime = status.mTotalTime;
+        mUpdating = status.mUpdating;
+        mVolume = status.mVolume;
+
+        /** The update time is kept from the last response which had a time. */
+        if (status.mUpdateTime != 0L) {
+            mUpdateTime = status.mUpdateTime;
+        }
+    }
+
+    /**
+     * Updates one value of the status, as a key/value pair of the media server response.
+     *
+     * @param key   The key of the response line.
+     * @param value The value of the response line.
+     */
+    @Override
+    public final void handle(final String key, final String value) {
+        switch (key) {
+            case "audio":
+                final int delimiterIndex = value.indexOf(':');
+                final String tmp = value.substring(delimiterIndex + 1);
+                final int secondIndex = tmp.indexOf(':');
+
+                try {
+                    mSampleRate = Integer.parseInt(value.substring(0, delimiterIndex));
+                    mBitsPerSample = Integer.parseInt(tmp.substring(0, secondIndex));
+                    mChannels = Integer.parseInt(tmp.substring(secondIndex + 1));
+                } catch (final NumberFormatException ignored) {
+                    // Sometimes mpd sends "?" as a sampleRate or
+                    // bitsPerSample, etc ... hotfix for a bugreport I had.
+                }
+                break;
+            case "bitrate":
+                mBitRate = Long.parseLong(value);
+                break;
+            case "consume":
+                mConsume = "1".equals(value);
+                break;
+            case "elapsed":
+                mElapsedTimeHighResolution = Float.parseFloat(value);
+                break;
+            case "error":
+                mError = value;
+                break;
+            case "mixrampdb":
+                try {
+                    mMixRampDB = Float.parseFloat(value);
+                } catch (final NumberFormatException e) {
+                    if ("nan".equals(value)) {
+                        mMixRampDisabled = true;
+                    } else {
+                        Log.error(TAG, "Unexpected value from mixrampdb.", e);
                     }
-                    break;
-                case "nextsong":
-                    mNextSong = Integer.parseInt(pair[VALUE]);
-                    break;
-                case "nextsongid":
-                    mNextSongId = Integer.parseInt(pair[VALUE]);
-                    break;
-                case "playlist":
-                    mPlaylistVersion = Integer.parseInt(pair[VALUE]);
-                    break;
-                case "playlistlength":
-                    mPlaylistLength = Integer.parseInt(pair[VALUE]);
-                    break;
-                case "random":
-                    mRandom = "1".equals(pair[VALUE]);
-                    break;
-                case "repeat":
-                    mRepeat = "1".equals(pair[VALUE]);
-                    break;
-                case "single":
-                    mSingle = "1".equals(pair[VALUE]);
-                    break;
-                case "song":
-                    mSong = Integer.parseInt(pair[VALUE]);
-                    break;
-                case "songid":
-                    mSongId = Integer.parseInt(pair[VALUE]);
-                    break;
-                case "state":
-                    switch (pair[VALUE]) {
-                        case MPD_STATE_PLAYING:
-                            mState = STATE_PLAYING;
-                            break;
-                        case MPD_STATE_PAUSED:
-                            mState = STATE_PAUSED;
-                            break;
-                        case MPD_STATE_STOPPED:
-                            mState = STATE_STOPPED;
-                            break;
-                        case MPD_STATE_UNKNOWN:
-                        default:
-                            mState = STATE_UNKNOWN;
-                            break;
+                }
+                break;
+            case "mixrampdelay":
+                try {
+                    mMixRampDelay = Float.parseFloat(value);
+                } catch (final NumberFormatException e) {
+                    if ("nan".equals(value)) {
+                        mMixRampDisabled = true;
+                    } else {
+                        Log.error(TAG, "Unexpected value from mixrampdelay", e);
                     }
-                    break;
-                case "time":
-                    final int timeIndex = pair[VALUE].indexOf(':');
-
-                    mElapsedTime = Long.parseLong(pair[VALUE].substring(0, timeIndex));
-                    mTotalTime = Long.parseLong(pair[VALUE].substring(timeIndex + 1));
-                    mUpdateTime = new Date().getTime();
-                    break;
-                case "volume":
-                    mVolume = Integer.parseInt(pair[VALUE]);
-                    break;
-                case "xfade":
-                    mCrossFade = Integer.parseInt(pair[VALUE]);
-                    break;
-                case "updating_db":
-                    mUpdating = true;
-                    break;
-                default:
-                    Log.debug(TAG,
-                            "Status was sent an unknown response: key: " + pair[KEY] + " value: "
-                                    + pair[VALUE]);
-            }
+                }
+                break;
+            case "nextsong":
+                mNextSong = Integer.parseInt(value);
+                break;
+            case "nextsongid":
+                mNextSongId = Integer.parseInt(value);
+                break;
+            case "playlist":
+                mPlaylistVersion = Integer.parseInt(value);
+                break;
+            case "playlistlength":
+                mPlaylistLength = Integer.parseInt(value);
+                break;
+            case "random":
+                mRandom = "1".equals(value);
+                break;
+            case "repeat":
+                mRepeat = "1".equals(value);
+                break;
+            case "single":
+                mSingle = "1".equals(value);
+                break;
+            case "song":
+                mSong = Integer.parseInt(value);
+                break;
+            case "songid":
+                mSongId = Integer.parseInt(value);
+                break;
+            case "state":
+                switch (value) {
+                    case MPD_STATE_PLAYING:
+                        mState = STATE_PLAYING;
+                        break;
+                    case MPD_STATE_PAUSED:
+                        mState = STATE_PAUSED;
+                        break;
+                    case MPD_STATE_STOPPED:
+                        mState = STATE_STOPPED;
+                        break;
+                    case MPD_STATE_UNKNOWN:
+                    default:
+                        mState = STATE_UNKNOWN;
+                        break;
+                }
+                break;
+            case "time":
+                final int timeIndex = value.indexOf(':');
+
+                mElapsedTime = Long.parseLong(value.substring(0, timeIndex));
+                mTotalTime = Long.parseLong(value.substring(timeIndex + 1));
+                mUpdateTime = new Date().getTime();
+                break;
+            case "volume":
+                mVolume = Integer.parseInt(value);
+                break;
+            case "xfade":
+                mCrossFade = Integer.parseInt(value);
+                break;
+            case "updating_db":
+                mUpdating = true;
+                break;
+            default:
+                Log.debug(TAG,
+                        "Status was sent an unknown response: key: " + key + " value: "
+                                + value);
         }
     }
 }
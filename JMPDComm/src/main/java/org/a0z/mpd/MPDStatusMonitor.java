@@ -319,7 +319,10 @@ public class MPDStatusMonitor extends Thread {
 
             try {
                 synchronized (this) {
-                    if (!mMPD.isConnected()) {
+                    if (connectionLost) {
+                        /** Back off with the connections, rather than spinning on a dead host. */
+                        wait(Math.max(1L, mMPD.getReconnectPolicy().getReconnectDelay()));
+                    } else if (!mMPD.isConnected()) {
                         wait(mDelay);
                     }
                 }
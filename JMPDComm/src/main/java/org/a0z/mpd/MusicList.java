@@ -25,23 +25,27 @@
  * THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
  */
 
+
 package org.a0z.mpd;
 
 import org.a0z.mpd.item.Music;
 
-import java.util.ArrayList;
+import java.util.AbstractList;
+import java.util.Arrays;
 import java.util.Collection;
-import java.util.Collections;
 import java.util.Iterator;
 import java.util.List;
+import java.util.RandomAccess;
 
 /**
  * @author Felipe Gustavo de Almeida, Stefan Agner
  */
 
 /**
- * These lists store the internal structure store of the playlist. All modifications are
- * synchronized, iterating over the list will still require manual locking.
+ * These lists store the internal structure store of the playlist. The playlist is published as
+ * immutable snapshots: readers take the current snapshot without locking and may keep iterating
+ * it, while a modification builds the next snapshot from the current one, then publishes it.
+ * Modifications are synchronized with each other.
  */
 final class MusicList implements Iterable<Music> {
 
@@ -51,62 +55,11 @@ final class MusicList implements Iterable<Music> {
     /** The debug log identifier. */
     private static final String TAG = "MusicList";
 
-    /** The playlist store in positional order. */
-    private final List<Music> mList;
-
-    /** A list of songIDs in songPos order. */
-    private final List<Integer> mSongID;
+    /** The current snapshot of the playlist. */
+    private volatile Snapshot mSnapshot = new Snapshot(new Music[0], new IntIntHashMap(), -1);
 
     MusicList() {
         super();
-
-        mList = Collections.synchronizedList(new ArrayList<Music>());
-        mSongID = Collections.synchronizedList(new ArrayList<Integer>());
-    }
-
-    /**
-     * Adds music to {@code MusicList}.
-     *
-     * @param music music to be added.
-     */
-    private void add(final Music music) {
-        synchronized (mList) {
-            final int songPos = music.getPos();
-
-            if (DEBUG) {
-                Log.debug(TAG, "listSize: " + mList.size() + " songPos: " + songPos);
-            }
-            if (mList.size() == songPos) {
-                if (DEBUG) {
-                    Log.debug(TAG, "Adding music to the end");
-                }
-                mList.add(music);
-                mSongID.add(music.getSongId());
-            } else {
-                if (DEBUG) {
-                    Log.debug(TAG,
-                            "Adding beyond the end, or setting within the current playlist.");
-                }
-                /**
-                 * Grow the list to the size of the songPos, THEN set it to the position necessary.
-                 * The while loop shouldn't be necessary at all, unless, the result response is out
-                 * of positional order.
-                 */
-                while (mList.size() <= songPos) {
-                    mList.add(null);
-                    mSongID.add(null);
-                }
-
-                if (songPos == -1) {
-                    throw new IllegalStateException("Media server protocol error: songPos not " +
-                            "included with the playlist changes included with the following " +
-                            "music. Path:" + music.getFullPath() + " Name: " + music.getName());
-                }
-
-                mList.set(songPos, music);
-                mSongID.set(songPos, music.getSongId());
-            }
-        }
     }
 
     /**
@@ -117,9 +70,15 @@ final class MusicList implements Iterable<Music> {
      * present on this {@code MusicList}.
      */
     Music getById(final int songId) {
-        final int songPos = Integer.valueOf(mSongID.indexOf(songId));
+        final Snapshot snapshot = mSnapshot;
+        final int songPos = snapshot.mSongIdIndex.get(songId);
+        Music result = null;
+
+        if (songPos != IntIntHashMap.NO_VALUE) {
+            result = snapshot.mMusic[songPos];
+        }
 
-        return mList.get(songPos);
+        return result;
     }
 
     /**
@@ -130,87 +89,135 @@ final class MusicList implements Iterable<Music> {
      * present on this {@code MusicList}.
      */
     Music getByIndex(final int index) {
+        final Music[] music = mSnapshot.mMusic;
         Music result = null;
 
-        if (index >= 0 && mList.size() > index) {
-            result = mList.get(index);
+        if (index >= 0 && music.length > index) {
+            result = music[index];
         }
 
         return result;
     }
 
     /**
-     * Retrieves a List containing all {@code Music} objects from this {@code MusicList}.
+     * Retrieves the current snapshot of this {@code MusicList}. The snapshot is immutable and is
+     * not affected by later modifications, so it can be iterated without locking or copying.
      *
-     * @return Retrieves a List containing all {@code Music} objects from this {@code MusicList}.
+     * @return The current snapshot of all {@code Music} objects from this {@code MusicList}.
      */
     List<Music> getMusic() {
-        return Collections.unmodifiableList(mList);
+        return mSnapshot;
+    }
+
+    /**
+     * Retrieves the position of a {@code Music} object by its songId.
+     *
+     * @param songId songId from the music to look up.
+     * @return The position of the music with given songId, or -1 if it is not present on this
+     * {@code MusicList}.
+     */
+    int getPosition(final int songId) {
+        return mSnapshot.mSongIdIndex.get(songId);
     }
 
     /**
-     * Returns an {@link java.util.Iterator} for the music list.
+     * The playlist version of the current snapshot.
+     *
+     * @return The playlist version of the current snapshot, -1 if never set.
+     */
+    int getVersion() {
+        return mSnapshot.mVersion;
+    }
+
+    /**
+     * Returns an {@link java.util.Iterator} for the current snapshot of the music list.
      *
      * @return An {@code Iterator} instance.
      */
     @Override
     public Iterator<Music> iterator() {
-        return mList.iterator();
+        return mSnapshot.iterator();
     }
 
     /**
-     * Modifies the list to reflect the changes coming in from the {@code playlist}. Lock to an
-     * object prior to running this method.
+     * Publishes a snapshot built from the changes coming in from the {@code playlist}. If the
+     * changes are inconsistent, the current snapshot is kept.
      *
-     * @param musicList    The changes to make to the backing stores.
+     * @param musicList    The changes to make to the current snapshot.
      * @param listCapacity The size of the resulting list.
+     * @param version      The playlist version of the resulting list.
      */
-    void manipulate(final Iterable<Music> musicList, final int listCapacity) {
-        for (final Music music : musicList) {
+    synchronized void manipulate(final Iterable<Music> musicList, final int listCapacity,
+            final int version) {
+        final Snapshot current = mSnapshot;
+        final IntIntHashMap songIdIndex = new IntIntHashMap(current.mSongIdIndex);
+        Music[] music = Arrays.copyOf(current.mMusic, Math.max(current.mMusic.length,
+                listCapacity));
+        int listSize = current.mMusic.length;
+
+        for (final Music track : musicList) {
+            final int songPos = track.getPos();
+
+            if (songPos == -1) {
+                throw new IllegalStateException("Media server protocol error: songPos not " +
+                        "included with the playlist changes included with the following " +
+                        "music. Path:" + track.getFullPath() + " Name: " + track.getName());
+            }
+
+            if (DEBUG) {
+                Log.debug(TAG, "listSize: " + listSize + " songPos: " + songPos);
+            }
+
             /**
-             * Do not remove from either list. it will be removed by range.
+             * Grow the array to the size of the songPos, THEN set it to the position necessary.
+             * This shouldn't be necessary at all, unless, the result response is out of
+             * positional order.
              */
-            add(music);
+            if (songPos >= music.length) {
+                music = Arrays.copyOf(music, songPos + 1);
+            }
+            listSize = Math.max(listSize, songPos + 1);
+
+            unindex(songIdIndex, music[songPos], songPos);
+            music[songPos] = track;
+            songIdIndex.put(track.getSongId(), songPos);
         }
 
         /**
          * Consistency checks and cleanups.
          */
-        synchronized (mList) {
-            final int listSize = mList.size();
-            final int songIDSize = mSongID.size();
-            if (listSize < listCapacity) {
-                throw new IllegalStateException(
-                        "List store: " + listSize + " and playlistLength: " + listCapacity +
-                                " size differs.");
-            }
+        if (listSize < listCapacity) {
+            throw new IllegalStateException(
+                    "List store: " + listSize + " and playlistLength: " + listCapacity +
+                            " size differs.");
+        }
 
-            mList.subList(listCapacity, listSize).clear();
-            mSongID.subList(listCapacity, songIDSize).clear();
+        for (int songPos = listCapacity; songPos < listSize; songPos++) {
+            unindex(songIdIndex, music[songPos], songPos);
+        }
 
-            if (songIDSize != listSize) {
-                throw new IllegalStateException("List store: " + listSize +
-                        " and SongID: " + songIDSize + " size differs.");
-            }
+        if (music.length != listCapacity) {
+            music = Arrays.copyOf(music, listCapacity);
         }
+
+        mSnapshot = new Snapshot(music, songIdIndex, version);
     }
 
     /**
      * Replace all elements in this object.
      *
      * @param collection The {@code Music} collection to replace the {@code MusicList} with.
+     * @param version    The playlist version of the {@code collection}.
      */
-    void replace(final Collection<Music> collection) {
+    synchronized void replace(final Collection<Music> collection, final int version) {
+        final Music[] music = collection.toArray(new Music[collection.size()]);
+        final IntIntHashMap songIdIndex = new IntIntHashMap(music.length);
 
-        synchronized (mList) {
-            mList.clear();
-            mList.addAll(collection);
-
-            mSongID.clear();
-            for (final Music track : collection) {
-                mSongID.add(track.getSongId());
-            }
+        for (int songPos = 0; songPos < music.length; songPos++) {
+            songIdIndex.put(music[songPos].getSongId(), songPos);
         }
+
+        mSnapshot = new Snapshot(music, songIdIndex, version);
     }
 
     /**
@@ -219,6 +226,51 @@ final class MusicList implements Iterable<Music> {
      * @return {@code MusicList} size.
      */
     int size() {
-        return mList.size();
+        return mSnapshot.mMusic.length;
+    }
+
+    /**
+     * Removes the songId of music from an index, unless it was indexed at another position since.
+     *
+     * @param songIdIndex The index to remove the songId from.
+     * @param music       The music to remove from the index, may be null.
+     * @param songPos     The position the music was at.
+     */
+    private static void unindex(final IntIntHashMap songIdIndex, final Music music,
+            final int songPos) {
+        if (music != null) {
+            songIdIndex.remove(music.getSongId(), songPos);
+        }
+    }
+
+    /** An immutable snapshot of the playlist, with the songId index of that snapshot. */
+    private static final class Snapshot extends AbstractList<Music> implements RandomAccess {
+
+        /** The playlist store in positional order. */
+        private final Music[] mMusic;
+
+        /** The songPos of each songID, never modified once published. */
+        private final IntIntHashMap mSongIdIndex;
+
+        /** The playlist version of this snapshot. */
+        private final int mVersion;
+
+        Snapshot(final Music[] music, final IntIntHashMap songIdIndex, final int version) {
+            super();
+
+            mMusic = music;
+            mSongIdIndex = songIdIndex;
+            mVersion = version;
+        }
+
+        @Override
+        public Music get(final int location) {
+            return mMusic[location];
+        }
+
+        @Override
+        public int size() {
+            return mMusic.length;
+        }
     }
 }
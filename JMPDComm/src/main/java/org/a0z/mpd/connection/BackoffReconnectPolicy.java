@@ -0,0 +1,323 @@
+/*
+ * Copyright (C) 2004 Felipe Gustavo de Almeida
+ * Copyright (C) 2010-2014 The MPDroid Project
+ *
+ * All Rights Reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice,this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE AUTHOR AND CONTRIBUTORS ``AS IS'' AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED.  IN NO EVENT SHALL THE AUTHOR OR CONTRIBUTORS BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ * THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+
+package org.a0z.mpd.connection;
+
+import java.util.Random;
+
+/**
+ * A {@link ReconnectPolicy} with exponential backoff and a circuit breaker.
+ *
+ * <p>The reconnection delay doubles after each consecutive failure, up to a maximum, and is
+ * jittered so clients which lost the same media server do not retry in lockstep. After a number
+ * of consecutive failures the circuit opens and connections fail immediately for a while, after
+ * which the circuit is half-open and lets a single attempt through; a success closes the circuit,
+ * a failure opens it again.</p>
+ *
+ * <p>This class also keeps metrics on the failures and recoveries it has seen.</p>
+ */
+public class BackoffReconnectPolicy implements ReconnectPolicy {
+
+    /** The default number of consecutive failures which opens the circuit. */
+    public static final int DEFAULT_FAILURE_THRESHOLD = 10;
+
+    /** The default delay before the first reconnection attempt, in milliseconds. */
+    public static final long DEFAULT_INITIAL_DELAY = 500L;
+
+    /** The default maximum delay between reconnection attempts, in milliseconds. */
+    public static final long DEFAULT_MAX_DELAY = 30000L;
+
+    /** The default time the circuit stays open, in milliseconds. */
+    public static final long DEFAULT_OPEN_DURATION = 60000L;
+
+    /** The number of consecutive failures which opens the circuit. */
+    private final int mFailureThreshold;
+
+    /** The delay before the first reconnection attempt, in milliseconds. */
+    private final long mInitialDelay;
+
+    /** The maximum delay between reconnection attempts, in milliseconds. */
+    private final long mMaxDelay;
+
+    /** The time the circuit stays open, in milliseconds. */
+    private final long mOpenDuration;
+
+    private final Random mRandom = new Random();
+
+    /** The number of times the circuit was opened. */
+    private int mCircuitOpenCount;
+
+    /** The number of failures since the last success. */
+    private int mConsecutiveFailures;
+
+    /** The total number of failed connection attempts. */
+    private int mFailureCount;
+
+    /** The longest time taken to recover from a failure, in milliseconds. */
+    private long mMaxRecoveryTime;
+
+    /** The time taken to recover from the last failure, in milliseconds. */
+    private long mLastRecoveryTime;
+
+    /** Whether an attempt was let through the half-open circuit and has not completed yet. */
+    private boolean mIsProbing;
+
+    /** The time the circuit closes again, in milliseconds since the epoch. */
+    private long mOpenUntil;
+
+    /** The time of the first failure since the last success, -1 if there was none. */
+    private long mOutageStart = -1L;
+
+    /** The number of times a connection was opened after failures. */
+    private int mRecoveryCount;
+
+    /** The sum of the time taken to recover from failures, in milliseconds. */
+    private long mTotalRecoveryTime;
+
+    /**
+     * Constructs a policy with the default parameters.
+     */
+    public BackoffReconnectPolicy() {
+        this(DEFAULT_INITIAL_DELAY, DEFAULT_MAX_DELAY, DEFAULT_FAILURE_THRESHOLD,
+                DEFAULT_OPEN_DURATION);
+    }
+
+    /**
+     * Constructs a policy.
+     *
+     * @param initialDelay     The delay before the first reconnection attempt, in milliseconds.
+     * @param maxDelay         The maximum delay between reconnection attempts, in milliseconds.
+     * @param failureThreshold The number of consecutive failures which opens the circuit, 0 to
+     *                         never open the circuit.
+     * @param openDuration     The time the circuit stays open, in milliseconds.
+     */
+    public BackoffReconnectPolicy(final long initialDelay, final long maxDelay,
+            final int failureThreshold, final long openDuration) {
+        super();
+
+        if (initialDelay <= 0L || maxDelay < initialDelay) {
+            throw new IllegalArgumentException("Invalid delays, initial: " + initialDelay +
+                    " maximum: " + maxDelay);
+        }
+
+        if (failureThreshold < 0 || openDuration < 0L) {
+            throw new IllegalArgumentException("Invalid circuit breaker, threshold: " +
+                    failureThreshold + " open duration: " + openDuration);
+        }
+
+        mInitialDelay = initialDelay;
+        mMaxDelay = maxDelay;
+        mFailureThreshold = failureThreshold;
+        mOpenDuration = openDuration;
+    }
+
+    /**
+     * The number of times the circuit was opened.
+     *
+     * @return The number of times the circuit was opened.
+     */
+    public synchronized int getCircuitOpenCount() {
+        return mCircuitOpenCount;
+    }
+
+    /**
+     * The number of failed connection attempts since the last success.
+     *
+     * @return The number of consecutive failures.
+     */
+    public synchronized int getConsecutiveFailures() {
+        return mConsecutiveFailures;
+    }
+
+    /**
+     * The total number of failed connection attempts.
+     *
+     * @return The number of failed connection attempts.
+     */
+    public synchronized int getFailureCount() {
+        return mFailureCount;
+    }
+
+    /**
+     * The time from the first failure to the following success, for the last recovery.
+     *
+     * @return The time taken by the last recovery, in milliseconds.
+     */
+    public synchronized long getLastRecoveryTime() {
+        return mLastRecoveryTime;
+    }
+
+    /**
+     * The longest time from a first failure to the following success.
+     *
+     * @return The time taken by the longest recovery, in milliseconds.
+     */
+    public synchronized long getMaxRecoveryTime() {
+        return mMaxRecoveryTime;
+    }
+
+    /**
+     * The mean time from a first failure to the following success.
+     *
+     * @return The mean time taken by recoveries, in milliseconds, 0 if there were none.
+     */
+    public synchronized long getMeanRecoveryTime() {
+        final long meanRecoveryTime;
+
+        if (mRecoveryCount == 0) {
+            meanRecoveryTime = 0L;
+        } else {
+            meanRecoveryTime = mTotalRecoveryTime / (long) mRecoveryCount;
+        }
+
+        return meanRecoveryTime;
+    }
+
+    /**
+     * Computes the delay from the number of consecutive failures, doubling it for each failure up
+     * to the maximum, then picks a random delay between half of it and all of it.
+     *
+     * @return The delay before the next attempt, in milliseconds.
+     */
+    @Override
+    public synchronized long getReconnectDelay() {
+        long delay = mInitialDelay;
+
+        for (int i = 0; i < mConsecutiveFailures && delay < mMaxDelay; i++) {
+            delay *= 2L;
+        }
+        delay = Math.min(delay, mMaxDelay);
+
+        final long half = delay / 2L;
+        return half + (long) (mRandom.nextDouble() * (double) (delay - half));
+    }
+
+    /**
+     * The number of times a connection was opened after failures.
+     *
+     * @return The number of recoveries.
+     */
+    public synchronized int getRecoveryCount() {
+        return mRecoveryCount;
+    }
+
+    /**
+     * Checks whether the circuit is open, failing connections without reaching the network.
+     *
+     * @return True if the circuit is open, false otherwise.
+     */
+    public synchronized boolean isCircuitOpen() {
+        return System.currentTimeMillis() < mOpenUntil;
+    }
+
+    /**
+     * Checks whether the circuit is half-open, the open time having elapsed without a successful
+     * attempt.
+     *
+     * @return True if the circuit is half-open, false otherwise.
+     */
+    private boolean isCircuitHalfOpen() {
+        return mFailureThreshold != 0 && mConsecutiveFailures >= mFailureThreshold;
+    }
+
+    @Override
+    public synchronized boolean isReconnectAllowed() {
+        final boolean isReconnectAllowed;
+
+        if (isCircuitOpen()) {
+            isReconnectAllowed = false;
+        } else if (isCircuitHalfOpen()) {
+            /** Only one attempt goes through a half-open circuit until its outcome is known. */
+            isReconnectAllowed = !mIsProbing;
+            mIsProbing = true;
+        } else {
+            isReconnectAllowed = true;
+        }
+
+        return isReconnectAllowed;
+    }
+
+    @Override
+    public synchronized void onConnectFailure() {
+        final long now = System.currentTimeMillis();
+
+        mConsecutiveFailures++;
+        mFailureCount++;
+        mIsProbing = false;
+        if (mOutageStart == -1L) {
+            mOutageStart = now;
+        }
+
+        /** Once past the threshold, a failed attempt through a half-open circuit reopens it. */
+        if (mFailureThreshold != 0 && mConsecutiveFailures >= mFailureThreshold) {
+            mOpenUntil = now + mOpenDuration;
+            mCircuitOpenCount++;
+        }
+    }
+
+    @Override
+    public synchronized void onConnectSuccess() {
+        if (mOutageStart != -1L) {
+            final long recoveryTime = System.currentTimeMillis() - mOutageStart;
+
+            mRecoveryCount++;
+            mLastRecoveryTime = recoveryTime;
+            mMaxRecoveryTime = Math.max(mMaxRecoveryTime, recoveryTime);
+            mTotalRecoveryTime += recoveryTime;
+            mOutageStart = -1L;
+        }
+
+        mConsecutiveFailures = 0;
+        mIsProbing = false;
+        mOpenUntil = 0L;
+    }
+
+    /**
+     * Closes the circuit and restarts the backoff from the initial delay. The metrics are kept,
+     * but an ongoing outage is not counted as a recovery.
+     */
+    @Override
+    public synchronized void reset() {
+        mConsecutiveFailures = 0;
+        mIsProbing = false;
+        mOpenUntil = 0L;
+        mOutageStart = -1L;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "BackoffReconnectPolicy{" +
+                "consecutiveFailures=" + mConsecutiveFailures +
+                ", failureCount=" + mFailureCount +
+                ", recoveryCount=" + mRecoveryCount +
+                ", lastRecoveryTime=" + mLastRecoveryTime +
+                ", maxRecoveryTime=" + mMaxRecoveryTime +
+                ", circuitOpenCount=" + mCircuitOpenCount +
+                '}';
+    }
+}
@@ -0,0 +1,243 @@
+/*
+ * Copyright (C) 2004 Felipe Gustavo de Almeida
+ * Copyright (C) 2010-2014 The MPDroid Project
+ *
+ * All Rights Reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice,this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE AUTHOR AND CONTRIBUTORS ``AS IS'' AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED.  IN NO EVENT SHALL THE AUTHOR OR CONTRIBUTORS BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ * THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+
+package org.a0z.mpd.connection;
+
+import org.a0z.mpd.MPDCommand;
+import org.a0z.mpd.exception.MPDException;
+
+import java.io.IOException;
+import java.net.SocketTimeoutException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * This class holds the pending result of a command submitted for pipelined processing.
+ *
+ * @see MPDConnection#submit(MPDCommand)
+ */
+public final class CommandFuture implements Future<List<String>> {
+
+    /** The command this future holds the result for. */
+    private final MPDCommand mCommand;
+
+    /** Released once this future has been completed. */
+    private final CountDownLatch mDone = new CountDownLatch(1);
+
+    /** The exception the command failed with, if any. */
+    private Exception mException;
+
+    /** Listeners to run upon completion, null once they have been run. */
+    private List<Runnable> mListeners = new ArrayList<>();
+
+    /** The response to the command, if it was successful. */
+    private List<String> mResult;
+
+    CommandFuture(final MPDCommand command) {
+        super();
+
+        mCommand = command;
+    }
+
+    /**
+     * Adds a listener to run once this future has been completed, so the response can be
+     * handled without blocking a thread. If this future has already been completed the listener
+     * is run immediately.
+     *
+     * @param listener The listener to run.
+     * @param executor The executor to run the listener on.
+     */
+    public void addListener(final Runnable listener, final Executor executor) {
+        final Runnable task = new Runnable() {
+            @Override
+            public void run() {
+                executor.execute(listener);
+            }
+        };
+        final boolean isDone;
+
+        synchronized (mDone) {
+            isDone = mListeners == null;
+            if (!isDone) {
+                mListeners.add(task);
+            }
+        }
+
+        if (isDone) {
+            task.run();
+        }
+    }
+
+    /** Releases any waiting threads and runs the listeners. */
+    private void complete() {
+        final List<Runnable> listeners;
+
+        synchronized (mDone) {
+            listeners = mListeners;
+            mListeners = null;
+        }
+
+        mDone.countDown();
+        if (listeners != null) {
+            for (final Runnable listener : listeners) {
+                listener.run();
+            }
+        }
+    }
+
+    /**
+     * Pipelined commands cannot be cancelled once they have been submitted.
+     *
+     * @param mayInterruptIfRunning Ignored.
+     * @return Always false.
+     */
+    @Override
+    public boolean cancel(final boolean mayInterruptIfRunning) {
+        return false;
+    }
+
+    @Override
+    public List<String> get() throws InterruptedException, ExecutionException {
+        mDone.await();
+
+        return getResult();
+    }
+
+    @Override
+    public List<String> get(final long timeout, final TimeUnit unit)
+            throws InterruptedException, ExecutionException, TimeoutException {
+        if (!mDone.await(timeout, unit)) {
+            throw new TimeoutException("Timed out waiting for " + mCommand.getCommand());
+        }
+
+        return getResult();
+    }
+
+    MPDCommand getCommand() {
+        return mCommand;
+    }
+
+    /**
+     * Waits for the response to the command, rethrowing any exception as it would have been
+     * thrown by {@link MPDConnection#sendCommand(MPDCommand)}.
+     *
+     * @return The response to the command.
+     * @throws IOException  Thrown upon a communication error with the server.
+     * @throws MPDException Thrown if an error occurs as a result of command execution.
+     */
+    public List<String> getResponse() throws IOException, MPDException {
+        try {
+            mDone.await();
+        } catch (final InterruptedException e) {
+            throw new IOException(e);
+        }
+
+        return getResponseNow();
+    }
+
+    /**
+     * Waits for the response to the command for a limited time, rethrowing any exception as it
+     * would have been thrown by {@link MPDConnection#sendCommand(MPDCommand)}.
+     *
+     * @param timeout The maximum time to wait, in milliseconds, zero to wait indefinitely.
+     * @return The response to the command.
+     * @throws IOException  Thrown upon a communication error with the server, or if the response
+     *                      was not received in time.
+     * @throws MPDException Thrown if an error occurs as a result of command execution.
+     */
+    public List<String> getResponse(final long timeout) throws IOException, MPDException {
+        try {
+            if (timeout == 0L) {
+                mDone.await();
+            } else if (!mDone.await(timeout, TimeUnit.MILLISECONDS)) {
+                throw new SocketTimeoutException("Timed out waiting for " + mCommand.getCommand());
+            }
+        } catch (final InterruptedException e) {
+            throw new IOException(e);
+        }
+
+        return getResponseNow();
+    }
+
+    /**
+     * Retrieves the response of a completed future.
+     *
+     * @return The response to the command.
+     * @throws IOException  Thrown upon a communication error with the server.
+     * @throws MPDException Thrown if an error occurs as a result of command execution.
+     */
+    private List<String> getResponseNow() throws IOException, MPDException {
+        if (mException instanceof MPDException) {
+            throw (MPDException) mException;
+        } else if (mException != null) {
+            throw (IOException) mException;
+        }
+
+        return mResult;
+    }
+
+    private List<String> getResult() throws ExecutionException {
+        if (mException != null) {
+            throw new ExecutionException(mException);
+        }
+
+        return mResult;
+    }
+
+    @Override
+    public boolean isCancelled() {
+        return false;
+    }
+
+    @Override
+    public boolean isDone() {
+        return mDone.getCount() == 0L;
+    }
+
+    final void setException(final IOException exception) {
+        mException = exception;
+        complete();
+    }
+
+    final void setException(final MPDException exception) {
+        mException = exception;
+        complete();
+    }
+
+    final void setResult(final List<String> result) {
+        mResult = Collections.unmodifiableList(result);
+        complete();
+    }
+}
@@ -0,0 +1,239 @@
+/*
+ * Copyright (C) 2004 Felipe Gustavo de Almeida
+ * Copyright (C) 2010-2014 The MPDroid Project
+ *
+ * All Rights Reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice,this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE AUTHOR AND CONTRIBUTORS ``AS IS'' AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED.  IN NO EVENT SHALL THE AUTHOR OR CONTRIBUTORS BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ * THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.a0z.mpd.connection;
+
+import org.a0z.mpd.Log;
+
+import java.io.IOException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.Iterator;
+import java.util.PriorityQueue;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * This class runs a single selector thread which multiplexes the non-blocking channels of all
+ * {@link MPDConnectionSelector}s, regardless of how many media servers are connected. All
+ * channel operations are run on this thread; other threads hand work to it through
+ * {@link #execute(Runnable)}.
+ */
+final class ConnectionSelector implements Runnable {
+
+    private static final String TAG = "ConnectionSelector";
+
+    /** The shared instance, created on first use. */
+    private static ConnectionSelector sInstance;
+
+    /** The selector for all registered channels. */
+    private final Selector mSelector;
+
+    /** Tasks waiting to be run on the selector thread. */
+    private final Queue<Runnable> mTasks = new ConcurrentLinkedQueue<>();
+
+    /** The selector thread. */
+    private final Thread mThread;
+
+    /** Tasks waiting for their time to be run, the next one first. Used on the selector thread. */
+    private final Queue<TimedTask> mTimedTasks = new PriorityQueue<>();
+
+    private ConnectionSelector() throws IOException {
+        super();
+
+        mSelector = Selector.open();
+        mThread = new Thread(this, TAG);
+        mThread.setDaemon(true);
+    }
+
+    /**
+     * Retrieves the shared selector, starting the selector thread on first use.
+     *
+     * @return The shared selector.
+     * @throws IOException Thrown if the selector could not be opened.
+     */
+    static synchronized ConnectionSelector getInstance() throws IOException {
+        if (sInstance == null) {
+            sInstance = new ConnectionSelector();
+            sInstance.mThread.start();
+        }
+
+        return sInstance;
+    }
+
+    /**
+     * Runs a task on the selector thread. Tasks are run in the order they were handed over.
+     *
+     * @param task The task to run.
+     */
+    void execute(final Runnable task) {
+        mTasks.add(task);
+        mSelector.wakeup();
+    }
+
+    /**
+     * The selector to register channels with. This must only be used on the selector thread.
+     *
+     * @return The selector.
+     */
+    Selector getSelector() {
+        return mSelector;
+    }
+
+    /**
+     * Checks whether the current thread is the selector thread.
+     *
+     * @return True if called from the selector thread, false otherwise.
+     */
+    boolean isSelectorThread() {
+        return Thread.currentThread() == mThread;
+    }
+
+    @Override
+    public void run() {
+        while (true) {
+            final TimedTask next = mTimedTasks.peek();
+
+            try {
+                if (next == null) {
+                    mSelector.select();
+                } else {
+                    final long delay =
+                            TimeUnit.NANOSECONDS.toMillis(next.mTime - System.nanoTime());
+
+                    /** Zero would select without a timeout. */
+                    mSelector.select(Math.max(1L, delay));
+                }
+            } catch (final IOException e) {
+                Log.error(TAG, "Failed to select channels.", e);
+            }
+
+            for (Runnable task = mTasks.poll(); task != null; task = mTasks.poll()) {
+                runTask(task);
+            }
+
+            final long now = System.nanoTime();
+            while (!mTimedTasks.isEmpty() && mTimedTasks.peek().mTime - now <= 0L) {
+                runTask(mTimedTasks.remove().mTask);
+            }
+
+            final Iterator<SelectionKey> iterator = mSelector.selectedKeys().iterator();
+            while (iterator.hasNext()) {
+                final SelectionKey key = iterator.next();
+
+                iterator.remove();
+                try {
+                    if (key.isValid()) {
+                        ((Listener) key.attachment()).onSelected(key);
+                    }
+                } catch (final RuntimeException e) {
+                    Log.error(TAG, "Channel processing failed.", e);
+                    key.cancel();
+                }
+            }
+        }
+    }
+
+    /**
+     * Runs a task on the selector thread after a delay. Tasks are run no sooner than their delay,
+     * but may run later if the selector thread is busy.
+     *
+     * @param task  The task to run.
+     * @param delay The delay before running the task, in milliseconds.
+     */
+    void schedule(final Runnable task, final long delay) {
+        final TimedTask timedTask =
+                new TimedTask(System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(delay), task);
+
+        execute(new Runnable() {
+            @Override
+            public void run() {
+                mTimedTasks.add(timedTask);
+            }
+        });
+    }
+
+    /**
+     * Runs a task, logging rather than propagating its failure, so it doesn't stop the selector
+     * thread.
+     *
+     * @param task The task to run.
+     */
+    private static void runTask(final Runnable task) {
+        try {
+            task.run();
+        } catch (final RuntimeException e) {
+            Log.error(TAG, "Selector task failed.", e);
+        }
+    }
+
+    /** The attachment of every key registered with the selector. */
+    interface Listener {
+
+        /**
+         * Called on the selector thread when the channel of the key is ready for one of its
+         * interest operations.
+         *
+         * @param key The selected key.
+         */
+        void onSelected(SelectionKey key);
+    }
+
+    /** A task to run at a given time. */
+    private static final class TimedTask implements Comparable<TimedTask> {
+
+        /** The task to run. */
+        private final Runnable mTask;
+
+        /** The time to run the task at, as given by {@link System#nanoTime()}. */
+        private final long mTime;
+
+        TimedTask(final long time, final Runnable task) {
+            super();
+
+            mTime = time;
+            mTask = task;
+        }
+
+        @Override
+        public int compareTo(final TimedTask another) {
+            final long difference = mTime - another.mTime;
+            final int result;
+
+            if (difference < 0L) {
+                result = -1;
+            } else if (difference > 0L) {
+                result = 1;
+            } else {
+                result = 0;
+            }
+
+            return result;
+        }
+    }
+}
@@ -34,11 +34,11 @@ import org.a0z.mpd.Tools;
 import org.a0z.mpd.exception.MPDException;
 import org.a0z.mpd.subsystem.Reflection;
 
-import java.io.BufferedReader;
+import java.io.BufferedWriter;
 import java.io.EOFException;
 import java.io.IOException;
-import java.io.InputStreamReader;
 import java.io.OutputStreamWriter;
+import java.io.Writer;
 import java.net.InetAddress;
 import java.net.InetSocketAddress;
 import java.net.Socket;
@@ -46,44 +46,67 @@ import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedList;
 import java.util.List;
+import java.util.Queue;
 import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * Class representing a connection to MPD Server.
  */
 public abstract class MPDConnection {
 
+    /** Default size, in characters, of the read and write buffers of each socket. */
+    public static final int DEFAULT_BUFFER_SIZE = 8192;
+
     static final String MPD_RESPONSE_OK = "OK";
 
-    private static final int CONNECTION_TIMEOUT = 10000;
+    /** The time allowed to connect to the media server, in milliseconds. */
+    static final int CONNECTION_TIMEOUT = 10000;
 
     /** The debug flag to enable or disable debug logging output. */
     private static final boolean DEBUG = false;
 
-    /** Default buffer size for the socket. */
-    private static final int DEFAULT_BUFFER_SIZE = 1024;
-
     /** Maximum number of times to attempt command processing. */
-    private static final int MAX_REQUEST_RETRY = 3;
+    static final int MAX_REQUEST_RETRY = 3;
 
-    private static final String MPD_RESPONSE_ERR = "ACK";
+    /**
+     * Maximum number of pipelined commands written before their responses are read. This keeps
+     * the server side output buffer well below the default {@code max_output_buffer_size}.
+     */
+    private static final int MAX_PIPELINE_DEPTH = 64;
 
-    private static final String POOL_THREAD_NAME_PREFIX = "pool";
+    static final String MPD_RESPONSE_ERR = "ACK";
+
+    /** The end of the response of each command of a {@code command_list_ok_begin} list. */
+    static final String MPD_RESPONSE_LIST_OK = "list_OK";
 
     /** A set containing all available commands, populated on connection. */
     private final Collection<String> mAvailableCommands = new HashSet<>();
 
+    /** The size, in characters, of the read and write buffers of each socket. */
+    private final int mBufferSize;
+
     /** The {@code ExecutorService} used to process commands. */
     private final ThreadPoolExecutor mExecutor;
 
+    /** Set on the threads of {@link #mExecutor}, which process commands in place. */
+    private final ThreadLocal<Boolean> mIsExecutorThread = new ThreadLocal<>();
+
     /** The lock for this connection. */
     private final Object mLock = new Object();
 
+    /** Commands submitted for pipelined processing which have not yet been written. */
+    private final Queue<CommandFuture> mPipelineQueue = new ConcurrentLinkedQueue<>();
+
     /** The command communication timeout. */
     private final int mReadWriteTimeout;
 
@@ -101,6 +124,9 @@ public abstract class MPDConnection {
     /** Current media server password. */
     private String mPassword = null;
 
+    /** The policy deciding when to reconnect after a failure. */
+    private volatile ReconnectPolicy mReconnectPolicy = new BackoffReconnectPolicy();
+
     /** The host/port pair used to connect to the media server. */
     private InetSocketAddress mSocketAddress;
 
@@ -109,21 +135,58 @@ public abstract class MPDConnection {
      *
      * @param readWriteTimeout The read write timeout for this connection.
      * @param maxConnections   Maximum number of sockets to allow running at one time.
+     * @param bufferSize       The size, in characters, of the read and write buffers kept for
+     *                         the lifetime of each socket.
      * @see #connect(java.net.InetAddress, int, String)
      */
-    MPDConnection(final int readWriteTimeout, final int maxConnections) {
+    MPDConnection(final int readWriteTimeout, final int maxConnections, final int bufferSize) {
         super();
 
+        if (bufferSize <= 0) {
+            throw new IllegalArgumentException("Buffer size must be positive: " + bufferSize);
+        }
+
+        mBufferSize = bufferSize;
         mReadWriteTimeout = readWriteTimeout;
-        mExecutor = new ThreadPoolExecutor(1, maxConnections, (long) mReadWriteTimeout,
-                TimeUnit.MILLISECONDS, new LinkedBlockingQueue<Runnable>());
-        mExecutor.prestartCoreThread();
         if (maxConnections > 1) {
             mTag = "MPDConnectionMultiSocket";
-            mExecutor.allowCoreThreadTimeOut(true);
         } else {
             mTag = "MPDConnectionMonoSocket";
         }
+
+        /**
+         * With an unbounded queue the executor never grows beyond its core size, so the core size
+         * is the maximum number of concurrent commands.
+         */
+        mExecutor = new ThreadPoolExecutor(maxConnections, maxConnections,
+                (long) mReadWriteTimeout, TimeUnit.MILLISECONDS,
+                new LinkedBlockingQueue<Runnable>(), new ExecutorThreadFactory());
+        mExecutor.prestartCoreThread();
+        if (maxConnections > 1) {
+            mExecutor.allowCoreThreadTimeOut(true);
+        }
+    }
+
+    /**
+     * The constructor method for a connection which does not process commands on its own
+     * executor, but overrides {@link #execute(MPDCommand, ResponseHandler)} and
+     * {@link #submit(Iterable)}. This method does not connect to the server.
+     *
+     * @param readWriteTimeout The read write timeout for this connection.
+     * @param bufferSize       The size, in bytes, of the read buffer of the connection.
+     * @param tag              The tag to log with.
+     */
+    MPDConnection(final int readWriteTimeout, final int bufferSize, final String tag) {
+        super();
+
+        if (bufferSize <= 0) {
+            throw new IllegalArgumentException("Buffer size must be positive: " + bufferSize);
+        }
+
+        mBufferSize = bufferSize;
+        mReadWriteTimeout = readWriteTimeout;
+        mExecutor = null;
+        mTag = tag;
     }
 
     /**
@@ -144,6 +207,9 @@ public abstract class MPDConnection {
         mPassword = password;
         mSocketAddress = new InetSocketAddress(host, port);
 
+        /** The circuit only applies to reconnections, never to a requested connection. */
+        mReconnectPolicy.reset();
+
         final MPDCommand mpdCommand = new MPDCommand(Reflection.CMD_ACTION_COMMANDS);
         final CommandResult commandResult = processCommand(mpdCommand);
 
@@ -160,6 +226,18 @@ public abstract class MPDConnection {
 
         mIsConnected = true;
         mMPDVersion = commandResult.getMPDVersion();
+        onConnected();
+    }
+
+    /**
+     * Called on the processing thread before a command uses the socket of the thread, to give
+     * the thread a socket to use.
+     *
+     * @return True if the caller must call {@link #releaseSocket()} when done, false if the
+     * thread already held a socket.
+     */
+    boolean acquireSocket() {
+        return false;
     }
 
     /**
@@ -172,6 +250,10 @@ public abstract class MPDConnection {
         innerDisconnect();
     }
 
+    final int getBufferSize() {
+        return mBufferSize;
+    }
+
     /**
      * The current connected media server host.
      *
@@ -196,8 +278,6 @@ public abstract class MPDConnection {
         return mSocketAddress.getPort();
     }
 
-    protected abstract InputStreamReader getInputStream();
-
     /**
      * The current MPD protocol version.
      */
@@ -205,25 +285,99 @@ public abstract class MPDConnection {
         return mMPDVersion.clone();
     }
 
-    protected abstract OutputStreamWriter getOutputStream();
+    /**
+     * The reader for the current socket, kept for the lifetime of the socket so data buffered
+     * beyond the end of one response is not lost before the next is read.
+     *
+     * @return The reader for the current socket.
+     */
+    abstract ResponseReader getReader();
+
+    final String getPassword() {
+        return mPassword;
+    }
+
+    /**
+     * The time to wait for a response from the media server.
+     *
+     * @return The read write timeout, in milliseconds, zero to wait for responses indefinitely.
+     */
+    public final int getReadWriteTimeout() {
+        return mReadWriteTimeout;
+    }
+
+    /**
+     * The policy deciding when this connection is reopened after a failure.
+     *
+     * @return The reconnect policy of this connection.
+     */
+    public ReconnectPolicy getReconnectPolicy() {
+        return mReconnectPolicy;
+    }
 
     protected abstract Socket getSocket();
 
+    final InetSocketAddress getSocketAddress() {
+        return mSocketAddress;
+    }
+
+    final String getTag() {
+        return mTag;
+    }
+
     /**
-     * A low level disconnect method for the socket(s).
+     * The buffered writer for the current socket, kept for the lifetime of the socket.
+     *
+     * @return The writer for the current socket.
+     */
+    abstract Writer getWriter();
+
+    /**
+     * Checks whether the reconnect policy allows connecting at this time.
+     *
+     * @throws IOException Thrown if connecting is not allowed.
+     */
+    final void checkReconnectAllowed() throws IOException {
+        if (!mReconnectPolicy.isReconnectAllowed()) {
+            throw new IOException("Not connecting after repeated connection failures.");
+        }
+    }
+
+    /**
+     * Closes the socket of the current thread, if any.
      *
      * @throws IOException Thrown if there is a problem closing the socket.
      */
-    private void innerDisconnect() throws IOException {
-        mIsConnected = false;
+    final void closeSocket() throws IOException {
         synchronized (mLock) {
             if (getSocket() != null) {
                 getSocket().close();
                 setSocket(null);
+                setReader(null);
+                setWriter(null);
             }
         }
     }
 
+    /**
+     * Hands a task to the command processor executor, where it may use sockets like a command.
+     *
+     * @param task The task to run.
+     */
+    final void executeTask(final Runnable task) {
+        mExecutor.execute(task);
+    }
+
+    /**
+     * A low level disconnect method for the socket(s).
+     *
+     * @throws IOException Thrown if there is a problem closing the socket.
+     */
+    void innerDisconnect() throws IOException {
+        mIsConnected = false;
+        closeSocket();
+    }
+
     /**
      * Checks a list of available commands generated on connection.
      *
@@ -234,6 +388,28 @@ public abstract class MPDConnection {
         return mAvailableCommands.contains(command);
     }
 
+    /**
+     * Checks whether the connection was cancelled by a {@link #disconnect()}.
+     *
+     * @return True if the connection was cancelled, false otherwise.
+     */
+    final boolean isCancelled() {
+        return mCancelled;
+    }
+
+    /**
+     * Checks whether the current thread belongs to the command processor executor of this
+     * connection. Commands sent from such a thread, like the {@code password} command sent while
+     * connecting, are processed in place with the socket the thread already holds, as queueing
+     * them would deadlock a busy executor.
+     *
+     * @return True if the current thread is a command processor thread of this connection, false
+     * otherwise.
+     */
+    private boolean isExecutorThread() {
+        return Boolean.TRUE.equals(mIsExecutorThread.get());
+    }
+
     /**
      * A user facing connection inquiry method.
      *
@@ -274,20 +450,22 @@ public abstract class MPDConnection {
      */
     private CommandResult processCommand(final MPDCommand command)
             throws IOException, MPDException {
-        final CommandResult result;
+        return processCommand(command, null);
+    }
 
-        // Bypass thread pool queue if the thread already comes from the pool to avoid deadlock.
-        if (Thread.currentThread().getName().startsWith(POOL_THREAD_NAME_PREFIX)) {
-            result = new CommandProcessor(command).call();
-        } else {
-            try {
-                result = mExecutor.submit(new CommandProcessor(command)).get();
-                // Spam the log with the largest pool size
-                //Log.debug(mTag, "Largest pool size: " + mExecutor.getLargestPoolSize());
-            } catch (final ExecutionException | InterruptedException e) {
-                throw new IOException(e);
-            }
-        }
+    /**
+     * Processes the command by setting up the command processor executor.
+     *
+     * @param command The command to be processed.
+     * @param handler The handler to stream the response to, null to collect the response in the
+     *                result.
+     * @return The response to the processed command.
+     * @throws IOException  Thrown upon a communication error with the server.
+     * @throws MPDException Thrown if an error occurs as a result of command execution.
+     */
+    private CommandResult processCommand(final MPDCommand command,
+            final ResponseHandler handler) throws IOException, MPDException {
+        final CommandResult result = execute(command, handler);
 
         if (result.getResult() == null) {
             if (result.isIOExceptionLast() == null) {
@@ -311,6 +489,66 @@ public abstract class MPDConnection {
         return result;
     }
 
+    /**
+     * Executes the command on the command processor executor, retrying and reconnecting as
+     * required.
+     *
+     * @param command The command to be processed.
+     * @param handler The handler to stream the response to, null to collect the response in the
+     *                result.
+     * @return The result of the processed command, holding either the response or the exception
+     * the command failed with.
+     * @throws IOException Thrown if the command could not be handed to the executor.
+     */
+    CommandResult execute(final MPDCommand command, final ResponseHandler handler)
+            throws IOException {
+        final CommandResult result;
+        final CommandProcessor processor = new CommandProcessor(command, handler);
+
+        // Bypass thread pool queue if the thread already comes from the pool to avoid deadlock.
+        if (isExecutorThread()) {
+            result = processor.call();
+        } else {
+            try {
+                result = mExecutor.submit(processor).get();
+                // Spam the log with the largest pool size
+                //Log.debug(mTag, "Largest pool size: " + mExecutor.getLargestPoolSize());
+            } catch (final ExecutionException | InterruptedException e) {
+                throw new IOException(e);
+            }
+        }
+
+        return result;
+    }
+
+    /**
+     * Called after a successful {@link #connect(InetAddress, int, String)}.
+     */
+    void onConnected() {
+    }
+
+    /**
+     * Checks the socket of the current thread by sending a {@code ping} on it, without retrying
+     * or reconnecting on failure.
+     *
+     * @throws IOException  Thrown upon a communication error with the server.
+     * @throws MPDException Thrown if an error occurs as a result of command execution.
+     */
+    final void ping() throws IOException, MPDException {
+        final MPDCommand command = new MPDCommand(MPDCommand.MPD_CMD_PING);
+
+        write(command);
+        getWriter().flush();
+        read(getReader(), command);
+    }
+
+    /**
+     * Called on the processing thread once a command acquired with {@link #acquireSocket()} is
+     * done with the socket of the thread.
+     */
+    void releaseSocket() {
+    }
+
     /**
      * Communicates with the server by sending a command and receiving the response.
      *
@@ -323,6 +561,22 @@ public abstract class MPDConnection {
         return processCommand(command).getResult();
     }
 
+    /**
+     * Communicates with the server by sending a command and streaming the response to a handler
+     * as it is read, rather than collecting it into a list first. The {@code handler} is called
+     * from the thread processing the command. If the connection fails after the first pair was
+     * handled, the command is not retried.
+     *
+     * @param command The command to be sent to the server.
+     * @param handler The handler to stream the response key/value pairs to.
+     * @throws IOException  Thrown upon a communication error with the server.
+     * @throws MPDException Thrown if an error occurs as a result of command execution.
+     */
+    public void sendCommand(final MPDCommand command, final ResponseHandler handler)
+            throws IOException, MPDException {
+        processCommand(command, handler);
+    }
+
     /**
      * Communicates with the server by sending a command and receiving the response.
      *
@@ -354,22 +608,361 @@ public abstract class MPDConnection {
         return sendCommand(new MPDCommand(command, nonfatalErrors, args));
     }
 
-    protected abstract void setInputStream(InputStreamReader inputStream);
+    /**
+     * Submits a command for pipelined processing. Pipelined commands are written to the server
+     * back-to-back, then the responses are matched to their commands in the order they were
+     * submitted, saving a round trip for all but the first command.
+     *
+     * @param command The command to be sent to the server.
+     * @return A future holding the result of the command.
+     * @see #submit(Iterable)
+     */
+    public CommandFuture submit(final MPDCommand command) {
+        return submit(Collections.singletonList(command)).get(0);
+    }
+
+    /**
+     * Submits commands for pipelined processing. Unlike a {@link org.a0z.mpd.CommandQueue} the
+     * commands are independent of each other; an error response to one of them only fails the
+     * future for that command.
+     *
+     * @param commands The commands to be sent to the server.
+     * @return A list of futures, in the same order as the {@code commands}.
+     */
+    public List<CommandFuture> submit(final Iterable<MPDCommand> commands) {
+        final List<CommandFuture> futures = new ArrayList<>();
+
+        for (final MPDCommand command : commands) {
+            final CommandFuture future = new CommandFuture(command);
+
+            futures.add(future);
+            mPipelineQueue.add(future);
+        }
+
+        if (!futures.isEmpty()) {
+            final PipelineProcessor processor = new PipelineProcessor();
+
+            // Process in place if the thread already comes from the pool to avoid deadlock.
+            if (isExecutorThread()) {
+                processor.run();
+            } else {
+                mExecutor.execute(processor);
+            }
+        }
+
+        return futures;
+    }
+
+    abstract void setReader(ResponseReader reader);
 
-    protected abstract void setOutputStream(OutputStreamWriter outputStream);
+    /**
+     * Sets the policy deciding when this connection is reopened after a failure. A policy may be
+     * shared with other connections to the same media server.
+     *
+     * @param reconnectPolicy The reconnect policy.
+     */
+    public void setReconnectPolicy(final ReconnectPolicy reconnectPolicy) {
+        if (reconnectPolicy == null) {
+            throw new IllegalArgumentException("The reconnect policy must not be null.");
+        }
+
+        mReconnectPolicy = reconnectPolicy;
+    }
+
+    /**
+     * Sets the user facing connection status.
+     *
+     * @param isConnected True if the connection is usable, false otherwise.
+     */
+    final void setConnected(final boolean isConnected) {
+        mIsConnected = isConnected;
+    }
 
     protected abstract void setSocket(Socket socket);
 
+    abstract void setWriter(Writer writer);
+
+    /**
+     * This is the low level media server connection method, which reports the outcome to the
+     * reconnect policy.
+     *
+     * @return The initial response from the connection.
+     * @throws IOException  Thrown upon a communication error with the server, or if the reconnect
+     *                      policy does not allow connecting.
+     * @throws MPDException Thrown if an error occurs as a result of command execution.
+     */
+    final String innerConnect() throws IOException, MPDException {
+        checkReconnectAllowed();
+
+        return reportConnect();
+    }
+
+    /**
+     * Opens the socket of the current thread.
+     *
+     * @return The initial response from the connection.
+     * @throws IOException  Thrown upon a communication error with the server.
+     * @throws MPDException Thrown if an error occurs as a result of command execution.
+     */
+    private String openSocket() throws IOException, MPDException {
+        final String line;
+
+        // Always release existing socket if any before creating a new one
+        if (getSocket() != null) {
+            try {
+                closeSocket();
+            } catch (final IOException ignored) {
+            }
+        }
+
+        setSocket(new Socket());
+        getSocket().setKeepAlive(true);
+        getSocket().setSoTimeout(mReadWriteTimeout);
+        getSocket().connect(mSocketAddress, CONNECTION_TIMEOUT);
+        setReader(new ResponseReader(getSocket().getInputStream(), mBufferSize));
+        setWriter(new BufferedWriter(
+                new OutputStreamWriter(getSocket().getOutputStream(), "UTF-8"), mBufferSize));
+        line = getReader().readLine();
+
+        if (line == null) {
+            throw new IOException("No response from server.");
+        }
+
+        /** Protocol says OK will begin the session, otherwise assume IO error. */
+        if (!line.startsWith(MPD_RESPONSE_OK)) {
+            throw new IOException("Bogus response from server.");
+        }
+
+        if (mPassword != null) {
+            sendCommand(MPDCommand.MPD_CMD_PASSWORD, mPassword);
+        }
+
+        return line;
+    }
+
+    /**
+     * Opens the socket of the current thread, reporting the outcome to the reconnect policy.
+     *
+     * @return The initial response from the connection.
+     * @throws IOException  Thrown upon a communication error with the server.
+     * @throws MPDException Thrown if an error occurs as a result of command execution.
+     */
+    private String reportConnect() throws IOException, MPDException {
+        final String line;
+
+        try {
+            line = openSocket();
+        } catch (final IOException | MPDException e) {
+            mReconnectPolicy.onConnectFailure();
+            throw e;
+        }
+        mReconnectPolicy.onConnectSuccess();
+
+        return line;
+    }
+
+    /**
+     * Checks whether the socket for the current thread is ready to be used.
+     *
+     * @return True if the socket is connected, false otherwise.
+     */
+    private boolean isSocketConnected() {
+        return getSocket() != null && getSocket().isConnected() && !getSocket().isClosed();
+    }
+
+    /**
+     * Used after a server error, waits for the delay given by the reconnect policy then tries to
+     * reconnect.
+     *
+     * @param result The {@code CommandResult} which stores the connection failure.
+     */
+    private boolean isFailureHandled(final CommandResult result) {
+        boolean failureHandled = false;
+        mIsConnected = false;
+
+        if (mReconnectPolicy.isReconnectAllowed()) {
+            try {
+                Thread.sleep(mReconnectPolicy.getReconnectDelay());
+            } catch (final InterruptedException ignored) {
+            }
+
+            try {
+                reportConnect();
+                failureHandled = true;
+            } catch (final MPDException me) {
+                result.setException(me);
+            } catch (final IOException ie) {
+                result.setException(ie);
+            }
+        } else {
+            result.setException(
+                    new IOException("Not connecting after repeated connection failures."));
+        }
+
+        return failureHandled;
+    }
+
+    /**
+     * This method is a place to specify if a ACK is not actually an error message we don't
+     * consider to be a fatal error.
+     *
+     * @param command The command which emitted the message.
+     * @param message The message to check.
+     * @return True if the message indicates a non-fatal error, false otherwise.
+     */
+    final boolean isNonfatalACK(final MPDCommand command, final String message) {
+        final boolean isNonfatalACK;
+        final int errorCode = MPDException.getAckErrorCode(message);
+
+        if (command.isErrorNonfatal(errorCode)) {
+            isNonfatalACK = true;
+            if (DEBUG) {
+                Log.debug(mTag, "Non-fatal ACK emitted, exception suppressed: " + message);
+            }
+        } else {
+            isNonfatalACK = false;
+        }
+
+        return isNonfatalACK;
+    }
+
+    private void logError(final CommandResult result, final String baseCommand,
+            final int retryCount) {
+        final StringBuilder stringBuilder = new StringBuilder(50);
+
+        stringBuilder.append("Command ");
+        stringBuilder.append(baseCommand);
+        stringBuilder.append(" failed after ");
+        stringBuilder.append(retryCount + 1);
+
+        if (retryCount == 0) {
+            stringBuilder.append(" attempt.");
+        } else {
+            stringBuilder.append(" attempts.");
+        }
+
+        if (result.isIOExceptionLast() == null) {
+            Log.error(mTag, stringBuilder.toString());
+        } else if (result.isIOExceptionLast().equals(Boolean.TRUE)) {
+            Log.error(mTag, stringBuilder.toString(), result.getIOException());
+        } else if (result.isIOExceptionLast().equals(Boolean.FALSE)) {
+            Log.error(mTag, stringBuilder.toString(), result.getMPDException());
+        }
+    }
+
+    /**
+     * Read the server response after a {@code write()} to the server.
+     *
+     * @param in      The reader to read the response from.
+     * @param command The command the response is read for.
+     * @return A String list of responses.
+     * @throws IOException  Thrown if there was a problem reading from from the media
+     *                      server.
+     * @throws MPDException Thrown if there was a server side error with the command that
+     *                      was sent.
+     */
+    private List<String> read(final ResponseReader in, final MPDCommand command)
+            throws MPDException, IOException {
+        final List<String> result = new ArrayList<>();
+
+        read(in, command, result, null);
+
+        return result;
+    }
+
+    /**
+     * Read the server response after a {@code write()} to the server, either into a list of
+     * lines, or by streaming key/value pairs to a handler.
+     *
+     * @param in      The reader to read the response from.
+     * @param command The command the response is read for.
+     * @param lines   The list to add the response lines to, if {@code handler} is null.
+     * @param handler The handler to stream the response to, may be null. Binary frames are only
+     *                passed on to a {@link BinaryResponseHandler} and {@code list_OK} lines to a
+     *                {@link CommandListResponseHandler}, otherwise they are skipped.
+     * @throws IOException  Thrown if there was a problem reading from from the media
+     *                      server.
+     * @throws MPDException Thrown if there was a server side error with the command that
+     *                      was sent.
+     */
+    private void read(final ResponseReader in, final MPDCommand command,
+            final Collection<String> lines, final ResponseHandler handler)
+            throws MPDException, IOException {
+        boolean serverDataRead = false;
+
+        while (in.nextLine()) {
+            serverDataRead = true;
+
+            if (in.lineStartsWith(MPD_RESPONSE_OK)) {
+                break;
+            }
+
+            if (in.lineStartsWith(MPD_RESPONSE_ERR)) {
+                final String line = in.getLine();
+
+                if (isNonfatalACK(command, line)) {
+                    break;
+                }
+
+                throw new MPDException(line);
+            }
+
+            if (handler == null) {
+                lines.add(in.getLine());
+            } else if (in.lineStartsWith(MPD_RESPONSE_LIST_OK)) {
+                if (handler instanceof CommandListResponseHandler) {
+                    ((CommandListResponseHandler) handler).handleListOK();
+                }
+                continue;
+            } else {
+                handler.handle(in.getKey(), in.getValue());
+            }
+
+            if (in.lineStartsWith(ResponseReader.BINARY_PREFIX)) {
+                final byte[] data = in.readBinary();
+
+                if (handler instanceof BinaryResponseHandler) {
+                    ((BinaryResponseHandler) handler).handleBinary(data);
+                }
+            }
+        }
+
+        if (!serverDataRead) {
+            // Close socket if there is no response...
+            // Something is wrong (e.g. MPD shutdown..)
+            throw new EOFException("Connection lost");
+        }
+    }
+
+    /**
+     * Sends the command to the server, without flushing the output stream.
+     *
+     * @param command The command to send.
+     * @throws IOException Thrown upon error transferring command to media server.
+     */
+    private void write(final MPDCommand command) throws IOException {
+        // Uncomment for extreme command debugging
+        //Log.debug(mTag, "Sending MPDCommand : " + command);
+        command.write(getWriter());
+    }
+
     /** This class communicates with the server by sending the command and processing the result. */
-    private class CommandProcessor implements Callable<CommandResult> {
+    private class CommandProcessor implements Callable<CommandResult>, BinaryResponseHandler {
 
         /** The command to be processed. */
         private final MPDCommand mCommand;
 
-        CommandProcessor(final MPDCommand mpdCommand) {
+        /** The handler to stream the response to, null if the response is to be collected. */
+        private final ResponseHandler mHandler;
+
+        /** Set once the first key/value pair has been streamed to the handler. */
+        private boolean mIsResponseStreamed = false;
+
+        CommandProcessor(final MPDCommand mpdCommand, final ResponseHandler handler) {
             super();
 
             mCommand = mpdCommand;
+            mHandler = handler;
         }
 
         /**
@@ -379,6 +972,36 @@ public abstract class MPDConnection {
          */
         @Override
         public final CommandResult call() {
+            final boolean isAcquired = acquireSocket();
+
+            try {
+                return process();
+            } finally {
+                if (isAcquired) {
+                    releaseSocket();
+                }
+            }
+        }
+
+        @Override
+        public void handle(final String key, final String value) {
+            mIsResponseStreamed = true;
+            mHandler.handle(key, value);
+        }
+
+        @Override
+        public void handleBinary(final byte[] data) {
+            if (mHandler instanceof BinaryResponseHandler) {
+                ((BinaryResponseHandler) mHandler).handleBinary(data);
+            }
+        }
+
+        /**
+         * Sends the command and reads the response with the socket of the current thread.
+         *
+         * @return A {@code CommandResult} from the processed command.
+         */
+        private CommandResult process() {
             int retryCount = 0;
             final CommandResult result = new CommandResult();
             boolean isCommandSent = false;
@@ -386,14 +1009,26 @@ public abstract class MPDConnection {
 
             while (result.getResult() == null && retryCount < MAX_REQUEST_RETRY && !mCancelled) {
                 try {
-                    if (getSocket() == null || !getSocket().isConnected() ||
-                            getSocket().isClosed()) {
-                        result.setConnectionResult(innerConnect());
+                    if (!isSocketConnected()) {
+                        if (retryCount == 0) {
+                            result.setConnectionResult(innerConnect());
+                        } else if (!isFailureHandled(result)) {
+                            /** Reconnecting after the last failure failed, back off again. */
+                            retryCount++;
+                            continue;
+                        }
                     }
 
-                    write();
+                    write(mCommand);
+                    getWriter().flush();
                     isCommandSent = true;
-                    result.setResult(read());
+
+                    if (mHandler == null) {
+                        result.setResult(read(getReader(), mCommand));
+                    } else {
+                        read(getReader(), mCommand, null, this);
+                        result.setResult(Collections.<String>emptyList());
+                    }
                 } catch (final EOFException ex0) {
                     handleFailure(result, ex0);
 
@@ -421,6 +1056,11 @@ public abstract class MPDConnection {
                     break;
                 }
 
+                /** A partially streamed response cannot be taken back from the handler. */
+                if (mIsResponseStreamed) {
+                    break;
+                }
+
                 retryCount++;
             }
 
@@ -457,173 +1097,155 @@ public abstract class MPDConnection {
                 result.setException(e);
             }
         }
+    }
 
-        /**
-         * This is the low level media server connection method.
-         *
-         * @return The initial response from the connection.
-         * @throws IOException  Thrown upon a communication error with the server.
-         * @throws MPDException Thrown if an error occurs as a result of command execution.
-         */
-        private String innerConnect() throws IOException, MPDException {
-            final String line;
+    /**
+     * This class creates the command processor threads, flagging each as belonging to this
+     * connection.
+     */
+    private final class ExecutorThreadFactory implements ThreadFactory {
 
-            // Always release existing socket if any before creating a new one
-            if (getSocket() != null) {
-                try {
-                    innerDisconnect();
-                } catch (final IOException ignored) {
-                }
-            }
+        /** The number of threads created, used to name them. */
+        private final AtomicInteger mThreadCount = new AtomicInteger();
 
-            setSocket(new Socket());
-            getSocket().setSoTimeout(mReadWriteTimeout);
-            getSocket().connect(mSocketAddress, CONNECTION_TIMEOUT);
-            setInputStream(new InputStreamReader(getSocket().getInputStream(), "UTF-8"));
-            final BufferedReader in = new BufferedReader(getInputStream(), DEFAULT_BUFFER_SIZE);
-            setOutputStream(new OutputStreamWriter(getSocket().getOutputStream(), "UTF-8"));
-            line = in.readLine();
+        @Override
+        public Thread newThread(final Runnable r) {
+            final Runnable flagged = new Runnable() {
+                @Override
+                public void run() {
+                    mIsExecutorThread.set(Boolean.TRUE);
+                    r.run();
+                }
+            };
 
-            if (line == null) {
-                throw new IOException("No response from server.");
-            }
+            return new Thread(flagged, mTag + '-' + mThreadCount.incrementAndGet());
+        }
+    }
 
-            /** Protocol says OK will begin the session, otherwise assume IO error. */
-            if (!line.startsWith(MPD_RESPONSE_OK)) {
-                throw new IOException("Bogus response from server.");
-            }
+    /**
+     * This class drains the pipeline queue, writing the queued commands to the server
+     * back-to-back, then reading the responses in first-in, first-out order.
+     */
+    private class PipelineProcessor implements Runnable {
 
-            if (mPassword != null) {
-                sendCommand(MPDCommand.MPD_CMD_PASSWORD, mPassword);
+        /**
+         * Completes all futures in the batch which have not yet been completed.
+         *
+         * @param batch The batch of commands to fail.
+         * @param e     The exception to fail the futures with.
+         */
+        private void fail(final Iterable<CommandFuture> batch, final IOException e) {
+            for (final CommandFuture future : batch) {
+                future.setException(e);
             }
-
-            return line;
         }
 
         /**
-         * Used after a server error, sleeps for a small time then tries to reconnect.
+         * Processes one batch of pipelined commands. Commands which are answered are removed
+         * from the {@code batch}; commands left in the {@code batch} were not answered.
          *
-         * @param result The {@code CommandResult} which stores the connection failure.
+         * @param batch The batch of commands to process.
+         * @throws IOException Thrown upon a communication error with the server.
          */
-        private boolean isFailureHandled(final CommandResult result) {
-            boolean failureHandled = false;
-            mIsConnected = false;
-
-            try {
-                Thread.sleep(500L);
-            } catch (final InterruptedException ignored) {
+        private void process(final Queue<CommandFuture> batch) throws IOException {
+            if (!isSocketConnected()) {
+                try {
+                    innerConnect();
+                } catch (final MPDException e) {
+                    throw new IOException(e);
+                }
             }
 
-            try {
-                innerConnect();
-                failureHandled = true;
-            } catch (final MPDException me) {
-                result.setException(me);
-            } catch (final IOException ie) {
-                result.setException(ie);
+            for (final CommandFuture future : batch) {
+                write(future.getCommand());
             }
+            getWriter().flush();
 
-            return failureHandled;
-        }
+            final ResponseReader in = getReader();
+            while (!batch.isEmpty()) {
+                final CommandFuture future = batch.peek();
 
-        /**
-         * This method is a place to specify if a ACK is not actually an error message we don't
-         * consider to be a fatal error.
-         *
-         * @param message The message to check.
-         * @return True if the message indicates a non-fatal error, false otherwise.
-         */
-        private boolean isNonfatalACK(final String message) {
-            final boolean isNonfatalACK;
-            final int errorCode = MPDException.getAckErrorCode(message);
-
-            if (mCommand.isErrorNonfatal(errorCode)) {
-                isNonfatalACK = true;
-                if (DEBUG) {
-                    Log.debug(mTag, "Non-fatal ACK emitted, exception suppressed: " + message);
+                try {
+                    future.setResult(read(in, future.getCommand()));
+                } catch (final MPDException e) {
+                    future.setException(e);
                 }
-            } else {
-                isNonfatalACK = false;
-            }
 
-            return isNonfatalACK;
+                batch.remove();
+            }
         }
 
-        private void logError(final CommandResult result, final String baseCommand,
-                final int retryCount) {
-            final StringBuilder stringBuilder = new StringBuilder(50);
-
-            stringBuilder.append("Command ");
-            stringBuilder.append(baseCommand);
-            stringBuilder.append(" failed after ");
-            stringBuilder.append(retryCount + 1);
+        @Override
+        public void run() {
+            final boolean isAcquired = acquireSocket();
 
-            if (retryCount == 0) {
-                stringBuilder.append(" attempt.");
-            } else {
-                stringBuilder.append(" attempts.");
+            try {
+                drain();
+            } finally {
+                if (isAcquired) {
+                    releaseSocket();
+                }
             }
+        }
 
-            if (result.isIOExceptionLast() == null) {
-                Log.error(mTag, stringBuilder.toString());
-            } else if (result.isIOExceptionLast().equals(Boolean.TRUE)) {
-                Log.error(mTag, stringBuilder.toString(), result.getIOException());
-            } else if (result.isIOExceptionLast().equals(Boolean.FALSE)) {
-                Log.error(mTag, stringBuilder.toString(), result.getMPDException());
+        /** Processes the pipeline queue in batches until it is empty. */
+        private void drain() {
+            final Queue<CommandFuture> batch = new LinkedList<>();
+
+            for (CommandFuture future = mPipelineQueue.poll(); future != null;
+                    future = mPipelineQueue.poll()) {
+                batch.add(future);
+
+                if (batch.size() == MAX_PIPELINE_DEPTH || mPipelineQueue.isEmpty()) {
+                    run(batch);
+                }
             }
         }
 
         /**
-         * Read the server response after a {@code write()} to the server.
+         * Processes a batch, retrying on connection failure.
          *
-         * @return A String list of responses.
-         * @throws IOException  Thrown if there was a problem reading from from the media
-         *                      server.
-         * @throws MPDException Thrown if there was a server side error with the command that
-         *                      was sent.
+         * @param batch The batch of commands to process.
          */
-        private List<String> read() throws MPDException, IOException {
-            final List<String> result = new ArrayList<>();
-            final BufferedReader in = new BufferedReader(getInputStream(), DEFAULT_BUFFER_SIZE);
-
-            boolean serverDataRead = false;
-            for (String line = in.readLine(); line != null; line = in.readLine()) {
-                serverDataRead = true;
+        private void run(final Queue<CommandFuture> batch) {
+            int retryCount = 0;
 
-                if (line.startsWith(MPD_RESPONSE_OK)) {
+            while (!batch.isEmpty()) {
+                if (mCancelled) {
+                    fail(batch, new IOException("Connection cancelled."));
+                    batch.clear();
                     break;
                 }
 
-                if (line.startsWith(MPD_RESPONSE_ERR)) {
-                    if (isNonfatalACK(line)) {
-                        break;
+                try {
+                    process(batch);
+                    mIsConnected = true;
+                } catch (final IOException e) {
+                    retryCount++;
+
+                    /** Commands which are not retryable may have already been processed. */
+                    final Iterator<CommandFuture> iterator = batch.iterator();
+                    while (iterator.hasNext()) {
+                        final CommandFuture future = iterator.next();
+
+                        if (!MPDCommand.isRetryable(future.getCommand().getCommand()) ||
+                                retryCount >= MAX_REQUEST_RETRY) {
+                            future.setException(e);
+                            iterator.remove();
+                        }
                     }
 
-                    throw new MPDException(line);
+                    final CommandResult result = new CommandResult();
+                    if (!batch.isEmpty() && !isFailureHandled(result)) {
+                        if (result.isIOExceptionLast() == Boolean.FALSE) {
+                            fail(batch, new IOException(result.getMPDException()));
+                        } else {
+                            fail(batch, result.getIOException());
+                        }
+                        batch.clear();
+                    }
                 }
-                result.add(line);
             }
-
-            if (!serverDataRead) {
-                // Close socket if there is no response...
-                // Something is wrong (e.g. MPD shutdown..)
-                throw new EOFException("Connection lost");
-            }
-            return result;
-        }
-
-        /**
-         * Sends the command to the server.
-         *
-         * @throws IOException Thrown upon error transferring command to media server.
-         */
-        private void write() throws IOException {
-            final String cmdString = mCommand.toString();
-
-            // Uncomment for extreme command debugging
-            //Log.debug(mTag, "Sending MPDCommand : " + cmdString);
-            getOutputStream().write(cmdString);
-            getOutputStream().flush();
         }
     }
 }
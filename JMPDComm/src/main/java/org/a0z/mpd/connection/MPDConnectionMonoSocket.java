@@ -27,8 +27,7 @@
 
 package org.a0z.mpd.connection;
 
-import java.io.InputStreamReader;
-import java.io.OutputStreamWriter;
+import java.io.Writer;
 import java.net.Socket;
 
 /**
@@ -36,24 +35,29 @@ import java.net.Socket;
  */
 public class MPDConnectionMonoSocket extends MPDConnection {
 
-    private InputStreamReader mInputStream;
-
-    private OutputStreamWriter mOutputStream;
+    private ResponseReader mReader;
 
     private Socket mSocket;
 
+    private Writer mWriter;
+
     public MPDConnectionMonoSocket(final int readWriteTimeout) {
-        super(readWriteTimeout, 1);
+        this(readWriteTimeout, DEFAULT_BUFFER_SIZE);
     }
 
-    @Override
-    public InputStreamReader getInputStream() {
-        return mInputStream;
+    /**
+     * The constructor method. This method does not connect to the server.
+     *
+     * @param readWriteTimeout The read write timeout for this connection.
+     * @param bufferSize       The size, in characters, of the socket read and write buffers.
+     */
+    public MPDConnectionMonoSocket(final int readWriteTimeout, final int bufferSize) {
+        super(readWriteTimeout, 1, bufferSize);
     }
 
     @Override
-    public OutputStreamWriter getOutputStream() {
-        return mOutputStream;
+    ResponseReader getReader() {
+        return mReader;
     }
 
     @Override
@@ -62,17 +66,22 @@ public class MPDConnectionMonoSocket extends MPDConnection {
     }
 
     @Override
-    public void setInputStream(final InputStreamReader inputStream) {
-        mInputStream = inputStream;
+    Writer getWriter() {
+        return mWriter;
     }
 
     @Override
-    public void setOutputStream(final OutputStreamWriter outputStream) {
-        mOutputStream = outputStream;
+    void setReader(final ResponseReader reader) {
+        mReader = reader;
     }
 
     @Override
     protected void setSocket(final Socket socket) {
         mSocket = socket;
     }
+
+    @Override
+    void setWriter(final Writer writer) {
+        mWriter = writer;
+    }
 }
@@ -25,54 +25,423 @@
  * THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
  */
 
+
 package org.a0z.mpd.connection;
 
-import java.io.InputStreamReader;
-import java.io.OutputStreamWriter;
+import org.a0z.mpd.Log;
+import org.a0z.mpd.exception.MPDException;
+
+import java.io.IOException;
+import java.io.Writer;
 import java.net.Socket;
+import java.util.concurrent.BlockingDeque;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
- * Class representing a connection to MPD Server.
+ * Class representing a connection to MPD Server which processes commands concurrently over a
+ * pool of sockets.
+ *
+ * <p>Sockets are not bound to the threads processing the commands; a thread takes an idle socket
+ * from the pool for the duration of a command and returns it afterwards. Once connected, the
+ * pool is kept at the minimum number of idle sockets, and idle sockets are kept alive with a
+ * {@code ping} before the media server closes them for inactivity. Sockets which sat idle too
+ * long are checked before being handed out, so a dead socket is discarded rather than
+ * discovered by a failing command.</p>
  */
 public class MPDConnectionMultiSocket extends MPDConnection {
 
-    private static final ThreadLocal<InputStreamReader> INPUT_STREAM = new ThreadLocal<>();
+    /**
+     * The default keepalive interval, in milliseconds. MPD closes clients idle for its
+     * {@code connection_timeout}, 60 seconds by default.
+     */
+    public static final long DEFAULT_KEEPALIVE_INTERVAL = 30000L;
+
+    /** The default minimum number of idle sockets kept open while connected. */
+    public static final int DEFAULT_MIN_CONNECTIONS = 1;
+
+    /** The timer shared by all pools to schedule their maintenance. */
+    private static final ScheduledExecutorService KEEPALIVE_TIMER =
+            Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+                @Override
+                public Thread newThread(final Runnable r) {
+                    final Thread thread = new Thread(r, "MPDConnectionKeepalive");
+
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+
+    private static final String TAG = "MPDConnectionMultiSocket";
+
+    /** Incremented upon disconnection, to retire sockets opened before. */
+    private final AtomicInteger mGeneration = new AtomicInteger();
+
+    /** The idle sockets, most recently used first. */
+    private final BlockingDeque<PooledSocket> mIdleSockets = new LinkedBlockingDeque<>();
+
+    /** Set while a maintenance task is queued or running. */
+    private final AtomicBoolean mIsMaintaining = new AtomicBoolean();
+
+    /** The socket held by each thread for the duration of a command. */
+    private final ThreadLocal<PooledSocket> mLease = new ThreadLocal<>();
 
-    private static final ThreadLocal<OutputStreamWriter> OUTPUT_STREAM = new ThreadLocal<>();
+    /** The minimum number of idle sockets kept open while connected. */
+    private final int mMinConnections;
 
-    private static final ThreadLocal<Socket> SOCKET = new ThreadLocal<>();
+    /** The scheduled pool maintenance, null if not connected. */
+    private ScheduledFuture<?> mKeepalive;
+
+    /** Idle sockets are checked with a {@code ping} after this many milliseconds. */
+    private volatile long mKeepaliveInterval = DEFAULT_KEEPALIVE_INTERVAL;
 
     public MPDConnectionMultiSocket(final int readWriteTimeout, final int maxConnection) {
-        super(readWriteTimeout, maxConnection);
+        this(readWriteTimeout, maxConnection, DEFAULT_BUFFER_SIZE);
+    }
+
+    /**
+     * The constructor method. This method does not connect to the server.
+     *
+     * @param readWriteTimeout The read write timeout for this connection.
+     * @param maxConnection    Maximum number of sockets to allow running at one time.
+     * @param bufferSize       The size, in characters, of the read and write buffers of each
+     *                         socket.
+     */
+    public MPDConnectionMultiSocket(final int readWriteTimeout, final int maxConnection,
+            final int bufferSize) {
+        this(readWriteTimeout, Math.min(DEFAULT_MIN_CONNECTIONS, maxConnection), maxConnection,
+                bufferSize);
+    }
+
+    /**
+     * The constructor method. This method does not connect to the server.
+     *
+     * @param readWriteTimeout The read write timeout for this connection.
+     * @param minConnection    Minimum number of idle sockets to keep open while connected.
+     * @param maxConnection    Maximum number of sockets to allow running at one time.
+     * @param bufferSize       The size, in characters, of the read and write buffers of each
+     *                         socket.
+     */
+    public MPDConnectionMultiSocket(final int readWriteTimeout, final int minConnection,
+            final int maxConnection, final int bufferSize) {
+        super(readWriteTimeout, maxConnection, bufferSize);
+
+        if (minConnection < 0 || minConnection > maxConnection) {
+            throw new IllegalArgumentException("Minimum connections must be between 0 and " +
+                    maxConnection + ": " + minConnection);
+        }
+
+        mMinConnections = minConnection;
+    }
+
+    /**
+     * Closes a pooled socket, ignoring errors.
+     *
+     * @param pooled The pooled socket to close.
+     */
+    private static void close(final PooledSocket pooled) {
+        if (pooled.mSocket != null) {
+            try {
+                pooled.mSocket.close();
+            } catch (final IOException ignored) {
+            }
+        }
     }
 
     @Override
-    public InputStreamReader getInputStream() {
-        return INPUT_STREAM.get();
+    boolean acquireSocket() {
+        if (mLease.get() != null) {
+            return false;
+        }
+
+        PooledSocket pooled = mIdleSockets.pollFirst();
+        while (pooled != null && !isUsable(pooled)) {
+            close(pooled);
+            pooled = mIdleSockets.pollFirst();
+        }
+
+        if (pooled == null) {
+            pooled = new PooledSocket();
+        }
+
+        mLease.set(pooled);
+        return true;
+    }
+
+    /**
+     * The interval after which idle sockets are checked with a {@code ping}.
+     *
+     * @return The keepalive interval, in milliseconds.
+     */
+    public long getKeepaliveInterval() {
+        return mKeepaliveInterval;
+    }
+
+    /**
+     * Retrieves the socket held by the current thread, creating an empty one if none is held.
+     *
+     * @return The socket held by the current thread.
+     */
+    private PooledSocket getLease() {
+        PooledSocket lease = mLease.get();
+
+        if (lease == null) {
+            lease = new PooledSocket();
+            mLease.set(lease);
+        }
+
+        return lease;
     }
 
     @Override
-    public OutputStreamWriter getOutputStream() {
-        return OUTPUT_STREAM.get();
+    ResponseReader getReader() {
+        final PooledSocket lease = mLease.get();
+
+        return lease == null ? null : lease.mReader;
     }
 
     @Override
     protected Socket getSocket() {
-        return SOCKET.get();
+        final PooledSocket lease = mLease.get();
+
+        return lease == null ? null : lease.mSocket;
     }
 
     @Override
-    public void setInputStream(final InputStreamReader inputStream) {
-        INPUT_STREAM.set(inputStream);
+    Writer getWriter() {
+        final PooledSocket lease = mLease.get();
+
+        return lease == null ? null : lease.mWriter;
     }
 
     @Override
-    public void setOutputStream(final OutputStreamWriter outputStream) {
-        OUTPUT_STREAM.set(outputStream);
+    void innerDisconnect() throws IOException {
+        mGeneration.incrementAndGet();
+
+        synchronized (mIdleSockets) {
+            if (mKeepalive != null) {
+                mKeepalive.cancel(false);
+                mKeepalive = null;
+            }
+        }
+
+        super.innerDisconnect();
+
+        for (PooledSocket pooled = mIdleSockets.poll(); pooled != null;
+                pooled = mIdleSockets.poll()) {
+            close(pooled);
+        }
+    }
+
+    /**
+     * Checks whether a pooled socket can be handed out. The media server never talks unprompted,
+     * so any pending input means the session is over; a socket idle longer than the keepalive
+     * interval is checked with a {@code ping}.
+     *
+     * @param pooled The pooled socket to check.
+     * @return True if the socket can be used, false if it must be discarded.
+     */
+    private boolean isUsable(final PooledSocket pooled) {
+        final Socket socket = pooled.mSocket;
+        boolean isUsable = pooled.mGeneration == mGeneration.get() && socket != null &&
+                socket.isConnected() && !socket.isClosed() && !socket.isInputShutdown();
+
+        if (isUsable) {
+            try {
+                isUsable = pooled.mReader.available() == 0 &&
+                        socket.getInputStream().available() == 0;
+            } catch (final IOException ignored) {
+                isUsable = false;
+            }
+        }
+
+        if (isUsable && System.currentTimeMillis() - pooled.mLastUsed >= mKeepaliveInterval) {
+            mLease.set(pooled);
+            try {
+                ping();
+                pooled.mLastUsed = System.currentTimeMillis();
+            } catch (final IOException | MPDException ignored) {
+                isUsable = false;
+            } finally {
+                mLease.remove();
+            }
+        }
+
+        return isUsable;
+    }
+
+    /**
+     * Keeps the idle sockets alive, closes idle sockets above the minimum which were unused for
+     * a whole keepalive interval, then opens sockets up to the minimum. This runs on the command
+     * processor executor.
+     */
+    private void maintain() {
+        final long staleTime = System.currentTimeMillis() - mKeepaliveInterval;
+        final int count = mIdleSockets.size();
+
+        /** The oldest sockets are at the end of the queue. */
+        for (int i = 0; i < count; i++) {
+            final PooledSocket pooled = mIdleSockets.pollLast();
+
+            if (pooled == null) {
+                break;
+            }
+
+            if (pooled.mLastUsed > staleTime) {
+                mIdleSockets.offerLast(pooled);
+                break;
+            }
+
+            if (mIdleSockets.size() >= mMinConnections || !isUsable(pooled)) {
+                close(pooled);
+            } else {
+                mIdleSockets.offerFirst(pooled);
+            }
+        }
+
+        while (mIdleSockets.size() < mMinConnections && !isCancelled()) {
+            if (!addSocket()) {
+                break;
+            }
+        }
+    }
+
+    @Override
+    void onConnected() {
+        final long period = Math.max(1L, mKeepaliveInterval / 2L);
+
+        synchronized (mIdleSockets) {
+            if (mKeepalive != null) {
+                mKeepalive.cancel(false);
+            }
+
+            mKeepalive = KEEPALIVE_TIMER.scheduleWithFixedDelay(new Runnable() {
+                @Override
+                public void run() {
+                    if (mIsMaintaining.compareAndSet(false, true)) {
+                        executeTask(new Maintenance());
+                    }
+                }
+            }, 0L, period, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Opens a new socket and adds it to the idle sockets. If the socket can not be opened the
+     * connection is flagged as disconnected, rather than waiting for a command to fail.
+     *
+     * @return True if the socket was opened, false otherwise.
+     */
+    private boolean addSocket() {
+        boolean isOpened = false;
+
+        mLease.set(new PooledSocket());
+        try {
+            innerConnect();
+            isOpened = true;
+            if (!isConnected() && !isCancelled()) {
+                Log.debug(TAG, "Connection restored.");
+                setConnected(true);
+            }
+        } catch (final IOException | MPDException e) {
+            if (isConnected() && !isCancelled()) {
+                Log.warning(TAG, "Connection lost.", e);
+                setConnected(false);
+            }
+
+            try {
+                closeSocket();
+            } catch (final IOException ignored) {
+            }
+        } finally {
+            releaseSocket();
+        }
+
+        return isOpened;
+    }
+
+    @Override
+    void releaseSocket() {
+        final PooledSocket lease = mLease.get();
+
+        mLease.remove();
+        if (lease != null && lease.mSocket != null) {
+            if (lease.mGeneration == mGeneration.get() && !isCancelled() &&
+                    !lease.mSocket.isClosed()) {
+                lease.mLastUsed = System.currentTimeMillis();
+                mIdleSockets.offerFirst(lease);
+            } else {
+                close(lease);
+            }
+        }
+    }
+
+    /**
+     * Sets the interval after which idle sockets are checked with a {@code ping}. This should be
+     * well below the {@code connection_timeout} of the media server. Takes effect upon the next
+     * connection.
+     *
+     * @param keepaliveInterval The keepalive interval, in milliseconds.
+     */
+    public void setKeepaliveInterval(final long keepaliveInterval) {
+        if (keepaliveInterval <= 0L) {
+            throw new IllegalArgumentException("Keepalive interval must be positive: " +
+                    keepaliveInterval);
+        }
+
+        mKeepaliveInterval = keepaliveInterval;
+    }
+
+    @Override
+    void setReader(final ResponseReader reader) {
+        getLease().mReader = reader;
     }
 
     @Override
     protected void setSocket(final Socket socket) {
-        SOCKET.set(socket);
+        final PooledSocket lease = getLease();
+
+        lease.mSocket = socket;
+        lease.mGeneration = mGeneration.get();
+    }
+
+    @Override
+    void setWriter(final Writer writer) {
+        getLease().mWriter = writer;
+    }
+
+    /** Runs the pool maintenance on the command processor executor. */
+    private final class Maintenance implements Runnable {
+
+        @Override
+        public void run() {
+            try {
+                maintain();
+            } finally {
+                mIsMaintaining.set(false);
+            }
+        }
+    }
+
+    /** A socket of the pool, with the reader and writer kept for its lifetime. */
+    private static final class PooledSocket {
+
+        /** The value of the pool generation when the socket was opened. */
+        private int mGeneration;
+
+        /** The time the socket was last used, in milliseconds since the epoch. */
+        private long mLastUsed;
+
+        private ResponseReader mReader;
+
+        private Socket mSocket;
+
+        private Writer mWriter;
     }
 }
@@ -0,0 +1,708 @@
+/*
+ * Copyright (C) 2004 Felipe Gustavo de Almeida
+ * Copyright (C) 2010-2014 The MPDroid Project
+ *
+ * All Rights Reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice,this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE AUTHOR AND CONTRIBUTORS ``AS IS'' AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED.  IN NO EVENT SHALL THE AUTHOR OR CONTRIBUTORS BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ * THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.a0z.mpd.connection;
+
+import org.a0z.mpd.Log;
+import org.a0z.mpd.MPDCommand;
+import org.a0z.mpd.MPDStatusMonitor;
+import org.a0z.mpd.exception.MPDException;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.Writer;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Queue;
+
+/**
+ * Class representing a connection to MPD Server over a non-blocking channel. Rather than a
+ * thread per socket, the channels of all connections of this type are multiplexed by a single
+ * shared selector thread, which also parses the responses. Commands from any number of threads
+ * are written back-to-back to the one channel of the connection and their responses are matched
+ * in order.
+ * <BR><BR>
+ * Response handlers passed to {@link #sendCommand(MPDCommand, ResponseHandler)} are called on
+ * the selector thread, and must not send commands themselves.
+ */
+public class MPDConnectionSelector extends MPDConnection {
+
+    private static final Charset CHARSET = Charset.forName("UTF-8");
+
+    /** The label of the pseudo-command used to wait for the connection greeting. */
+    private static final MPDCommand GREETING = new MPDCommand("greeting");
+
+    private static final String TAG = "MPDConnectionSelector";
+
+    /** The session of the current channel, replaced upon reconnection. */
+    private Session mSession;
+
+    public MPDConnectionSelector(final int readWriteTimeout) {
+        this(readWriteTimeout, DEFAULT_BUFFER_SIZE);
+    }
+
+    /**
+     * The constructor method. This method does not connect to the server.
+     *
+     * @param readWriteTimeout The read write timeout for this connection, zero to wait for
+     *                         responses indefinitely.
+     * @param bufferSize       The initial size, in bytes, of the read buffer.
+     */
+    public MPDConnectionSelector(final int readWriteTimeout, final int bufferSize) {
+        super(readWriteTimeout, bufferSize, TAG);
+    }
+
+    /**
+     * Throws if called from the selector thread, as waiting there for a response would never
+     * end.
+     *
+     * @throws IOException Thrown if the selector could not be opened.
+     */
+    private static void checkThread() throws IOException {
+        if (ConnectionSelector.getInstance().isSelectorThread()) {
+            throw new IllegalStateException("Commands cannot be sent from a response handler.");
+        }
+    }
+
+    /**
+     * Closes the current session, if any.
+     *
+     * @param e The exception to fail any pending commands with.
+     */
+    private synchronized void closeSession(final IOException e) {
+        if (mSession != null) {
+            mSession.close(e);
+            mSession = null;
+        }
+    }
+
+    @Override
+    CommandResult execute(final MPDCommand command, final ResponseHandler handler)
+            throws IOException {
+        final CommandResult result = new CommandResult();
+        final String baseCommand = command.getCommand();
+        int retryCount = 0;
+
+        checkThread();
+        while (result.getResult() == null && retryCount < MAX_REQUEST_RETRY && !isCancelled()) {
+            final Request request = new Request(command, handler);
+            boolean isCommandSent = false;
+
+            if (retryCount != 0) {
+                try {
+                    Thread.sleep(getReconnectPolicy().getReconnectDelay());
+                } catch (final InterruptedException ignored) {
+                }
+            }
+
+            try {
+                final Session session = getSession(result);
+
+                session.submit(request);
+                isCommandSent = true;
+                result.setResult(request.mFuture.getResponse((long) getReadWriteTimeout()));
+            } catch (final IOException e) {
+                result.setException(e);
+                closeSession(e);
+                setConnected(false);
+
+                // Do not fail when the IDLE response has not been read, just send the
+                // "changed playlist" result to force the MPD status to be refreshed.
+                if (e instanceof EOFException && MPDCommand.MPD_CMD_IDLE.equals(baseCommand)) {
+                    result.setResult(Collections.singletonList(
+                            "changed: " + MPDStatusMonitor.IDLE_PLAYLIST));
+                }
+            } catch (final MPDException e) {
+                /** An error response leaves the channel usable, retrying would fail the same. */
+                result.setException(e);
+                break;
+            }
+
+            /** On send of non-retryable command, or a partially streamed response, break out. */
+            if (isCommandSent && !MPDCommand.isRetryable(baseCommand) || request.mIsStreamed) {
+                break;
+            }
+
+            retryCount++;
+        }
+
+        if (result.getResult() != null) {
+            setConnected(true);
+        } else if (!isCancelled()) {
+            Log.error(TAG, "Command " + baseCommand + " failed after " + retryCount +
+                    " attempts.");
+        }
+
+        return result;
+    }
+
+    @Override
+    ResponseReader getReader() {
+        return null;
+    }
+
+    /**
+     * Retrieves the session of the current channel, opening a new channel if required. A new
+     * session is only used once the greeting was read and the password accepted.
+     *
+     * @param result The result to store the connection greeting in, if a new channel is opened.
+     * @return The session of the current channel.
+     * @throws IOException  Thrown upon a communication error with the server.
+     * @throws MPDException Thrown if the password was not accepted by the server.
+     */
+    private synchronized Session getSession(final CommandResult result)
+            throws IOException, MPDException {
+        if (mSession == null || mSession.isClosed()) {
+            final Session session = openSession();
+            final long timeout = (long) CONNECTION_TIMEOUT;
+
+            try {
+                final String line = session.mGreeting.mFuture.getResponse(timeout).get(0);
+
+                if (session.mPassword != null) {
+                    session.mPassword.mFuture.getResponse(timeout);
+                }
+                result.setConnectionResult(line);
+            } catch (final IOException e) {
+                session.close(e);
+                throw e;
+            } catch (final MPDException e) {
+                session.close(new IOException(e));
+                throw e;
+            }
+            mSession = session;
+        }
+
+        return mSession;
+    }
+
+    /**
+     * Retrieves the session of the current channel, opening a new channel if required, without
+     * waiting for the new channel to be connected. The commands submitted to a new session are
+     * only written after its password, and fail if the handshake fails.
+     *
+     * @return The session of the current channel.
+     * @throws IOException Thrown if the reconnect policy does not allow connecting, or if the
+     *                     selector could not be opened.
+     */
+    private synchronized Session getSessionNow() throws IOException {
+        if (mSession == null || mSession.isClosed()) {
+            mSession = openSession();
+        }
+
+        return mSession;
+    }
+
+    /**
+     * Opens a new channel, if the reconnect policy allows it. The greeting is read and the
+     * password sent on the selector thread; as a channel has no connect timeout of its own, the
+     * session fails if this handshake doesn't complete within the connection timeout.
+     *
+     * @return The new session.
+     * @throws IOException Thrown if the reconnect policy does not allow connecting, or if the
+     *                     selector could not be opened.
+     */
+    private Session openSession() throws IOException {
+        final Session session;
+
+        checkReconnectAllowed();
+        try {
+            session = new Session(getPassword());
+        } catch (final IOException e) {
+            getReconnectPolicy().onConnectFailure();
+            throw e;
+        }
+        session.open(getSocketAddress());
+
+        return session;
+    }
+
+    /**
+     * This connection does not use a blocking socket.
+     *
+     * @return Always null.
+     */
+    @Override
+    protected Socket getSocket() {
+        return null;
+    }
+
+    @Override
+    Writer getWriter() {
+        return null;
+    }
+
+    @Override
+    void innerDisconnect() throws IOException {
+        super.innerDisconnect();
+        closeSession(new IOException("Connection closed."));
+    }
+
+    @Override
+    void setReader(final ResponseReader reader) {
+    }
+
+    @Override
+    protected void setSocket(final Socket socket) {
+    }
+
+    @Override
+    void setWriter(final Writer writer) {
+    }
+
+    /**
+     * Submits commands to be written back-to-back to the channel of this connection. Unlike
+     * {@link #sendCommand(MPDCommand)} a command which fails due to a connection failure is not
+     * retried. This doesn't block, even if a new channel has to be opened, so it can be called
+     * from any thread.
+     *
+     * @param commands The commands to be sent to the server.
+     * @return A list of futures, in the same order as the {@code commands}.
+     */
+    @Override
+    public List<CommandFuture> submit(final Iterable<MPDCommand> commands) {
+        final List<CommandFuture> futures = new ArrayList<>();
+        Session session = null;
+        IOException failure = null;
+
+        try {
+            session = getSessionNow();
+        } catch (final IOException e) {
+            failure = e;
+        }
+
+        for (final MPDCommand command : commands) {
+            final Request request = new Request(command, null);
+
+            futures.add(request.mFuture);
+            if (session == null) {
+                request.mFuture.setException(failure);
+            } else {
+                session.submit(request);
+            }
+        }
+
+        return futures;
+    }
+
+    /** This class holds a command waiting for its response. */
+    private static final class Request {
+
+        /** The future to complete with the response. */
+        private final CommandFuture mFuture;
+
+        /** The handler to stream the response to, null if the response is to be collected. */
+        private final ResponseHandler mHandler;
+
+        /** The collected response lines, null if the response is streamed. */
+        private final List<String> mLines;
+
+        /** Set once the first key/value pair has been streamed to the handler. */
+        private volatile boolean mIsStreamed;
+
+        Request(final MPDCommand command, final ResponseHandler handler) {
+            super();
+
+            mFuture = new CommandFuture(command);
+            mHandler = handler;
+
+            if (handler == null) {
+                mLines = new ArrayList<>();
+            } else {
+                mLines = null;
+            }
+        }
+
+        /** Completes the future with the response read. */
+        void complete() {
+            if (mLines == null) {
+                mFuture.setResult(Collections.<String>emptyList());
+            } else {
+                mFuture.setResult(mLines);
+            }
+        }
+
+        /**
+         * Passes on a binary frame of the response.
+         *
+         * @param data The frame data.
+         */
+        void handleBinary(final byte[] data) {
+            if (mHandler instanceof BinaryResponseHandler) {
+                ((BinaryResponseHandler) mHandler).handleBinary(data);
+            }
+        }
+
+        /**
+         * Passes on the current line of the response.
+         *
+         * @param reader The reader positioned on the line.
+         */
+        void handleLine(final ResponseReader reader) {
+            if (mHandler == null) {
+                mLines.add(reader.getLine());
+            } else {
+                mIsStreamed = true;
+
+                if (!reader.lineStartsWith(MPD_RESPONSE_LIST_OK)) {
+                    mHandler.handle(reader.getKey(), reader.getValue());
+                } else if (mHandler instanceof CommandListResponseHandler) {
+                    ((CommandListResponseHandler) mHandler).handleListOK();
+                }
+            }
+        }
+    }
+
+    /**
+     * This class holds the state of one channel. Apart from the methods handing work to the
+     * selector thread, all methods are called on the selector thread.
+     */
+    private final class Session implements ConnectionSelector.Listener {
+
+        /** Requests which have been queued for writing, in order. */
+        private final Queue<Request> mAwaiting = new LinkedList<>();
+
+        /** Requests submitted before the handshake completed, written once it has. */
+        private final Queue<Request> mHeld = new LinkedList<>();
+
+        /** Encoded commands not yet fully written. */
+        private final Queue<ByteBuffer> mOutput = new LinkedList<>();
+
+        /** The reader fed with the bytes read from the channel. */
+        private final ResponseReader mReader = new ResponseReader(getBufferSize());
+
+        /** The shared selector. */
+        private final ConnectionSelector mSelector;
+
+        /** The length of the binary frame expected next, -1 if none is expected. */
+        private int mBinaryLength = -1;
+
+        /** The request completed by the connection greeting. */
+        private final Request mGreeting = new Request(GREETING, null);
+
+        /** The request sending the password, null if there is no password. */
+        private final Request mPassword;
+
+        private SocketChannel mChannel;
+
+        /** Set once the channel has been closed, it cannot be reopened. */
+        private volatile boolean mIsClosed;
+
+        /** Set once the channel has failed, on the selector thread. */
+        private boolean mIsFailed;
+
+        /** Set once the greeting was read and the password accepted, on the selector thread. */
+        private boolean mIsOpen;
+
+        private SelectionKey mKey;
+
+        /**
+         * Creates a session, which is not connected until {@link #open(InetSocketAddress)}.
+         *
+         * @param password The MPD protocol password to send upon connection, null if none.
+         * @throws IOException Thrown if the selector could not be opened.
+         */
+        Session(final String password) throws IOException {
+            super();
+
+            mSelector = ConnectionSelector.getInstance();
+            if (password == null) {
+                mPassword = null;
+            } else {
+                mPassword = new Request(
+                        new MPDCommand(MPDCommand.MPD_CMD_PASSWORD, password), null);
+            }
+        }
+
+        /**
+         * Closes this session.
+         *
+         * @param e The exception to fail any pending commands with.
+         */
+        void close(final IOException e) {
+            mIsClosed = true;
+            mSelector.execute(new Runnable() {
+                @Override
+                public void run() {
+                    fail(e);
+                }
+            });
+        }
+
+        private void connect(final InetSocketAddress address) {
+            try {
+                final int ops;
+
+                mChannel = SocketChannel.open();
+                mChannel.configureBlocking(false);
+                if (mChannel.connect(address)) {
+                    ops = SelectionKey.OP_READ;
+                } else {
+                    ops = SelectionKey.OP_CONNECT;
+                }
+                mKey = mChannel.register(mSelector.getSelector(), ops, this);
+            } catch (final IOException e) {
+                fail(e);
+            }
+        }
+
+        /**
+         * Closes the channel and fails all pending requests.
+         *
+         * @param e The exception to fail the pending requests with.
+         */
+        private void fail(final IOException e) {
+            if (!mIsOpen && !mIsFailed) {
+                getReconnectPolicy().onConnectFailure();
+            }
+            mIsClosed = true;
+            mIsFailed = true;
+
+            if (mKey != null) {
+                mKey.cancel();
+            }
+
+            if (mChannel != null) {
+                try {
+                    mChannel.close();
+                } catch (final IOException ignored) {
+                }
+            }
+
+            for (final Request request : mAwaiting) {
+                request.mFuture.setException(e);
+            }
+            for (final Request request : mHeld) {
+                request.mFuture.setException(e);
+            }
+            mAwaiting.clear();
+            mHeld.clear();
+            mOutput.clear();
+        }
+
+        /**
+         * Writes as much of the pending output as the channel accepts.
+         *
+         * @throws IOException Thrown upon a communication error with the server.
+         */
+        private void flush() throws IOException {
+            while (!mOutput.isEmpty()) {
+                final ByteBuffer buffer = mOutput.peek();
+
+                mChannel.write(buffer);
+                if (buffer.hasRemaining()) {
+                    break;
+                }
+                mOutput.remove();
+            }
+        }
+
+        boolean isClosed() {
+            return mIsClosed;
+        }
+
+        @Override
+        public void onSelected(final SelectionKey key) {
+            try {
+                if (key.isConnectable() && mChannel.finishConnect()) {
+                    updateInterest();
+                }
+
+                if (key.isValid() && key.isWritable()) {
+                    flush();
+                    updateInterest();
+                }
+
+                if (key.isValid() && key.isReadable()) {
+                    if (mReader.read(mChannel) == -1) {
+                        throw new EOFException("Connection lost");
+                    }
+
+                    parse();
+                }
+            } catch (final IOException e) {
+                fail(e);
+            } catch (final RuntimeException e) {
+                fail(new IOException(e));
+            }
+        }
+
+        /**
+         * Called once the greeting was read and the password accepted.
+         */
+        private void onOpened() {
+            mIsOpen = true;
+            getReconnectPolicy().onConnectSuccess();
+
+            for (Request request = mHeld.poll(); request != null; request = mHeld.poll()) {
+                write(request);
+            }
+            updateInterest();
+        }
+
+        /**
+         * Opens the channel. The commands submitted meanwhile are held until the password is
+         * accepted, and the session fails if the greeting and the password are not answered
+         * within the connection timeout.
+         *
+         * @param address The address to connect to.
+         */
+        void open(final InetSocketAddress address) {
+            mSelector.execute(new Runnable() {
+                @Override
+                public void run() {
+                    mAwaiting.add(mGreeting);
+                    if (mPassword != null) {
+                        write(mPassword);
+                    }
+                    connect(address);
+                }
+            });
+
+            mSelector.schedule(new Runnable() {
+                @Override
+                public void run() {
+                    if (!mIsOpen && !mIsFailed) {
+                        fail(new SocketTimeoutException("Timed out connecting to " + address));
+                    }
+                }
+            }, (long) CONNECTION_TIMEOUT);
+        }
+
+        /**
+         * Parses as much of the buffered response data as possible.
+         *
+         * @throws IOException Thrown upon a communication error with the server.
+         */
+        private void parse() throws IOException {
+            while (!mAwaiting.isEmpty()) {
+                final Request request = mAwaiting.peek();
+
+                if (mBinaryLength >= 0) {
+                    if (mReader.available() <= mBinaryLength) {
+                        break;
+                    }
+
+                    request.handleBinary(mReader.readBinary(mBinaryLength));
+                    mBinaryLength = -1;
+                } else if (!mReader.nextLine()) {
+                    break;
+                } else if (request == mGreeting) {
+                    /** Protocol says OK will begin the session, otherwise assume IO error. */
+                    if (!mReader.lineStartsWith(MPD_RESPONSE_OK)) {
+                        throw new IOException("Bogus response from server.");
+                    }
+
+                    mAwaiting.remove();
+                    request.mFuture.setResult(Collections.singletonList(mReader.getLine()));
+                    if (mPassword == null) {
+                        onOpened();
+                    }
+                } else if (mReader.lineStartsWith(MPD_RESPONSE_OK)) {
+                    mAwaiting.remove();
+                    request.complete();
+                    if (request == mPassword) {
+                        onOpened();
+                    }
+                } else if (mReader.lineStartsWith(MPD_RESPONSE_ERR)) {
+                    final String line = mReader.getLine();
+
+                    mAwaiting.remove();
+                    if (request == mPassword) {
+                        /** The commands queued after the password must not run without it. */
+                        request.mFuture.setException(new MPDException(line));
+                        throw new IOException("Password rejected: " + line);
+                    } else if (isNonfatalACK(request.mFuture.getCommand(), line)) {
+                        request.complete();
+                    } else {
+                        request.mFuture.setException(new MPDException(line));
+                    }
+                } else {
+                    request.handleLine(mReader);
+
+                    if (mReader.lineStartsWith(ResponseReader.BINARY_PREFIX)) {
+                        mBinaryLength = mReader.getIntValue();
+                    }
+                }
+            }
+        }
+
+        /**
+         * Queues a command for writing to the channel.
+         *
+         * @param request The request of the command.
+         */
+        void submit(final Request request) {
+            mSelector.execute(new Runnable() {
+                @Override
+                public void run() {
+                    if (mIsClosed) {
+                        request.mFuture.setException(new IOException("Connection closed."));
+                    } else if (mIsOpen) {
+                        write(request);
+                        updateInterest();
+                    } else {
+                        /** No command is written before the password has been accepted. */
+                        mHeld.add(request);
+                    }
+                }
+            });
+        }
+
+        /**
+         * Queues the command of a request for writing.
+         *
+         * @param request The request of the command.
+         */
+        private void write(final Request request) {
+            mOutput.add(CHARSET.encode(request.mFuture.getCommand().toString()));
+            mAwaiting.add(request);
+        }
+
+        /** Updates the operations the channel is selected for, once it is connected. */
+        private void updateInterest() {
+            if (mKey.isValid() && mChannel.isConnected()) {
+                int ops = SelectionKey.OP_READ;
+
+                if (!mOutput.isEmpty()) {
+                    ops |= SelectionKey.OP_WRITE;
+                }
+
+                mKey.interestOps(ops);
+            }
+        }
+    }
+}
@@ -0,0 +1,72 @@
+/*
+ * Copyright (C) 2004 Felipe Gustavo de Almeida
+ * Copyright (C) 2010-2014 The MPDroid Project
+ *
+ * All Rights Reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice,this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE AUTHOR AND CONTRIBUTORS ``AS IS'' AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED.  IN NO EVENT SHALL THE AUTHOR OR CONTRIBUTORS BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ * THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+
+package org.a0z.mpd.connection;
+
+/**
+ * Decides when a connection to the media server may be reopened after a failure. A policy may be
+ * shared by several connections to the same media server, such as the command and the idle
+ * connection, so they back off together.
+ *
+ * @see BackoffReconnectPolicy
+ */
+public interface ReconnectPolicy {
+
+    /**
+     * The delay to wait before the next attempt to reopen a failed connection.
+     *
+     * @return The delay, in milliseconds.
+     */
+    long getReconnectDelay();
+
+    /**
+     * Checks whether connection attempts are allowed at this time. While not allowed, connections
+     * fail without reaching the network. A policy may only let a single attempt through, so a
+     * caller which is allowed to connect must report the outcome with {@link #onConnectFailure()}
+     * or {@link #onConnectSuccess()}.
+     *
+     * @return True if a connection may be attempted, false otherwise.
+     */
+    boolean isReconnectAllowed();
+
+    /**
+     * Called after an attempt to open a connection failed.
+     */
+    void onConnectFailure();
+
+    /**
+     * Called after a connection was opened successfully.
+     */
+    void onConnectSuccess();
+
+    /**
+     * Called when a connection is requested, rather than reopened after a failure, to forget the
+     * failures seen so far.
+     */
+    void reset();
+}
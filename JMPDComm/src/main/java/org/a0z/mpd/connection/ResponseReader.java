@@ -0,0 +1,403 @@
+/*
+ * Copyright (C) 2004 Felipe Gustavo de Almeida
+ * Copyright (C) 2010-2014 The MPDroid Project
+ *
+ * All Rights Reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice,this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE AUTHOR AND CONTRIBUTORS ``AS IS'' AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED.  IN NO EVENT SHALL THE AUTHOR OR CONTRIBUTORS BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ * THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.a0z.mpd.connection;
+
+import org.a0z.mpd.exception.InvalidResponseException;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.Charset;
+
+/**
+ * This class reads media server responses line by line from a byte buffer. Lines are found by
+ * scanning the raw bytes for a newline; only the parts of a line which are asked for are decoded
+ * into a {@code String}, and keys are shared between lines. As the buffer holds raw bytes,
+ * {@code binary: N} frames can be read between lines.
+ * <BR><BR>
+ * A reader without a stream does not block; it is fed with {@link #read(ReadableByteChannel)} and
+ * only returns complete lines.
+ */
+final class ResponseReader {
+
+    /** The prefix of the line which precedes a binary frame. */
+    static final String BINARY_PREFIX = "binary: ";
+
+    /** The media server protocol character set. */
+    private static final Charset CHARSET = Charset.forName("UTF-8");
+
+    /** The number of recently read keys to keep. Must be a power of two. */
+    private static final int KEY_CACHE_SIZE = 64;
+
+    /** Recently read keys, indexed by their hash. */
+    private final String[] mKeyCache = new String[KEY_CACHE_SIZE];
+
+    /** The stream to read the response from, null if this reader is fed from a channel. */
+    private final InputStream mInputStream;
+
+    /**
+     * The byte buffer, grows if a line is longer than the buffer. The buffer position is the
+     * first unread byte and the buffer limit is the end of the valid data.
+     */
+    private ByteBuffer mBuffer;
+
+    /** The index of the ':' delimiter in the current line, -1 if there is none. */
+    private int mDelimiter;
+
+    /** The index of the first byte of the current line. */
+    private int mLineStart;
+
+    /** The index of the end of the current line, excluding the line terminator. */
+    private int mLineEnd;
+
+    ResponseReader(final InputStream inputStream, final int bufferSize) {
+        super();
+
+        mInputStream = inputStream;
+        mBuffer = ByteBuffer.allocate(bufferSize);
+        mBuffer.limit(0);
+    }
+
+    /**
+     * Creates a non-blocking reader, fed with {@link #read(ReadableByteChannel)}.
+     *
+     * @param bufferSize The initial size of the buffer.
+     */
+    ResponseReader(final int bufferSize) {
+        this(null, bufferSize);
+    }
+
+    /**
+     * The number of bytes buffered and not yet read.
+     *
+     * @return The number of bytes available without reading from the stream.
+     */
+    int available() {
+        return mBuffer.remaining();
+    }
+
+    /**
+     * Fills the buffer, keeping the unread data.
+     *
+     * @return False if the end of the stream has been reached, true otherwise.
+     * @throws IOException Thrown upon a communication error with the server.
+     */
+    private boolean fill() throws IOException {
+        if (mInputStream == null) {
+            return false;
+        }
+
+        prepareWrite();
+
+        final int read = mInputStream.read(mBuffer.array(), mBuffer.position(),
+                mBuffer.remaining());
+        if (read > 0) {
+            mBuffer.position(mBuffer.position() + read);
+        }
+        mBuffer.flip();
+
+        return read != -1;
+    }
+
+    /**
+     * Prepares the buffer to be written to, keeping the unread data at the start of the buffer
+     * and growing the buffer if it is full.
+     */
+    private void prepareWrite() {
+        if (mBuffer.position() > 0) {
+            mBuffer.compact();
+        } else if (mBuffer.limit() == mBuffer.capacity()) {
+            final ByteBuffer buffer = ByteBuffer.allocate(mBuffer.capacity() << 1);
+
+            buffer.put(mBuffer);
+            mBuffer = buffer;
+        } else {
+            mBuffer.position(mBuffer.limit());
+            mBuffer.limit(mBuffer.capacity());
+        }
+    }
+
+    /**
+     * Retrieves the key of the current line. Keys are repeated for every entry in a response, so
+     * these are cached to avoid a copy per line.
+     *
+     * @return The key of the current line.
+     */
+    String getKey() {
+        if (mDelimiter == -1) {
+            throw new InvalidResponseException("Failed to parse server response key for line: " +
+                    getLine());
+        }
+
+        final byte[] bytes = mBuffer.array();
+        final int length = mDelimiter - mLineStart;
+        boolean isASCII = true;
+        int hash = 0;
+
+        for (int i = mLineStart; i < mDelimiter; i++) {
+            isASCII &= bytes[i] >= 0;
+            hash = 31 * hash + bytes[i];
+        }
+
+        final int index = (hash ^ hash >>> 16) & KEY_CACHE_SIZE - 1;
+        final String cached = mKeyCache[index];
+        boolean isCached = isASCII && cached != null && cached.length() == length;
+
+        for (int i = 0; isCached && i < length; i++) {
+            isCached = cached.charAt(i) == bytes[mLineStart + i];
+        }
+
+        final String key;
+        if (isCached) {
+            key = cached;
+        } else {
+            key = new String(bytes, mLineStart, length, CHARSET);
+
+            if (isASCII) {
+                mKeyCache[index] = key;
+            }
+        }
+
+        return key;
+    }
+
+    /**
+     * Retrieves the current line as a {@code String}.
+     *
+     * @return The current line.
+     */
+    String getLine() {
+        return new String(mBuffer.array(), mLineStart, mLineEnd - mLineStart, CHARSET);
+    }
+
+    /**
+     * Retrieves the value of the current line, skipping the ": " after the key.
+     *
+     * @return The value of the current line.
+     */
+    String getValue() {
+        if (mDelimiter == -1) {
+            throw new InvalidResponseException("Failed to parse server response value for line: "
+                    + getLine());
+        }
+
+        /** Skip ': ' */
+        final int valueStart = Math.min(mDelimiter + 2, mLineEnd);
+
+        return new String(mBuffer.array(), valueStart, mLineEnd - valueStart, CHARSET);
+    }
+
+    /**
+     * Retrieves the value of the current line as a non-negative integer, without decoding it into
+     * a {@code String} first.
+     *
+     * @return The integer value of the current line.
+     */
+    int getIntValue() {
+        final byte[] bytes = mBuffer.array();
+        final int valueStart = Math.min(mDelimiter + 2, mLineEnd);
+        int value = 0;
+
+        if (mDelimiter == -1 || valueStart == mLineEnd) {
+            throw new InvalidResponseException("Failed to parse integer value for line: " +
+                    getLine());
+        }
+
+        for (int i = valueStart; i < mLineEnd; i++) {
+            final int digit = bytes[i] - '0';
+
+            if (digit < 0 || digit > 9 || value > (Integer.MAX_VALUE - digit) / 10) {
+                throw new InvalidResponseException("Failed to parse integer value for line: " +
+                        getLine());
+            }
+
+            value = value * 10 + digit;
+        }
+
+        return value;
+    }
+
+    /**
+     * Checks the current line for a prefix.
+     *
+     * @param prefix The ASCII prefix to check for.
+     * @return True if the current line starts with the {@code prefix}, false otherwise.
+     */
+    boolean lineStartsWith(final String prefix) {
+        final byte[] bytes = mBuffer.array();
+        final int length = prefix.length();
+        boolean startsWith = mLineEnd - mLineStart >= length;
+
+        for (int i = 0; startsWith && i < length; i++) {
+            startsWith = bytes[mLineStart + i] == prefix.charAt(i);
+        }
+
+        return startsWith;
+    }
+
+    /**
+     * Advances to the next line of the response.
+     *
+     * @return False if the end of the stream has been reached, true otherwise.
+     * @throws IOException Thrown upon a communication error with the server.
+     */
+    boolean nextLine() throws IOException {
+        int index = mBuffer.position();
+        boolean isEndOfStream = false;
+
+        while (true) {
+            final byte[] bytes = mBuffer.array();
+            final int limit = mBuffer.limit();
+
+            while (index < limit && bytes[index] != '\n') {
+                index++;
+            }
+
+            if (index < limit || isEndOfStream) {
+                break;
+            }
+
+            final int scanned = index - mBuffer.position();
+            isEndOfStream = !fill();
+            index = mBuffer.position() + scanned;
+        }
+
+        final int position = mBuffer.position();
+        if (isEndOfStream && (index == position || mInputStream == null)) {
+            /** Without a stream, a partial line is kept until the rest is fed. */
+            return false;
+        }
+
+        final byte[] bytes = mBuffer.array();
+        mLineStart = position;
+        mLineEnd = index;
+        mBuffer.position(Math.min(index + 1, mBuffer.limit()));
+
+        if (mLineEnd > mLineStart && bytes[mLineEnd - 1] == '\r') {
+            mLineEnd--;
+        }
+
+        mDelimiter = -1;
+        for (int i = mLineStart; i < mLineEnd; i++) {
+            if (bytes[i] == ':') {
+                mDelimiter = i;
+                break;
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * Feeds this reader from a channel.
+     *
+     * @param channel The channel to read from.
+     * @return The number of bytes read, -1 if the end of the stream has been reached.
+     * @throws IOException Thrown upon a communication error with the server.
+     */
+    int read(final ReadableByteChannel channel) throws IOException {
+        prepareWrite();
+
+        final int read = channel.read(mBuffer);
+        mBuffer.flip();
+
+        return read;
+    }
+
+    /**
+     * Reads the binary frame announced by the current {@code binary: N} line, including the
+     * newline which terminates the frame.
+     *
+     * @return The frame data.
+     * @throws IOException Thrown upon a communication error with the server.
+     */
+    byte[] readBinary() throws IOException {
+        return readBinary(getIntValue());
+    }
+
+    /**
+     * Reads a binary frame of a known length, including the newline which terminates the frame.
+     * A reader without a stream must have more than {@code length} bytes {@link #available()}.
+     *
+     * @param length The length of the frame.
+     * @return The frame data.
+     * @throws IOException Thrown upon a communication error with the server.
+     */
+    byte[] readBinary(final int length) throws IOException {
+        final byte[] data = new byte[length];
+        final int buffered = Math.min(mBuffer.remaining(), data.length);
+        int offset = buffered;
+
+        /** Invalidate the current line, the buffer may be refilled below. */
+        mBuffer.get(data, 0, buffered);
+        mLineStart = mLineEnd = mBuffer.position();
+        mDelimiter = -1;
+
+        while (offset < data.length) {
+            final int read = mInputStream.read(data, offset, data.length - offset);
+
+            if (read == -1) {
+                throw new EOFException("Connection lost while reading binary data.");
+            }
+
+            offset += read;
+        }
+
+        if (!mBuffer.hasRemaining() && !fill()) {
+            throw new EOFException("Connection lost while reading binary data.");
+        }
+
+        if (mBuffer.get(mBuffer.position()) == '\n') {
+            mBuffer.get();
+        } else {
+            throw new InvalidResponseException("Binary data not terminated by a newline.");
+        }
+
+        return data;
+    }
+
+    /**
+     * Reads a full line from the response.
+     *
+     * @return The next line, null if the end of the stream has been reached.
+     * @throws IOException Thrown upon a communication error with the server.
+     */
+    String readLine() throws IOException {
+        final String line;
+
+        if (nextLine()) {
+            line = getLine();
+        } else {
+            line = null;
+        }
+
+        return line;
+    }
+}
@@ -0,0 +1,58 @@
+/*
+ * Copyright (C) 2004 Felipe Gustavo de Almeida
+ * Copyright (C) 2010-2014 The MPDroid Project
+ *
+ * All Rights Reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice,this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE AUTHOR AND CONTRIBUTORS ``AS IS'' AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED.  IN NO EVENT SHALL THE AUTHOR OR CONTRIBUTORS BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ * THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.a0z.mpd.event;
+
+import org.a0z.mpd.MPD;
+
+import java.util.List;
+
+/**
+ * Implement this to get idle subsystem updates from the media servers of a
+ * {@link org.a0z.mpd.MPDCluster}.
+ */
+public interface ServerChangeListener {
+
+    /**
+     * Called when the connection of a media server changes state.
+     *
+     * @param name      The name the media server was added to the cluster with.
+     * @param mpd       The media server controller.
+     * @param connected True if the media server is connected, false otherwise.
+     */
+    void connectionStateChanged(String name, MPD mpd, boolean connected);
+
+    /**
+     * Called after the status of a media server has been refreshed following a change.
+     *
+     * @param name    The name the media server was added to the cluster with.
+     * @param mpd     The media server controller, holding the refreshed status.
+     * @param changes The changed subsystems, see the IDLE fields of
+     *                {@link org.a0z.mpd.MPDStatusMonitor}.
+     */
+    void serverChanged(String name, MPD mpd, List<String> changes);
+}
@@ -27,17 +27,13 @@
 
 package org.a0z.mpd.item;
 
-import org.a0z.mpd.Log;
 import org.a0z.mpd.Tools;
 
-import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.List;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 
 import static org.a0z.mpd.Tools.KEY;
 import static org.a0z.mpd.Tools.VALUE;
@@ -88,17 +84,7 @@ public abstract class AbstractMusic extends Item implements FilesystemTreeEntry
                 }
             };
 
-    /**
-     * The date response has it's own delimiter.
-     */
-    private static final Pattern DATE_DELIMITER = Pattern.compile("\\D+");
-
-    /** The maximum number of key/value pairs for a music item response. */
-    private static final int MUSIC_ATTRIBUTES = 30;
-
-    private static final String TAG = "Music";
-
-    private static final int UNDEFINED_INT = -1;
+    static final int UNDEFINED_INT = -1;
 
     final String mAlbum;
 
@@ -179,128 +165,13 @@ public abstract class AbstractMusic extends Item implements FilesystemTreeEntry
     }
 
     static Music build(final Collection<String> response) {
-        String album = null;
-        String artist = null;
-        String albumArtist = null;
-        String composer = null;
-        String fullPath = null;
-        int disc = UNDEFINED_INT;
-        long date = -1L;
-        String genre = null;
-        long time = -1L;
-        String title = null;
-        int totalTracks = UNDEFINED_INT;
-        int track = UNDEFINED_INT;
-        int songId = UNDEFINED_INT;
-        int songPos = UNDEFINED_INT;
-        String name = null;
+        final MusicBuilder builder = new MusicBuilder();
 
         for (final String[] pair : Tools.splitResponse(response)) {
-
-            switch (pair[KEY]) {
-                case "file":
-                    fullPath = pair[VALUE];
-                    if (!fullPath.isEmpty() && fullPath.contains("://")) {
-                        final int pos = fullPath.indexOf('#');
-                        if (pos > 1) {
-                            name = fullPath.substring(pos + 1, fullPath.length());
-                            fullPath = fullPath.substring(0, pos);
-                        }
-                    }
-                    break;
-                case "Album":
-                    album = pair[VALUE];
-                    break;
-                case "AlbumArtist":
-                    albumArtist = pair[VALUE];
-                    break;
-                case "Artist":
-                    artist = pair[VALUE];
-                    break;
-                case "Composer":
-                    composer = pair[VALUE];
-                    break;
-                case "Date":
-                    try {
-                        final Matcher matcher = DATE_DELIMITER.matcher(pair[VALUE]);
-                        date = Long.parseLong(matcher.replaceAll(""));
-                    } catch (final NumberFormatException e) {
-                        Log.warning(TAG, "Not a valid date.", e);
-                    }
-                    break;
-                case "Disc":
-                    final int discIndex = pair[VALUE].indexOf('/');
-
-                    try {
-                        if (discIndex == -1) {
-                            disc = Integer.parseInt(pair[VALUE]);
-                        } else {
-                            disc = Integer.parseInt(pair[VALUE].substring(0, discIndex));
-                        }
-                    } catch (final NumberFormatException e) {
-                        Log.warning(TAG, "Not a valid disc number.", e);
-                    }
-                    break;
-                case "Genre":
-                    genre = pair[VALUE];
-                    break;
-                case "Id":
-                    try {
-                        songId = Integer.parseInt(pair[VALUE]);
-                    } catch (final NumberFormatException e) {
-                        Log.error(TAG, "Not a valid song ID.", e);
-                    }
-                    break;
-                case "Name":
-                    /**
-                     * name may already be assigned to the stream name in file conditional
-                     */
-                    if (name == null) {
-                        name = pair[VALUE];
-                    }
-                    break;
-                case "Pos":
-                    try {
-                        songPos = Integer.parseInt(pair[VALUE]);
-                    } catch (final NumberFormatException e) {
-                        Log.error(TAG, "Not a valid song position.", e);
-                    }
-                    break;
-                case "Time":
-                    try {
-                        time = Long.parseLong(pair[VALUE]);
-                    } catch (final NumberFormatException e) {
-                        Log.error(TAG, "Not a valid time number.", e);
-                    }
-                    break;
-                case "Title":
-                    title = pair[VALUE];
-                    break;
-                case "Track":
-                    final int trackIndex = pair[VALUE].indexOf('/');
-
-                    try {
-                        if (trackIndex == -1) {
-                            track = Integer.parseInt(pair[VALUE]);
-                        } else {
-                            track = Integer.parseInt(pair[VALUE].substring(0, trackIndex));
-                            totalTracks = Integer.parseInt(pair[VALUE].substring(trackIndex + 1));
-                        }
-                    } catch (final NumberFormatException e) {
-                        Log.warning(TAG, "Not a valid track number.", e);
-                    }
-                    break;
-                default:
-                    /**
-                     * Ignore everything else, there are a lot of
-                     * uninteresting blocks the server might send.
-                     */
-                    break;
-            }
+            builder.put(pair[KEY], pair[VALUE]);
         }
 
-        return new Music(album, artist, albumArtist, composer, fullPath, disc, date, genre,
-                time, title, totalTracks, track, songId, songPos, name);
+        return builder.build();
     }
 
     /**
@@ -352,31 +223,15 @@ public abstract class AbstractMusic extends Item implements FilesystemTreeEntry
 
     public static List<Music> getMusicFromList(final Collection<String> response,
             final boolean sort) {
-        final Collection<String> lineCache = new ArrayList<>(MUSIC_ATTRIBUTES);
-        final int size = response.size();
-        final List<Music> result;
-
-        /** This list can be pretty sizable, it's good to give a low estimate of it's size. */
-        if (size > MUSIC_ATTRIBUTES) {
-            result = new ArrayList<>(size / MUSIC_ATTRIBUTES);
-        } else {
-            result = new ArrayList<>(0);
-        }
+        final MusicBuilder builder = new MusicBuilder();
 
         for (final String line : response) {
-            if (line.startsWith("file: ")) {
-                if (!lineCache.isEmpty()) {
-                    result.add(build(lineCache));
-                    lineCache.clear();
-                }
-            }
-            lineCache.add(line);
-        }
+            final String[] pair = Tools.splitResponse(line);
 
-        if (!lineCache.isEmpty()) {
-            result.add(build(lineCache));
+            builder.handle(pair[KEY], pair[VALUE]);
         }
 
+        final List<Music> result = builder.getMusic();
         if (sort) {
             Collections.sort(result);
         }
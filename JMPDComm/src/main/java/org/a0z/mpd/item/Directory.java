@@ -28,22 +28,17 @@
 package org.a0z.mpd.item;
 
 import org.a0z.mpd.MPDCommand;
-import org.a0z.mpd.Tools;
 import org.a0z.mpd.connection.MPDConnection;
+import org.a0z.mpd.connection.ResponseHandler;
 import org.a0z.mpd.exception.MPDException;
 
 import java.io.IOException;
-import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Comparator;
 import java.util.HashMap;
-import java.util.List;
 import java.util.Map;
 import java.util.TreeSet;
 
-import static org.a0z.mpd.Tools.KEY;
-import static org.a0z.mpd.Tools.VALUE;
-
 /**
  * A class representing a MPD protocol directory.
  *
@@ -54,7 +49,7 @@ public final class Directory extends Item implements FilesystemTreeEntry {
     /** The MPD protocol directory separator. */
     private static final char MPD_SEPARATOR = '/';
 
-    /** The root directory object. */
+    /** The root directory object shared by {@link #getRoot()}. */
     private static final Directory ROOT;
 
     /** A map of directory entries from the current directory on the media server. */
@@ -128,15 +123,30 @@ public final class Directory extends Item implements FilesystemTreeEntry {
     }
 
     /**
-     * Gets the root directory for this media server.
+     * Gets a root directory shared by the whole process.
      *
-     * @return The root directory for this media server.
+     * @return The shared root directory.
      * @see #refresh(org.a0z.mpd.connection.MPDConnection)
+     * @deprecated A process may connect to more than one media server, so this root could hold
+     * the directories of any of them. Use {@link org.a0z.mpd.MPD#getRootDirectory()} instead.
      */
+    @Deprecated
     public static Directory getRoot() {
         return ROOT;
     }
 
+    /**
+     * Creates a new root directory. Each media server has its own directory tree, so the root
+     * directory is kept by the {@link org.a0z.mpd.MPD} instance of the media server.
+     *
+     * @return A new root directory.
+     * @see org.a0z.mpd.MPD#getRootDirectory()
+     * @see #refresh(org.a0z.mpd.connection.MPDConnection)
+     */
+    public static Directory makeRootDirectory() {
+        return new Directory(null, null);
+    }
+
     /**
      * Check if a given directory exists as a subdirectory.
      *
@@ -284,7 +294,7 @@ public final class Directory extends Item implements FilesystemTreeEntry {
      * @param subdirectory The subdirectory path of the root to create a {@code Directory} for.
      * @return the last component of the path created.
      * @throws java.lang.IllegalArgumentException If {@code subdirectory} starts or ends with '/'
-     * @see #getRoot()
+     * @see #makeRootDirectory()
      * @see #refresh(org.a0z.mpd.connection.MPDConnection)
      */
     public Directory makeChildDirectory(final String subdirectory) {
@@ -337,6 +347,21 @@ public final class Directory extends Item implements FilesystemTreeEntry {
                 mFileEntries, mPlaylistEntries);
     }
 
+    /**
+     * Builds the pending {@code Music} item, if any, and adds it to the file entries.
+     *
+     * @param builder     The builder of the pending item.
+     * @param fileEntries The file entries to add the pending item to.
+     */
+    private static void addPendingMusic(final MusicBuilder builder,
+            final Map<String, Music> fileEntries) {
+        if (!builder.isEmpty()) {
+            final Music music = builder.build();
+
+            fileEntries.put(music.getFilename(), music);
+        }
+    }
+
     /**
      * Retrieves a database directory listing of {@code path} directory.
      *
@@ -345,54 +370,50 @@ public final class Directory extends Item implements FilesystemTreeEntry {
      * @throws MPDException Thrown if an error occurs as a result of command execution.
      */
     public void refresh(final MPDConnection connection) throws IOException, MPDException {
-        final int cacheSize = 40; /** Approximate max number of lines per file entry. */
-        final List<String> response =
-                connection.sendCommand(MPDCommand.MPD_CMD_LSDIR, getFullPath());
-        final Collection<String> lineCache = new ArrayList<>(cacheSize);
-
         final Map<String, Directory> directoryEntries = new HashMap<>(mDirectoryEntries.size());
         final Map<String, Music> fileEntries = new HashMap<>(mFileEntries.size());
         final Map<String, PlaylistFile> playlistEntries = new HashMap<>(mPlaylistEntries.size());
+        final MusicBuilder musicBuilder = new MusicBuilder();
+        Directory parent = this;
 
-        // Read the response backwards so it is easier to parse
-        for (int i = response.size() - 1; i >= 0; i--) {
-
-            // If we hit anything we know is an item, consume the line cache
-            final String line = response.get(i);
-            final String[] pair = Tools.splitResponse(line);
-
-            switch (pair[KEY]) {
-                case "directory":
-                    final Directory dir = ROOT.makeChildDirectory(pair[VALUE]);
-
-                    directoryEntries.put(dir.mFilename, dir);
-                    lineCache.clear();
-                    break;
-                case "file":
-                    // Music requires this line to be cached too.
-                    // It could be done every time but it would be a waste to add and
-                    // clear immediately when we're parsing a playlist or a directory
-                    lineCache.add(line);
-
-                    final Music music = Music.build(lineCache);
-                    fileEntries.put(music.getFilename(), music);
-
-                    lineCache.clear();
-                    break;
-                case "playlist":
-                    final PlaylistFile playlistFile = new PlaylistFile(pair[VALUE]);
-
-                    playlistEntries.put(playlistFile.getName(), playlistFile);
-
-                    lineCache.clear();
-                    break;
-                default:
-                    // We're in something unsupported or in an item description, cache the lines
-                    lineCache.add(line);
-                    break;
-            }
+        while (parent.mParent != null) {
+            parent = parent.mParent;
         }
 
+        /** Directory responses are relative to the root of this directory tree. */
+        final Directory root = parent;
+        connection.sendCommand(new MPDCommand(MPDCommand.MPD_CMD_LSDIR, getFullPath()),
+                new ResponseHandler() {
+                    @Override
+                    public void handle(final String key, final String value) {
+                        switch (key) {
+                            case "directory":
+                                addPendingMusic(musicBuilder, fileEntries);
+
+                                final Directory dir = root.makeChildDirectory(value);
+                                directoryEntries.put(dir.mFilename, dir);
+                                break;
+                            case "file":
+                                addPendingMusic(musicBuilder, fileEntries);
+                                musicBuilder.put(key, value);
+                                break;
+                            case "playlist":
+                                addPendingMusic(musicBuilder, fileEntries);
+
+                                final PlaylistFile playlistFile = new PlaylistFile(value);
+                                playlistEntries.put(playlistFile.getName(), playlistFile);
+                                break;
+                            default:
+                                // Only file entries keep their item description.
+                                if (!musicBuilder.isEmpty()) {
+                                    musicBuilder.put(key, value);
+                                }
+                                break;
+                        }
+                    }
+                });
+        addPendingMusic(musicBuilder, fileEntries);
+
         synchronized (mDirectoryEntries) {
             mDirectoryEntries.clear();
             mDirectoryEntries.putAll(directoryEntries);
@@ -0,0 +1,371 @@
+/*
+ * Copyright (C) 2004 Felipe Gustavo de Almeida
+ * Copyright (C) 2010-2014 The MPDroid Project
+ *
+ * All Rights Reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice,this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE AUTHOR AND CONTRIBUTORS ``AS IS'' AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED.  IN NO EVENT SHALL THE AUTHOR OR CONTRIBUTORS BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ * THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+
+package org.a0z.mpd.item;
+
+import org.a0z.mpd.Log;
+import org.a0z.mpd.connection.ResponseHandler;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static org.a0z.mpd.item.AbstractMusic.UNDEFINED_INT;
+
+/**
+ * This class builds {@code Music} items from a media server response, one key/value pair at a
+ * time. As a {@link ResponseHandler} it splits the response into items on each {@code file} key,
+ * so a song listing can be parsed while it is read from the connection.
+ */
+public final class MusicBuilder implements ResponseHandler {
+
+    /**
+     * The date response has it's own delimiter.
+     */
+    private static final Pattern DATE_DELIMITER = Pattern.compile("\\D+");
+
+    private static final String TAG = "Music";
+
+    /** The items built by this builder when used as a {@code ResponseHandler}. */
+    private final List<Music> mMusic = new ArrayList<>();
+
+    private String mAlbum;
+
+    private String mAlbumArtist;
+
+    private String mArtist;
+
+    private String mComposer;
+
+    private long mDate;
+
+    private int mDisc;
+
+    private String mFullPath;
+
+    private String mGenre;
+
+    /** True if no key/value pair has been put since the last build. */
+    private boolean mIsEmpty;
+
+    private String mName;
+
+    private int mSongId;
+
+    private int mSongPos;
+
+    private long mTime;
+
+    private String mTitle;
+
+    private int mTotalTracks;
+
+    private int mTrack;
+
+    public MusicBuilder() {
+        super();
+
+        reset();
+    }
+
+    /**
+     * Builds a {@code Music} item from the key/value pairs put since the last build, then resets
+     * this builder.
+     *
+     * @return A {@code Music} item.
+     */
+    Music build() {
+        final Music music = new Music(mAlbum, mArtist, mAlbumArtist, mComposer, mFullPath, mDisc,
+                mDate, mGenre, mTime, mTitle, mTotalTracks, mTrack, mSongId, mSongPos, mName);
+
+        reset();
+
+        return music;
+    }
+
+    /**
+     * Reads a {@code Music} item written by {@link #write(Music, DataOutput)}.
+     *
+     * @param input The input to read the item from.
+     * @return The {@code Music} item read.
+     * @throws IOException Thrown if the item could not be read.
+     */
+    public static Music read(final DataInput input) throws IOException {
+        final String album = readString(input);
+        final String artist = readString(input);
+        final String albumArtist = readString(input);
+        final String composer = readString(input);
+        final String fullPath = readString(input);
+        final int disc = input.readInt();
+        final long date = input.readLong();
+        final String genre = readString(input);
+        final long time = input.readLong();
+        final String title = readString(input);
+        final int totalTracks = input.readInt();
+        final int track = input.readInt();
+        final int songId = input.readInt();
+        final int songPos = input.readInt();
+        final String name = readString(input);
+
+        return new Music(album, artist, albumArtist, composer, fullPath, disc, date, genre, time,
+                title, totalTracks, track, songId, songPos, name);
+    }
+
+    private static String readString(final DataInput input) throws IOException {
+        final String value;
+
+        if (input.readBoolean()) {
+            value = input.readUTF();
+        } else {
+            value = null;
+        }
+
+        return value;
+    }
+
+    /**
+     * Builds a copy of a {@code Music} item at another playlist position, for a queue entry which
+     * was moved without its metadata changing.
+     *
+     * @param music   The item to copy.
+     * @param songPos The new playlist position.
+     * @return A copy of the item at the new position.
+     */
+    public static Music reposition(final Music music, final int songPos) {
+        return new Music(music.mAlbum, music.mArtist, music.mAlbumArtist, music.mComposer,
+                music.mFullPath, music.mDisc, music.mDate, music.mGenre, music.mTime,
+                music.mTitle, music.mTotalTracks, music.mTrack, music.mSongId, songPos,
+                music.mName);
+    }
+
+    /**
+     * Retrieves the items built from the handled response, including the last, pending, item.
+     *
+     * @return A list of {@code Music} items, in response order.
+     */
+    public List<Music> getMusic() {
+        if (!mIsEmpty) {
+            mMusic.add(build());
+        }
+
+        return mMusic;
+    }
+
+    /**
+     * Handles a key/value pair of a response. A {@code file} key starts a new item.
+     *
+     * @param key   The key of the response line.
+     * @param value The value of the response line.
+     */
+    @Override
+    public void handle(final String key, final String value) {
+        if (!mIsEmpty && "file".equals(key)) {
+            mMusic.add(build());
+        }
+
+        put(key, value);
+    }
+
+    /**
+     * Checks if any key/value pair has been put since the last build.
+     *
+     * @return True if no key/value pair has been put since the last build, false otherwise.
+     */
+    boolean isEmpty() {
+        return mIsEmpty;
+    }
+
+    /**
+     * Adds a key/value pair to the item being built.
+     *
+     * @param key   The key of the response line.
+     * @param value The value of the response line.
+     */
+    void put(final String key, final String value) {
+        mIsEmpty = false;
+
+        switch (key) {
+            case "file":
+                mFullPath = value;
+                if (!mFullPath.isEmpty() && mFullPath.contains("://")) {
+                    final int pos = mFullPath.indexOf('#');
+                    if (pos > 1) {
+                        mName = mFullPath.substring(pos + 1, mFullPath.length());
+                        mFullPath = mFullPath.substring(0, pos);
+                    }
+                }
+                break;
+            case "Album":
+                mAlbum = value;
+                break;
+            case "AlbumArtist":
+                mAlbumArtist = value;
+                break;
+            case "Artist":
+                mArtist = value;
+                break;
+            case "Composer":
+                mComposer = value;
+                break;
+            case "Date":
+                try {
+                    final Matcher matcher = DATE_DELIMITER.matcher(value);
+                    mDate = Long.parseLong(matcher.replaceAll(""));
+                } catch (final NumberFormatException e) {
+                    Log.warning(TAG, "Not a valid date.", e);
+                }
+                break;
+            case "Disc":
+                final int discIndex = value.indexOf('/');
+
+                try {
+                    if (discIndex == -1) {
+                        mDisc = Integer.parseInt(value);
+                    } else {
+                        mDisc = Integer.parseInt(value.substring(0, discIndex));
+                    }
+                } catch (final NumberFormatException e) {
+                    Log.warning(TAG, "Not a valid disc number.", e);
+                }
+                break;
+            case "Genre":
+                mGenre = value;
+                break;
+            case "Id":
+                try {
+                    mSongId = Integer.parseInt(value);
+                } catch (final NumberFormatException e) {
+                    Log.error(TAG, "Not a valid song ID.", e);
+                }
+                break;
+            case "Name":
+                /**
+                 * name may already be assigned to the stream name in file conditional
+                 */
+                if (mName == null) {
+                    mName = value;
+                }
+                break;
+            case "Pos":
+                try {
+                    mSongPos = Integer.parseInt(value);
+                } catch (final NumberFormatException e) {
+                    Log.error(TAG, "Not a valid song position.", e);
+                }
+                break;
+            case "Time":
+                try {
+                    mTime = Long.parseLong(value);
+                } catch (final NumberFormatException e) {
+                    Log.error(TAG, "Not a valid time number.", e);
+                }
+                break;
+            case "Title":
+                mTitle = value;
+                break;
+            case "Track":
+                final int trackIndex = value.indexOf('/');
+
+                try {
+                    if (trackIndex == -1) {
+                        mTrack = Integer.parseInt(value);
+                    } else {
+                        mTrack = Integer.parseInt(value.substring(0, trackIndex));
+                        mTotalTracks = Integer.parseInt(value.substring(trackIndex + 1));
+                    }
+                } catch (final NumberFormatException e) {
+                    Log.warning(TAG, "Not a valid track number.", e);
+                }
+                break;
+            default:
+                /**
+                 * Ignore everything else, there are a lot of
+                 * uninteresting blocks the server might send.
+                 */
+                break;
+        }
+    }
+
+    /**
+     * Writes a {@code Music} item in a compact binary form, to be read back by
+     * {@link #read(DataInput)}.
+     *
+     * @param music  The item to write.
+     * @param output The output to write the item to.
+     * @throws IOException Thrown if the item could not be written.
+     */
+    public static void write(final Music music, final DataOutput output) throws IOException {
+        writeString(output, music.mAlbum);
+        writeString(output, music.mArtist);
+        writeString(output, music.mAlbumArtist);
+        writeString(output, music.mComposer);
+        writeString(output, music.mFullPath);
+        output.writeInt(music.mDisc);
+        output.writeLong(music.mDate);
+        writeString(output, music.mGenre);
+        output.writeLong(music.mTime);
+        writeString(output, music.mTitle);
+        output.writeInt(music.mTotalTracks);
+        output.writeInt(music.mTrack);
+        output.writeInt(music.mSongId);
+        output.writeInt(music.mSongPos);
+        writeString(output, music.mName);
+    }
+
+    private static void writeString(final DataOutput output, final String value)
+            throws IOException {
+        output.writeBoolean(value != null);
+
+        if (value != null) {
+            output.writeUTF(value);
+        }
+    }
+
+    private void reset() {
+        mAlbum = null;
+        mArtist = null;
+        mAlbumArtist = null;
+        mComposer = null;
+        mFullPath = null;
+        mDisc = UNDEFINED_INT;
+        mDate = -1L;
+        mGenre = null;
+        mTime = -1L;
+        mTitle = null;
+        mTotalTracks = UNDEFINED_INT;
+        mTrack = UNDEFINED_INT;
+        mSongId = UNDEFINED_INT;
+        mSongPos = UNDEFINED_INT;
+        mName = null;
+        mIsEmpty = true;
+    }
+}
@@ -0,0 +1,288 @@
+/*
+ * Copyright (C) 2004 Felipe Gustavo de Almeida
+ * Copyright (C) 2010-2014 The MPDroid Project
+ *
+ * All Rights Reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice,this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE AUTHOR AND CONTRIBUTORS ``AS IS'' AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED.  IN NO EVENT SHALL THE AUTHOR OR CONTRIBUTORS BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ * THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.a0z.mpd.subsystem;
+
+import org.a0z.mpd.CommandQueue;
+import org.a0z.mpd.MPDCommand;
+import org.a0z.mpd.connection.BinaryResponseHandler;
+import org.a0z.mpd.connection.MPDConnection;
+import org.a0z.mpd.exception.InvalidResponseException;
+import org.a0z.mpd.exception.MPDException;
+
+import java.io.IOException;
+
+/**
+ * A class to retrieve cover art through the
+ * <A HREF="http://www.musicpd.org/doc/protocol/database.html">database</A> subsystem of the
+ * <A HREF="http://www.musicpd.org/doc/protocol">MPD protocol</A>. The cover art is transferred
+ * over the media server connection in chunks, so no separate HTTP server is required.
+ */
+public class Artwork {
+
+    /**
+     * Command text required to generate a command to retrieve the cover art file from the
+     * directory of a song.
+     * <BR><BR>
+     * <B>Protocol command syntax:</B><BR> {@code albumart {URI} {OFFSET}}
+     * <BR><BR>
+     * <BR><B>Sample protocol output:</B><BR>
+     * {@code albumart foo/bar.ogg 0}<BR>
+     * {@code size: 1024768}<BR>
+     * {@code binary: 8192}<BR>
+     * {@code <8192 bytes>}<BR>
+     * {@code OK}
+     */
+    public static final String CMD_ACTION_ALBUM_ART = "albumart";
+
+    /**
+     * Command text required to generate a command to set the maximum chunk size of binary
+     * responses for the current connection.
+     * <BR><BR>
+     * <B>Protocol command syntax:</B><BR> {@code binarylimit {SIZE}}
+     */
+    public static final String CMD_ACTION_BINARY_LIMIT = "binarylimit";
+
+    /**
+     * Command text required to generate a command to retrieve the picture embedded in a song.
+     * <BR><BR>
+     * <B>Protocol command syntax:</B><BR> {@code readpicture {URI} {OFFSET}}
+     * <BR><BR>
+     * <BR><B>Sample protocol output:</B><BR>
+     * {@code readpicture foo/bar.ogg 0}<BR>
+     * {@code size: 1024768}<BR>
+     * {@code type: image/jpeg}<BR>
+     * {@code binary: 8192}<BR>
+     * {@code <8192 bytes>}<BR>
+     * {@code OK}
+     */
+    public static final String CMD_ACTION_READ_PICTURE = "readpicture";
+
+    /** The chunk size used by the media server if no {@link #CMD_ACTION_BINARY_LIMIT} is sent. */
+    public static final int DEFAULT_BINARY_LIMIT = 8192;
+
+    /**
+     * The largest picture size accepted, the buffer being allocated from the size announced by
+     * the media server before any picture data is read.
+     */
+    public static final int MAXIMUM_PICTURE_SIZE = 16 * 1024 * 1024;
+
+    /** The smallest chunk size accepted by the media server. */
+    public static final int MINIMUM_BINARY_LIMIT = 64;
+
+    /** The response key giving the total size of the picture. */
+    private static final String CMD_RESPONSE_SIZE = "size";
+
+    /** Do not throw an exception when a picture does not exist. */
+    private static final int[] NONFATAL_ERRORS = {MPDException.ACK_ERROR_NO_EXIST};
+
+    /** The connection to retrieve the pictures from. */
+    private final MPDConnection mConnection;
+
+    /** The chunk size requested from the media server. */
+    private int mBinaryLimit = DEFAULT_BINARY_LIMIT;
+
+    public Artwork(final MPDConnection connection) {
+        super();
+
+        mConnection = connection;
+    }
+
+    /**
+     * Retrieves the cover art file (e.g. {@code cover.jpg}) from the directory of a song.
+     *
+     * @param uri The URI of the song, or of its directory.
+     * @return The picture data, null if no picture exists or the media server does not support
+     * this command.
+     * @throws IOException  Thrown upon a communication error with the server.
+     * @throws MPDException Thrown if an error occurs as a result of command execution.
+     */
+    public byte[] getAlbumArt(final String uri) throws IOException, MPDException {
+        return getPicture(CMD_ACTION_ALBUM_ART, uri);
+    }
+
+    public int getBinaryLimit() {
+        return mBinaryLimit;
+    }
+
+    /**
+     * Retrieves a picture, one chunk at a time.
+     *
+     * @param command The command used to retrieve the picture.
+     * @param uri     The URI of the song.
+     * @return The picture data, null if no picture exists or the media server does not support
+     * the {@code command}.
+     * @throws IOException  Thrown upon a communication error with the server.
+     * @throws MPDException Thrown if an error occurs as a result of command execution.
+     */
+    private byte[] getPicture(final String command, final String uri)
+            throws IOException, MPDException {
+        byte[] picture = null;
+
+        if (mConnection.isCommandAvailable(command)) {
+            final ChunkHandler handler = new ChunkHandler();
+
+            do {
+                handler.mIsChunkRead = false;
+                sendChunkCommand(command, uri, handler);
+
+                if (handler.mError != null) {
+                    throw handler.mError;
+                }
+            } while (handler.mIsChunkRead && handler.mLength < handler.mSize);
+
+            if (handler.mLength > 0 && handler.mLength == handler.mSize) {
+                picture = handler.mBuffer;
+            }
+        }
+
+        return picture;
+    }
+
+    /**
+     * Retrieves the picture embedded in a song.
+     *
+     * @param uri The URI of the song.
+     * @return The picture data, null if no picture exists or the media server does not support
+     * this command.
+     * @throws IOException  Thrown upon a communication error with the server.
+     * @throws MPDException Thrown if an error occurs as a result of command execution.
+     */
+    public byte[] readPicture(final String uri) throws IOException, MPDException {
+        return getPicture(CMD_ACTION_READ_PICTURE, uri);
+    }
+
+    /**
+     * Sends the command for one chunk of a picture. As the binary limit is a per connection
+     * setting, it is sent in the same command list as the chunk request when it differs from the
+     * media server default.
+     *
+     * @param command The command used to retrieve the picture.
+     * @param uri     The URI of the song.
+     * @param handler The handler of the chunk, holding the offset of the chunk in the picture.
+     * @throws IOException  Thrown upon a communication error with the server.
+     * @throws MPDException Thrown if an error occurs as a result of command execution.
+     */
+    private void sendChunkCommand(final String command, final String uri,
+            final ChunkHandler handler) throws IOException, MPDException {
+        final MPDCommand chunkCommand = new MPDCommand(command, NONFATAL_ERRORS, uri,
+                Integer.toString(handler.mLength));
+
+        if (mBinaryLimit == DEFAULT_BINARY_LIMIT ||
+                !mConnection.isCommandAvailable(CMD_ACTION_BINARY_LIMIT)) {
+            mConnection.sendCommand(chunkCommand, handler);
+        } else {
+            final CommandQueue commandQueue = new CommandQueue(2);
+
+            commandQueue.add(CMD_ACTION_BINARY_LIMIT, Integer.toString(mBinaryLimit));
+            commandQueue.add(chunkCommand);
+            commandQueue.send(mConnection, handler);
+        }
+    }
+
+    /**
+     * Sets the maximum chunk size requested from the media server. Larger chunks need fewer
+     * round trips, smaller chunks hold the connection for a shorter time.
+     *
+     * @param binaryLimit The chunk size, in bytes.
+     */
+    public void setBinaryLimit(final int binaryLimit) {
+        if (binaryLimit < MINIMUM_BINARY_LIMIT) {
+            throw new IllegalArgumentException("Binary limit must be at least " +
+                    MINIMUM_BINARY_LIMIT + ": " + binaryLimit);
+        }
+
+        mBinaryLimit = binaryLimit;
+    }
+
+    /**
+     * This class copies the chunks of a picture into one buffer as they are read. An invalid
+     * response is not thrown from the handler, the rest of the response would be left unread on
+     * the connection; it is recorded and the remaining data ignored instead.
+     */
+    private static final class ChunkHandler implements BinaryResponseHandler {
+
+        /** The picture buffer, allocated once the total size is known, filled by each chunk. */
+        private byte[] mBuffer;
+
+        /** The reason the picture was rejected, null while the response is valid. */
+        private InvalidResponseException mError;
+
+        /** Set once a chunk was read for the last command. */
+        private boolean mIsChunkRead;
+
+        /** The number of bytes of the picture read so far. */
+        private int mLength;
+
+        /** The total size of the picture, -1 if not yet known. */
+        private int mSize = -1;
+
+        @Override
+        public void handle(final String key, final String value) {
+            if (mError == null && CMD_RESPONSE_SIZE.equals(key)) {
+                try {
+                    setSize(Integer.parseInt(value));
+                } catch (final NumberFormatException e) {
+                    mError = new InvalidResponseException("Invalid picture size: " + value, e);
+                }
+            }
+        }
+
+        @Override
+        public void handleBinary(final byte[] data) {
+            if (mError == null) {
+                if (mBuffer == null || mLength + data.length > mBuffer.length) {
+                    mError = new InvalidResponseException(
+                            "Picture data exceeds the announced size.");
+                } else {
+                    System.arraycopy(data, 0, mBuffer, mLength, data.length);
+                    mLength += data.length;
+                    mIsChunkRead = data.length > 0;
+                }
+            }
+        }
+
+        /**
+         * Allocates the picture buffer for the size announced with the first chunk, checking the
+         * size announced with the next chunks is the same.
+         *
+         * @param size The picture size announced by the media server.
+         */
+        private void setSize(final int size) {
+            if (size < 0 || size > MAXIMUM_PICTURE_SIZE) {
+                mError = new InvalidResponseException("Picture size out of range: " + size);
+            } else if (mBuffer == null) {
+                mBuffer = new byte[size];
+                mSize = size;
+            } else if (size != mSize) {
+                /** The picture changed between chunks, the chunks read so far are stale. */
+                mError = new InvalidResponseException("Picture size changed from " + mSize +
+                        " to " + size + '.');
+            }
+        }
+    }
+}
@@ -32,6 +32,7 @@ import org.a0z.mpd.Log;
 import org.a0z.mpd.MPDCommand;
 import org.a0z.mpd.Tools;
 import org.a0z.mpd.connection.MPDConnection;
+import org.a0z.mpd.connection.ResponseHandler;
 import org.a0z.mpd.exception.MPDException;
 import org.a0z.mpd.item.FilesystemTreeEntry;
 import org.a0z.mpd.item.Music;
@@ -275,31 +276,23 @@ public class Sticker {
             throws IOException, MPDException {
         onlyMusicSupported(entry);
 
-        String foundSticker = null;
+        final Map<String, String> foundStickers = new HashMap<>(1);
 
         if (isAvailable()) {
             /** Do not throw exception when attempting to retrieve a non-existant sticker. */
             final int[] nonfatalErrors = {MPDException.ACK_ERROR_NO_EXIST};
-            final List<String> response = mConnection.sendCommand(CMD_ACTION_GET, nonfatalErrors,
+            final MPDCommand command = new MPDCommand(CMD_ACTION_GET, nonfatalErrors,
                     CMD_STICKER_TYPE_SONG, entry.getFullPath(), name);
 
-            if (response == null) {
-                if (DEBUG) {
-                    Log.debug(TAG, "No responses received from sticker get query. FullPath: " +
-                            entry.getFullPath());
-                }
-            } else {
-                for (final String[] sticker : Tools.splitResponse(response)) {
-                    if (CMD_RESPONSE_STICKER.equals(sticker[KEY])) {
-                        final int index = sticker[VALUE].indexOf('=');
+            mConnection.sendCommand(command, new StickerHandler(foundStickers));
 
-                        foundSticker = sticker[VALUE].substring(index + 1);
-                    }
-                }
+            if (DEBUG && foundStickers.isEmpty()) {
+                Log.debug(TAG, "No responses received from sticker get query. FullPath: " +
+                        entry.getFullPath());
             }
         }
 
-        return foundSticker;
+        return foundStickers.get(name);
     }
 
     /**
@@ -377,27 +370,15 @@ public class Sticker {
         final boolean isAvailable = isAvailable();
 
         if (isAvailable) {
-            final List<String> response = mConnection.sendCommand(CMD_ACTION_LIST,
-                    CMD_STICKER_TYPE_SONG, entry.getFullPath());
-
-            if (response == null) {
-                if (DEBUG) {
-                    Log.debug(TAG, "No responses received from sticker list query. FullPath: " +
-                            entry.getFullPath());
-                }
-                stickers = Collections.emptyMap();
-            } else {
-                stickers = new HashMap<>(response.size());
+            final MPDCommand command = new MPDCommand(CMD_ACTION_LIST, CMD_STICKER_TYPE_SONG,
+                    entry.getFullPath());
 
-                for (final String[] sticker : Tools.splitResponse(response)) {
-                    if (CMD_RESPONSE_STICKER.equals(sticker[KEY])) {
-                        final int delimiterIndex = sticker[VALUE].indexOf('=');
-                        final String stickerKey = sticker[VALUE].substring(0, delimiterIndex);
-                        final String stickerValue = sticker[VALUE].substring(delimiterIndex + 1);
+            stickers = new HashMap<>();
+            mConnection.sendCommand(command, new StickerHandler(stickers));
 
-                        stickers.put(stickerKey, stickerValue);
-                    }
-                }
+            if (DEBUG && stickers.isEmpty()) {
+                Log.debug(TAG, "No responses received from sticker list query. FullPath: " +
+                        entry.getFullPath());
             }
         } else {
             Log.debug(TAG, STICKERS_NOT_AVAILABLE);
@@ -444,4 +425,28 @@ public class Sticker {
 
         set(entry, RATING_STICKER, Integer.toString(boundedRating));
     }
+
+    /**
+     * This class puts each {@code sticker} value of a response into a map as it is read.
+     */
+    private static final class StickerHandler implements ResponseHandler {
+
+        private final Map<String, String> mStickers;
+
+        StickerHandler(final Map<String, String> stickers) {
+            super();
+
+            mStickers = stickers;
+        }
+
+        @Override
+        public void handle(final String key, final String value) {
+            if (CMD_RESPONSE_STICKER.equals(key)) {
+                final int delimiterIndex = value.indexOf('=');
+
+                mStickers.put(value.substring(0, delimiterIndex),
+                        value.substring(delimiterIndex + 1));
+            }
+        }
+    }
 }
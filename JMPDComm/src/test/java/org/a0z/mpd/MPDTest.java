@@ -0,0 +1,82 @@
+/*
+ * Copyright (C) 2004 Felipe Gustavo de Almeida
+ * Copyright (C) 2010-2014 The MPDroid Project
+ *
+ * All Rights Reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice,this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE AUTHOR AND CONTRIBUTORS ``AS IS'' AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED.  IN NO EVENT SHALL THE AUTHOR OR CONTRIBUTORS BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ * THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+
+package org.a0z.mpd;
+
+import org.a0z.mpd.connection.ScriptedConnection;
+import org.a0z.mpd.exception.MPDException;
+import org.a0z.mpd.item.Album;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class MPDTest {
+
+    @Test
+    public void getFirstTracksKeepsFirstFailure() throws Exception {
+        final ScriptedConnection connection = new ScriptedConnection();
+        final MPD mpd = new MPD(connection, new ScriptedConnection());
+        final List<Album> albums = Arrays.asList(new Album("First", null),
+                new Album("Second", null), new Album("Third", null));
+
+        /** Only the first lookup is answered, the next ones fail as unexpected commands. */
+        connection.addResponse();
+
+        try {
+            mpd.getFirstTracks(albums);
+            fail("The failed lookup was not reported.");
+        } catch (final MPDException e) {
+            /** The failure of the drained lookup must not replace the one reported. */
+            assertTrue(e.getMessage().contains("Second"));
+        }
+
+        assertEquals(3, connection.getCommands().size());
+    }
+
+    @Test
+    public void listArtistsWithEmptyFirstResponse() throws Exception {
+        final ScriptedConnection connection = new ScriptedConnection();
+        final MPD mpd = new MPD(connection, new ScriptedConnection());
+        final List<Album> albums = Arrays.asList(new Album("First", null),
+                new Album("Second", null));
+
+        connection.addResponse("list_OK", "AlbumArtist: Someone", "list_OK");
+
+        final List<String[]> artists = mpd.listArtists(albums, true);
+
+        assertEquals(2, artists.size());
+        assertArrayEquals(new String[0], artists.get(0));
+        assertArrayEquals(new String[]{"Someone"}, artists.get(1));
+    }
+}
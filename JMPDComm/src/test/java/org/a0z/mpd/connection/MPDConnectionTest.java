@@ -0,0 +1,284 @@
+/*
+ * Copyright (C) 2004 Felipe Gustavo de Almeida
+ * Copyright (C) 2010-2014 The MPDroid Project
+ *
+ * All Rights Reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice,this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE AUTHOR AND CONTRIBUTORS ``AS IS'' AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED.  IN NO EVENT SHALL THE AUTHOR OR CONTRIBUTORS BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ * THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.a0z.mpd.connection;
+
+import org.a0z.mpd.MPDCommand;
+import org.junit.Test;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class MPDConnectionTest {
+
+    private static final int COMMANDS_PER_THREAD = 50;
+
+    private static final int READ_WRITE_TIMEOUT = 5000;
+
+    private static final int THREADS = 16;
+
+    /**
+     * Connects to a new echo server.
+     *
+     * @param connection The connection to connect.
+     * @return The connected {@code connection}.
+     * @throws Exception Thrown if the connection failed.
+     */
+    private static MPDConnection connect(final MPDConnection connection) throws Exception {
+        final EchoServer server = new EchoServer();
+
+        connection.connect(InetAddress.getByName("127.0.0.1"), server.getPort(), null);
+
+        return connection;
+    }
+
+    /**
+     * Sends commands from many threads at once, each command being answered with itself, checking
+     * every thread gets the responses of its own commands. The threads are named like the threads
+     * of a default thread pool, which a check on the thread name would take for its own.
+     *
+     * @param connection The connection to send the commands on.
+     * @throws Exception Thrown if a thread was interrupted.
+     */
+    private static void hammer(final MPDConnection connection) throws Exception {
+        final AtomicInteger failures = new AtomicInteger();
+        final List<Thread> threads = new ArrayList<>(THREADS);
+
+        for (int i = 0; i < THREADS; i++) {
+            final int thread = i;
+
+            threads.add(new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    for (int j = 0; j < COMMANDS_PER_THREAD; j++) {
+                        final MPDCommand command = new MPDCommand(MPDCommand.MPD_CMD_FIND,
+                                Integer.toString(thread), Integer.toString(j));
+                        List<String> response = null;
+
+                        try {
+                            if (j % 2 == 0) {
+                                response = connection.sendCommand(command);
+                            } else {
+                                response = connection.submit(command)
+                                        .getResponse((long) READ_WRITE_TIMEOUT);
+                            }
+                        } catch (final Exception ignored) {
+                            /** Counted as a failure below. */
+                        }
+
+                        if (!getEcho(command).equals(response)) {
+                            failures.incrementAndGet();
+                        }
+                    }
+                }
+            }, "pool-" + (i + 1) + "-thread-1"));
+        }
+
+        for (final Thread thread : threads) {
+            thread.start();
+        }
+
+        for (final Thread thread : threads) {
+            thread.join();
+        }
+
+        assertEquals(0, failures.get());
+    }
+
+    private static List<String> getEcho(final MPDCommand command) {
+        return Collections.singletonList(EchoServer.ECHO_PREFIX + command.toString().trim());
+    }
+
+    @Test
+    public void hammerMonoSocket() throws Exception {
+        final MPDConnection connection = connect(new MPDConnectionMonoSocket(READ_WRITE_TIMEOUT));
+
+        try {
+            hammer(connection);
+        } finally {
+            connection.disconnect();
+        }
+    }
+
+    @Test
+    public void hammerMultiSocket() throws Exception {
+        final MPDConnection connection =
+                connect(new MPDConnectionMultiSocket(READ_WRITE_TIMEOUT, 4));
+
+        try {
+            hammer(connection);
+        } finally {
+            connection.disconnect();
+        }
+    }
+
+    @Test
+    public void sendCommandFromExecutorThread() throws Exception {
+        final MPDConnection connection = connect(new MPDConnectionMonoSocket(READ_WRITE_TIMEOUT));
+        final MPDCommand command = new MPDCommand(MPDCommand.MPD_CMD_PING);
+        final AtomicReference<List<String>> response = new AtomicReference<>();
+        final CountDownLatch done = new CountDownLatch(1);
+
+        /** The only executor thread is busy, a queued command would never be processed. */
+        connection.executeTask(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    response.set(connection.sendCommand(command));
+                } catch (final Exception ignored) {
+                    /** Reported by the response check. */
+                }
+                done.countDown();
+            }
+        });
+
+        try {
+            assertTrue(done.await((long) READ_WRITE_TIMEOUT, TimeUnit.MILLISECONDS));
+            assertEquals(getEcho(command), response.get());
+        } finally {
+            connection.disconnect();
+        }
+    }
+
+    @Test
+    public void submitFromExecutorThread() throws Exception {
+        final MPDConnection connection = connect(new MPDConnectionMonoSocket(READ_WRITE_TIMEOUT));
+        final MPDCommand command = new MPDCommand(MPDCommand.MPD_CMD_PING);
+        final AtomicReference<List<String>> response = new AtomicReference<>();
+        final CountDownLatch done = new CountDownLatch(1);
+
+        connection.executeTask(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    response.set(connection.submit(command)
+                            .getResponse((long) READ_WRITE_TIMEOUT));
+                } catch (final Exception ignored) {
+                    /** Reported by the response check. */
+                }
+                done.countDown();
+            }
+        });
+
+        try {
+            assertTrue(done.await((long) READ_WRITE_TIMEOUT, TimeUnit.MILLISECONDS));
+            assertEquals(getEcho(command), response.get());
+        } finally {
+            connection.disconnect();
+        }
+    }
+
+    /**
+     * A media server which answers each command with the command itself, on as many connections
+     * as opened to it.
+     */
+    private static final class EchoServer implements Runnable {
+
+        private static final String ECHO_PREFIX = "echo: ";
+
+        private final ServerSocket mServerSocket;
+
+        EchoServer() throws IOException {
+            super();
+
+            mServerSocket = new ServerSocket(0, 0, InetAddress.getByName("127.0.0.1"));
+            start(this);
+        }
+
+        private static void start(final Runnable runnable) {
+            final Thread thread = new Thread(runnable, "EchoServer");
+
+            thread.setDaemon(true);
+            thread.start();
+        }
+
+        int getPort() {
+            return mServerSocket.getLocalPort();
+        }
+
+        @Override
+        public void run() {
+            while (!mServerSocket.isClosed()) {
+                try {
+                    final Socket socket = mServerSocket.accept();
+
+                    start(new Runnable() {
+                        @Override
+                        public void run() {
+                            serve(socket);
+                        }
+                    });
+                } catch (final IOException ignored) {
+                    break;
+                }
+            }
+        }
+
+        private void serve(final Socket socket) {
+            try {
+                final BufferedReader reader = new BufferedReader(
+                        new InputStreamReader(socket.getInputStream(), "UTF-8"));
+                final Writer writer = new OutputStreamWriter(socket.getOutputStream(), "UTF-8");
+                String line;
+
+                writer.write("OK MPD 0.19.0\n");
+                writer.flush();
+
+                while ((line = reader.readLine()) != null) {
+                    if (!"commands".equals(line)) {
+                        writer.write(ECHO_PREFIX + line + '\n');
+                    }
+                    writer.write("OK\n");
+                    writer.flush();
+                }
+            } catch (final IOException ignored) {
+                /** The client closed the connection. */
+            } finally {
+                try {
+                    socket.close();
+                } catch (final IOException ignored) {
+                }
+            }
+        }
+    }
+}
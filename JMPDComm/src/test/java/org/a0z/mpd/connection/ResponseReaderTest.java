@@ -0,0 +1,143 @@
+/*
+ * Copyright (C) 2004 Felipe Gustavo de Almeida
+ * Copyright (C) 2010-2014 The MPDroid Project
+ *
+ * All Rights Reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice,this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE AUTHOR AND CONTRIBUTORS ``AS IS'' AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED.  IN NO EVENT SHALL THE AUTHOR OR CONTRIBUTORS BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ * THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.a0z.mpd.connection;
+
+import org.a0z.mpd.exception.InvalidResponseException;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.nio.charset.Charset;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class ResponseReaderTest {
+
+    private static final int CHANNEL_BUFFER_SIZE = 64;
+
+    private static final Charset CHARSET = Charset.forName("UTF-8");
+
+    /** A buffer smaller than most lines, so lines span buffer refills and the buffer grows. */
+    private static final int SMALL_BUFFER_SIZE = 4;
+
+    private static ResponseReader createReader(final String response) {
+        return new ResponseReader(new ByteArrayInputStream(response.getBytes(CHARSET)),
+                SMALL_BUFFER_SIZE);
+    }
+
+    @Test(expected = InvalidResponseException.class)
+    public void getIntValueRejectsInvalidNumber() throws IOException {
+        final ResponseReader reader = createReader("Time: 12a\n");
+
+        reader.nextLine();
+        reader.getIntValue();
+    }
+
+    @Test(expected = InvalidResponseException.class)
+    public void getKeyRejectsLineWithoutDelimiter() throws IOException {
+        final ResponseReader reader = createReader("garbage\n");
+
+        reader.nextLine();
+        reader.getKey();
+    }
+
+    @Test
+    public void getKeyReusesRepeatedKeys() throws IOException {
+        final ResponseReader reader = createReader("Artist: First\nArtist: Second\n");
+
+        reader.nextLine();
+        final String key = reader.getKey();
+        reader.nextLine();
+
+        assertSame(key, reader.getKey());
+        assertEquals("Second", reader.getValue());
+    }
+
+    @Test
+    public void nextLineAcrossBufferRefills() throws IOException {
+        final ResponseReader reader =
+                createReader("file: \u00C4rtist/Song.ogg\r\nTime: 4242\nTitle:\nOK\n");
+
+        assertTrue(reader.nextLine());
+        assertEquals("file", reader.getKey());
+        assertEquals("\u00C4rtist/Song.ogg", reader.getValue());
+
+        assertTrue(reader.nextLine());
+        assertEquals("Time", reader.getKey());
+        assertEquals(4242, reader.getIntValue());
+
+        assertTrue(reader.nextLine());
+        assertEquals("Title", reader.getKey());
+        assertEquals("", reader.getValue());
+
+        assertEquals("OK", reader.readLine());
+        assertNull(reader.readLine());
+    }
+
+    @Test
+    public void readBinaryBetweenLines() throws IOException {
+        final ResponseReader reader = createReader("size: 6\nbinary: 6\nab\ncd\n\nOK\n");
+
+        reader.nextLine();
+        assertEquals(6, reader.getIntValue());
+
+        reader.nextLine();
+        assertTrue(reader.lineStartsWith(ResponseReader.BINARY_PREFIX));
+        assertArrayEquals("ab\ncd\n".getBytes(CHARSET), reader.readBinary());
+
+        assertEquals("OK", reader.readLine());
+    }
+
+    @Test(expected = InvalidResponseException.class)
+    public void readBinaryRejectsUnterminatedFrame() throws IOException {
+        final ResponseReader reader = createReader("binary: 2\nabcOK\n");
+
+        reader.nextLine();
+        reader.readBinary();
+    }
+
+    @Test
+    public void readFromChannelKeepsPartialLine() throws IOException {
+        /** Each feed fits in the buffer, so a single read consumes it. */
+        final ResponseReader reader = new ResponseReader(CHANNEL_BUFFER_SIZE);
+
+        reader.read(Channels.newChannel(new ByteArrayInputStream("Time: 4".getBytes(CHARSET))));
+        assertFalse(reader.nextLine());
+
+        reader.read(Channels.newChannel(new ByteArrayInputStream("2\nOK".getBytes(CHARSET))));
+        assertTrue(reader.nextLine());
+        assertEquals(42, reader.getIntValue());
+        assertFalse(reader.nextLine());
+    }
+}
@@ -0,0 +1,145 @@
+/*
+ * Copyright (C) 2004 Felipe Gustavo de Almeida
+ * Copyright (C) 2010-2014 The MPDroid Project
+ *
+ * All Rights Reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice,this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE AUTHOR AND CONTRIBUTORS ``AS IS'' AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED.  IN NO EVENT SHALL THE AUTHOR OR CONTRIBUTORS BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ * THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+
+package org.a0z.mpd.connection;
+
+import org.a0z.mpd.MPDCommand;
+import org.a0z.mpd.exception.MPDException;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Queue;
+
+/**
+ * A connection which answers each command with the next scripted response, without a media
+ * server, and keeps the commands it was sent. A {@code binary: N} line of a response streamed to
+ * a {@link BinaryResponseHandler} is followed by a frame of {@code N} zero bytes.
+ */
+public class ScriptedConnection extends MPDConnectionMonoSocket {
+
+    private final Collection<String> mAvailableCommands = new HashSet<>();
+
+    private final List<String> mCommands = new ArrayList<>();
+
+    private final Queue<List<String>> mResponses = new LinkedList<>();
+
+    public ScriptedConnection() {
+        super(0);
+    }
+
+    /**
+     * Makes a command available, as if listed by the {@code commands} command.
+     *
+     * @param command The command to make available.
+     */
+    public void addAvailableCommand(final String command) {
+        mAvailableCommands.add(command);
+    }
+
+    /**
+     * Adds the response to the next command which has no response yet.
+     *
+     * @param lines The lines of the response, without the final {@code OK}.
+     */
+    public void addResponse(final String... lines) {
+        mResponses.add(Arrays.asList(lines));
+    }
+
+    /**
+     * The commands sent to this connection, as written to the media server.
+     *
+     * @return The commands sent, in the order they were sent.
+     */
+    public List<String> getCommands() {
+        return mCommands;
+    }
+
+    @Override
+    public boolean isCommandAvailable(final String command) {
+        return mAvailableCommands.contains(command);
+    }
+
+    /**
+     * Records a command and retrieves its scripted response.
+     *
+     * @param command The command sent.
+     * @return The response to the command.
+     * @throws MPDException Thrown if no response is left, as an unexpected command.
+     */
+    private List<String> respond(final MPDCommand command) throws MPDException {
+        mCommands.add(command.toString());
+
+        if (mResponses.isEmpty()) {
+            throw new MPDException("Unexpected command: " + command);
+        }
+
+        return mResponses.remove();
+    }
+
+    @Override
+    public List<String> sendCommand(final MPDCommand command) throws MPDException {
+        return respond(command);
+    }
+
+    @Override
+    public void sendCommand(final MPDCommand command, final ResponseHandler handler)
+            throws MPDException {
+        for (final String line : respond(command)) {
+            final int index = line.indexOf(": ");
+            final String key = line.substring(0, index);
+            final String value = line.substring(index + 2);
+
+            handler.handle(key, value);
+            if ("binary".equals(key) && handler instanceof BinaryResponseHandler) {
+                ((BinaryResponseHandler) handler).handleBinary(new byte[Integer.parseInt(value)]);
+            }
+        }
+    }
+
+    @Override
+    public List<CommandFuture> submit(final Iterable<MPDCommand> commands) {
+        final List<CommandFuture> futures = new ArrayList<>();
+
+        for (final MPDCommand command : commands) {
+            final CommandFuture future = new CommandFuture(command);
+
+            try {
+                future.setResult(respond(command));
+            } catch (final MPDException e) {
+                future.setException(e);
+            }
+            futures.add(future);
+        }
+
+        return futures;
+    }
+}
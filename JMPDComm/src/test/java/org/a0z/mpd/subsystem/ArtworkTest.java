@@ -0,0 +1,103 @@
+/*
+ * Copyright (C) 2004 Felipe Gustavo de Almeida
+ * Copyright (C) 2010-2014 The MPDroid Project
+ *
+ * All Rights Reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice,this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE AUTHOR AND CONTRIBUTORS ``AS IS'' AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED.  IN NO EVENT SHALL THE AUTHOR OR CONTRIBUTORS BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ * THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.a0z.mpd.subsystem;
+
+import org.a0z.mpd.connection.ScriptedConnection;
+import org.a0z.mpd.exception.InvalidResponseException;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+public class ArtworkTest {
+
+    private static ScriptedConnection createConnection() {
+        final ScriptedConnection connection = new ScriptedConnection();
+
+        connection.addAvailableCommand(Artwork.CMD_ACTION_ALBUM_ART);
+
+        return connection;
+    }
+
+    private static void assertRejected(final ScriptedConnection connection) throws Exception {
+        try {
+            new Artwork(connection).getAlbumArt("foo/bar.ogg");
+            fail("The invalid picture was not rejected.");
+        } catch (final InvalidResponseException ignored) {
+            /** Expected. */
+        }
+    }
+
+    @Test
+    public void getAlbumArtInChunks() throws Exception {
+        final ScriptedConnection connection = createConnection();
+
+        connection.addResponse("size: 10", "binary: 6");
+        connection.addResponse("size: 10", "binary: 4");
+
+        assertEquals(10, new Artwork(connection).getAlbumArt("foo/bar.ogg").length);
+        assertEquals(2, connection.getCommands().size());
+    }
+
+    @Test
+    public void getAlbumArtRejectsChangedSize() throws Exception {
+        final ScriptedConnection connection = createConnection();
+
+        connection.addResponse("size: 10", "binary: 6");
+        connection.addResponse("size: 12", "binary: 6");
+
+        assertRejected(connection);
+    }
+
+    @Test
+    public void getAlbumArtRejectsExcessData() throws Exception {
+        final ScriptedConnection connection = createConnection();
+
+        connection.addResponse("size: 4", "binary: 6");
+
+        assertRejected(connection);
+    }
+
+    @Test
+    public void getAlbumArtRejectsNegativeSize() throws Exception {
+        final ScriptedConnection connection = createConnection();
+
+        connection.addResponse("size: -1", "binary: 0");
+
+        assertRejected(connection);
+    }
+
+    @Test
+    public void getAlbumArtRejectsOversizedPicture() throws Exception {
+        final ScriptedConnection connection = createConnection();
+
+        connection.addResponse("size: " + (Artwork.MAXIMUM_PICTURE_SIZE + 1), "binary: 0");
+
+        assertRejected(connection);
+    }
+}
@@ -0,0 +1,115 @@
+/*
+ * Copyright (C) 2010-2014 The MPDroid Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.namelessdev.mpdroid.cover;
+
+import com.namelessdev.mpdroid.MPDApplication;
+import com.namelessdev.mpdroid.helpers.AlbumInfo;
+
+import org.a0z.mpd.exception.MPDException;
+import org.a0z.mpd.subsystem.Artwork;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import static android.text.TextUtils.isEmpty;
+
+/**
+ * A cover retriever which retrieves cover art over the media server connection itself, using
+ * the cover art file from the album directory or the picture embedded in the song. This requires
+ * no HTTP server, and makes no requests for covers which do not exist.
+ */
+public class MPDCover implements ICoverRetriever {
+
+    public static final String RETRIEVER_NAME = "MPD Server";
+
+    private static final String URL_PREFIX_ALBUM_ART = "mpd-albumart:";
+
+    private static final String URL_PREFIX_READ_PICTURE = "mpd-readpicture:";
+
+    private static final MPDApplication sApp = MPDApplication.getInstance();
+
+    /**
+     * Retrieves the cover art for a URL returned by {@link #getCoverUrl(AlbumInfo)}.
+     *
+     * @param url The cover URL.
+     * @return The cover art, null if none exists.
+     * @throws IOException  Thrown upon a communication error with the server.
+     * @throws MPDException Thrown if an error occurs as a result of command execution.
+     */
+    public static byte[] download(final String url) throws IOException, MPDException {
+        final Artwork artwork = sApp.oMPDAsyncHelper.oMPD.getArtwork();
+        final byte[] cover;
+
+        if (url.startsWith(URL_PREFIX_ALBUM_ART)) {
+            cover = artwork.getAlbumArt(url.substring(URL_PREFIX_ALBUM_ART.length()));
+        } else if (url.startsWith(URL_PREFIX_READ_PICTURE)) {
+            cover = artwork.readPicture(url.substring(URL_PREFIX_READ_PICTURE.length()));
+        } else {
+            throw new IllegalArgumentException("Not a media server cover URL: " + url);
+        }
+
+        return cover;
+    }
+
+    /**
+     * Checks whether a URL is to be retrieved with {@link #download(String)}.
+     *
+     * @param url The cover URL.
+     * @return True if the URL was generated by this retriever, false otherwise.
+     */
+    public static boolean isMPDCoverUrl(final String url) {
+        return url.startsWith(URL_PREFIX_ALBUM_ART) || url.startsWith(URL_PREFIX_READ_PICTURE);
+    }
+
+    @Override
+    public String[] getCoverUrl(final AlbumInfo albumInfo) throws Exception {
+        if (isEmpty(albumInfo.getPath()) || !sApp.oMPDAsyncHelper.oMPD.isConnected()) {
+            return new String[0];
+        }
+
+        final String uri;
+        if (isEmpty(albumInfo.getFilename())) {
+            uri = albumInfo.getPath();
+        } else {
+            uri = albumInfo.getPath() + '/' + albumInfo.getFilename();
+        }
+
+        final List<String> urls = new ArrayList<>(2);
+        if (sApp.oMPDAsyncHelper.oMPD.isCommandAvailable(Artwork.CMD_ACTION_ALBUM_ART)) {
+            urls.add(URL_PREFIX_ALBUM_ART + uri);
+        }
+
+        /** Embedded pictures can only be read from a song. */
+        if (!isEmpty(albumInfo.getFilename()) &&
+                sApp.oMPDAsyncHelper.oMPD.isCommandAvailable(Artwork.CMD_ACTION_READ_PICTURE)) {
+            urls.add(URL_PREFIX_READ_PICTURE + uri);
+        }
+
+        return urls.toArray(new String[urls.size()]);
+    }
+
+    @Override
+    public String getName() {
+        return RETRIEVER_NAME;
+    }
+
+    @Override
+    public boolean isCoverLocal() {
+        return false;
+    }
+}
@@ -128,16 +128,21 @@ public class AlbumsFragment extends BrowseFragment {
         final boolean sortByYear = settings.getBoolean(ALBUM_YEAR_SORT_KEY, false);
 
         try {
-            mItems = mApp.oMPDAsyncHelper.oMPD.getAlbums(mArtist, sortByYear, mIsCountDisplayed);
+            final List<Album> albums =
+                    mApp.oMPDAsyncHelper.oMPD.getAlbums(mArtist, sortByYear, mIsCountDisplayed);
+            mItems = albums;
 
             if (sortByYear) {
-                Collections.sort((List<? extends Album>) mItems, Album.SORT_BY_YEAR);
+                Collections.sort(albums, Album.SORT_BY_YEAR);
             }
 
             if (mGenre != null) { // filter albums not in genre
-                for (int i = mItems.size() - 1; i >= 0; i--) {
-                    if (!mApp.oMPDAsyncHelper.oMPD.isAlbumInGenre((Album) mItems.get(i), mGenre)) {
-                        mItems.remove(i);
+                final boolean[] inGenre =
+                        mApp.oMPDAsyncHelper.oMPD.areAlbumsInGenre(albums, mGenre);
+
+                for (int i = albums.size() - 1; i >= 0; i--) {
+                    if (!inGenre[i]) {
+                        albums.remove(i);
                     }
                 }
             }
@@ -268,10 +268,12 @@ public class FSFragment extends BrowseFragment {
     }
 
     private void refreshDirectory() {
+        final Directory root = mApp.oMPDAsyncHelper.oMPD.getRootDirectory();
+
         if (TextUtils.isEmpty(mDirectory)) {
-            mCurrentDirectory = Directory.getRoot();
+            mCurrentDirectory = root;
         } else {
-            mCurrentDirectory = Directory.getRoot().makeChildDirectory(mDirectory);
+            mCurrentDirectory = root.makeChildDirectory(mDirectory);
         }
 
         try {
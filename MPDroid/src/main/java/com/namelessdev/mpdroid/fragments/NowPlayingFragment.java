@@ -835,6 +835,7 @@ public class NowPlayingFragment extends Fragment implements StatusChangeListener
             case CoverManager.PREFERENCE_CACHE:
             case CoverManager.PREFERENCE_LASTFM:
             case CoverManager.PREFERENCE_LOCALSERVER:
+            case CoverManager.PREFERENCE_MPD:
                 CoverAsyncHelper.setCoverRetrieversFromPreferences();
                 break;
             case "enableStopButton":
@@ -152,15 +152,8 @@ public class QueueFragment extends ListFragment implements StatusChangeListener,
     public void connectionStateChanged(final boolean connected, final boolean connectionLost) {
     }
 
-    protected AbstractPlaylistMusic getPlaylistItemSong(final int songID) {
-        AbstractPlaylistMusic song = null;
-        for (final AbstractPlaylistMusic music : mSongList) {
-            if (music.getSongId() == songID) {
-                song = music;
-                break;
-            }
-        }
-        return song;
+    protected Music getPlaylistItemSong(final int songID) {
+        return mApp.oMPDAsyncHelper.oMPD.getPlaylist().getById(songID);
     }
 
     protected boolean isFiltered(final String item) {
@@ -338,7 +331,7 @@ public class QueueFragment extends ListFragment implements StatusChangeListener,
     @Override
     public boolean onMenuItemClick(final MenuItem item) {
         final Intent intent;
-        final AbstractPlaylistMusic music;
+        final Music music;
 
         switch (item.getItemId()) {
             case R.id.PLCX_playNext:
@@ -643,8 +636,8 @@ public class QueueFragment extends ListFragment implements StatusChangeListener,
         // The position in the song list of the currently played song
         int listPlayingID = -1;
 
-        // Copy list to avoid concurrent exception
-        for (final Music music : new ArrayList<>(musics)) {
+        // The playlist is an immutable snapshot, it is safe to iterate
+        for (final Music music : musics) {
             if (music == null) {
                 continue;
             }
@@ -20,22 +20,24 @@ import com.namelessdev.mpdroid.MPDApplication;
 import com.namelessdev.mpdroid.R;
 import com.namelessdev.mpdroid.tools.Tools;
 
+import org.a0z.mpd.LibraryCrawler;
 import org.a0z.mpd.exception.MPDException;
-import org.a0z.mpd.item.Music;
+import org.a0z.mpd.item.Album;
+import org.a0z.mpd.item.Artist;
 
+import android.text.format.DateUtils;
 import android.util.Log;
 
 import java.io.BufferedOutputStream;
-import java.io.DataInput;
 import java.io.DataOutput;
+import java.io.DataOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
-import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Calendar;
@@ -46,12 +48,29 @@ import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
-import java.util.zip.GZIPInputStream;
-import java.util.zip.GZIPOutputStream;
 
 public class AlbumCache {
 
-    static final boolean GZIP = false;
+    /**
+     * The version of the cache file format, to be incremented if the format changes. A file of
+     * another version is discarded, and the cache rebuilt.
+     */
+    private static final int FORMAT_VERSION = 2;
+
+    /** The magic number starting a cache file, "MPDC". */
+    private static final int MAGIC = 0x4D504443;
+
+    /**
+     * The number of times a crawl of the database is resumed within a refresh, as a chunk too
+     * large for the server output buffer fails with a disconnection before it is split.
+     */
+    private static final int MAX_CRAWL_ATTEMPTS = 4;
+
+    /**
+     * How long before the last database update songs are looked up as modified, in case a song
+     * was modified while the media server was updating its database.
+     */
+    private static final long MODIFIED_SINCE_MARGIN = DateUtils.HOUR_IN_MILLIS;
 
     private static final String TAG = "AlbumCache";
 
@@ -59,15 +78,30 @@ public class AlbumCache {
 
     protected Map<String, AlbumDetails> mAlbumDetails; // "artist///album" ->
 
-    // list of albumname, artist, albumartist including ""
-    protected Set<List<String>> mAlbumSet;
+    /** The album, artist and album artist combinations, including "". */
+    protected volatile AlbumIndex mAlbumIndex = new AlbumIndex.Builder().build();
+
+    /** The time of the database update the interrupted crawl started from. */
+    protected Date mCrawlDbUpdate = null;
+
+    /** The songs listed by the interrupted crawl. */
+    protected LibraryTree mCrawlTree = null;
+
+    /** The crawl of the database interrupted by the last refresh, null if none. */
+    protected LibraryCrawler mCrawler = null;
 
     protected boolean mEnabled = true;
 
     protected File mFilesDir;
 
+    /** The time of the media server database update this cache was built from. */
+    protected Date mDbUpdate = null;
+
     protected Date mLastUpdate = null;
 
+    /** The songs of the database by directory, to refresh this cache incrementally. */
+    protected LibraryTree mLibraryTree = new LibraryTree();
+
     protected CachedMPD mMPD;
 
     protected int mPort;
@@ -115,11 +149,46 @@ public class AlbumCache {
 
     public String cacheInfo() {
         return "AlbumCache: " +
-                mAlbumSet.size() + " album/artist combinations, " +
+                mAlbumIndex.size() + " album/artist combinations, " +
                 mUniqueAlbumSet.size() + " unique album/artist combinations, " +
                 "Date: " + mLastUpdate;
     }
 
+    /**
+     * Crawls the entire database, resuming the crawl interrupted by the last refresh if the
+     * database wasn't updated since.
+     *
+     * @param dbUpdate The time of the current database update.
+     * @return The tree of the database.
+     * @throws IOException  Thrown upon a communication error with the server.
+     * @throws MPDException Thrown if an error occurs as a result of command execution.
+     */
+    private LibraryTree crawl(final Date dbUpdate) throws IOException, MPDException {
+        if (mCrawler == null || dbUpdate == null || !dbUpdate.equals(mCrawlDbUpdate)) {
+            mCrawler = mMPD.createLibraryCrawler(LibraryCrawler.DEFAULT_WINDOW_SIZE);
+            mCrawlDbUpdate = dbUpdate;
+            mCrawlTree = new LibraryTree();
+        }
+
+        for (int attempt = 1; !mCrawler.isDone(); attempt++) {
+            try {
+                mCrawler.crawl(mCrawlTree);
+            } catch (final IOException e) {
+                if (attempt >= MAX_CRAWL_ATTEMPTS) {
+                    throw e;
+                }
+                Log.w(TAG, "Crawl interrupted, resuming.", e);
+            }
+        }
+
+        final LibraryTree libraryTree = mCrawlTree;
+        mCrawler = null;
+        mCrawlDbUpdate = null;
+        mCrawlTree = null;
+
+        return libraryTree;
+    }
+
     protected synchronized void deleteFile() {
         final File file = new File(mFilesDir, getFilename());
         Log.d(TAG, "Deleting " + file);
@@ -129,14 +198,7 @@ public class AlbumCache {
     }
 
     public Set<String> getAlbumArtists(final String album, final String artist) {
-        final Set<String> aartists = new HashSet<>();
-        for (final List<String> ai : mAlbumSet) {
-            if (ai.get(0).equals(album) &&
-                    ai.get(1).equals(artist)) {
-                aartists.add(ai.get(2));
-            }
-        }
-        return aartists;
+        return mAlbumIndex.getValues(album, AlbumIndex.ARTIST, artist, AlbumIndex.ALBUM_ARTIST);
     }
 
     public AlbumDetails getAlbumDetails(final String artist, final String album,
@@ -144,32 +206,33 @@ public class AlbumCache {
         return mAlbumDetails.get(albumCode(artist, album, isAlbumArtist));
     }
 
+    /**
+     * Builds the set of album, artist and album artist combinations.
+     *
+     * @return A new set of lists of album name, artist name and album artist name.
+     */
     public Set<List<String>> getAlbumSet() {
-        return mAlbumSet;
+        final AlbumIndex albumIndex = mAlbumIndex;
+        final Set<List<String>> albumSet = new HashSet<>(albumIndex.size());
+
+        for (int i = 0; i < albumIndex.size(); i++) {
+            albumSet.add(Arrays.asList(albumIndex.get(i, AlbumIndex.ALBUM),
+                    albumIndex.get(i, AlbumIndex.ARTIST),
+                    albumIndex.get(i, AlbumIndex.ALBUM_ARTIST)));
+        }
+
+        return albumSet;
     }
 
     public Set<String> getAlbums(final String artist, final boolean albumArtist) {
-        final Set<String> albums = new HashSet<>();
-        for (final List<String> ai : mAlbumSet) {
-            if (albumArtist && ai.get(2).equals(artist) ||
-                    !albumArtist && ai.get(1).equals(artist)) {
-                albums.add(ai.get(0));
-            }
-        }
-        return albums;
+        final int field = albumArtist ? AlbumIndex.ALBUM_ARTIST : AlbumIndex.ARTIST;
+
+        return mAlbumIndex.getValues(field, artist, AlbumIndex.ALBUM);
     }
 
     public List<String> getArtistsByAlbum(final String album, final boolean albumArtist) {
-        final Set<String> artists = new HashSet<>();
-        for (final List<String> ai : mAlbumSet) {
-            if (ai.get(0).equals(album)) {
-                if (albumArtist) {
-                    artists.add(ai.get(2));
-                } else {
-                    artists.add(ai.get(1));
-                }
-            }
-        }
+        final int field = albumArtist ? AlbumIndex.ALBUM_ARTIST : AlbumIndex.ARTIST;
+        final Set<String> artists = mAlbumIndex.getValues(AlbumIndex.ALBUM, album, field);
         final List<String> result;
         if (artists != null && !artists.isEmpty()) {
             result = new ArrayList<>(artists);
@@ -202,30 +265,64 @@ public class AlbumCache {
         return (null != mLastUpdate && null != mpdlast && mLastUpdate.after(mpdlast));
     }
 
+    /**
+     * Loads the cache file. The file is memory-mapped and decoded in a single pass, the string
+     * table and combinations straight into the arrays of the {@link AlbumIndex}.
+     *
+     * @return True if the cache was loaded, false if there is no cache file, or if it is corrupt
+     * or of another format.
+     */
     protected synchronized boolean load() {
-        final File file = new File(mFilesDir, getFilename() + (GZIP ? ".gz" : ""));
+        final File file = new File(mFilesDir, getFilename());
         if (!file.exists()) {
             return false;
         }
         Log.d(TAG, "Loading " + file);
-        final ObjectInputStream restore;
+        FileInputStream restore = null;
         boolean loadedOk = false;
         try {
-            if (GZIP) {
-                restore = new ObjectInputStream(new GZIPInputStream
-                        (new FileInputStream(file)));
+            restore = new FileInputStream(file);
+            final FileChannel channel = restore.getChannel();
+            final ByteBuffer buffer =
+                    channel.map(FileChannel.MapMode.READ_ONLY, 0L, channel.size());
+
+            if (buffer.getInt() == MAGIC && buffer.getInt() == FORMAT_VERSION) {
+                final long lastUpdate = buffer.getLong();
+                final long dbUpdate = buffer.getLong();
+                final AlbumIndex albumIndex = AlbumIndex.read(buffer);
+                /** A code and a path length, followed by three longs. */
+                final int detailsCount = AlbumIndex.readCount(buffer, 32);
+                final Map<String, AlbumDetails> albumDetails = new HashMap<>(detailsCount);
+
+                for (int i = 0; i < detailsCount; i++) {
+                    final String albumCode = AlbumIndex.readString(buffer);
+
+                    albumDetails.put(albumCode, AlbumDetails.read(buffer));
+                }
+
+                final LibraryTree libraryTree = LibraryTree.read(buffer, albumIndex);
+
+                mLastUpdate = lastUpdate == -1L ? null : new Date(lastUpdate);
+                mDbUpdate = dbUpdate == -1L ? null : new Date(dbUpdate);
+                mLibraryTree = libraryTree;
+                mAlbumDetails = albumDetails;
+                mAlbumIndex = albumIndex;
+                makeUniqueAlbumSet();
+                loadedOk = true;
             } else {
-                restore = new ObjectInputStream(new FileInputStream(file));
+                Log.d(TAG, "Discarding a cache file of another format.");
             }
-            mLastUpdate = (Date) restore.readObject();
-            mAlbumDetails = (Map<String, AlbumDetails>) restore.readObject();
-            mAlbumSet = (Set<List<String>>) restore.readObject();
-            restore.close();
-            makeUniqueAlbumSet();
-            loadedOk = true;
         } catch (final FileNotFoundException ignored) {
         } catch (final Exception e) {
             Log.e(TAG, "Exception.", e);
+        } finally {
+            if (restore != null) {
+                try {
+                    restore.close();
+                } catch (final IOException e) {
+                    Log.e(TAG, "Failed to close the cache file.", e);
+                }
+            }
         }
         if (loadedOk) {
             Log.d(TAG, cacheInfo());
@@ -236,15 +333,70 @@ public class AlbumCache {
     }
 
     protected void makeUniqueAlbumSet() {
-        mUniqueAlbumSet = new HashSet<>(mAlbumSet.size());
-        for (final List<String> ai : mAlbumSet) {
-            final String album = ai.get(2);
-            if (album != null && album.isEmpty()) { // no albumartist
-                mUniqueAlbumSet.add(Arrays.asList(ai.get(0), ai.get(1), ""));
+        final AlbumIndex albumIndex = mAlbumIndex;
+
+        mUniqueAlbumSet = new HashSet<>(albumIndex.size());
+        for (int i = 0; i < albumIndex.size(); i++) {
+            final String album = albumIndex.get(i, AlbumIndex.ALBUM);
+            final String albumArtist = albumIndex.get(i, AlbumIndex.ALBUM_ARTIST);
+
+            if (albumArtist.isEmpty()) { // no albumartist
+                mUniqueAlbumSet.add(Arrays.asList(album, albumIndex.get(i, AlbumIndex.ARTIST), ""));
             } else { // with albumartist set artist to ""
-                mUniqueAlbumSet.add(Arrays.asList(ai.get(0), "", ai.get(2)));
+                mUniqueAlbumSet.add(Arrays.asList(album, "", albumArtist));
+            }
+        }
+    }
+
+    /**
+     * Builds the album index and details from the album tags alone, rather than from every song
+     * of the database, if the media server supports grouping by more than one tag. This takes a
+     * command per artist and per album, but a fraction of the bytes of a full listing.
+     *
+     * @param albumIndex   The builder of the album index.
+     * @param albumDetails The album details, by album code.
+     * @return True if the album index and details were built, false if the media server is older
+     * than protocol 0.21.0.
+     * @throws IOException  Thrown upon a communication error with the server.
+     * @throws MPDException Thrown if an error occurs as a result of command execution.
+     */
+    private boolean readAlbumTags(final AlbumIndex.Builder albumIndex,
+            final Map<String, AlbumDetails> albumDetails) throws IOException, MPDException {
+        final List<String[]> combinations = mMPD.listAllAlbumCombinations();
+
+        if (combinations != null) {
+            final Map<String, Album> albums = new HashMap<>();
+
+            for (final String[] combination : combinations) {
+                final boolean isAlbumArtist = !combination[2].isEmpty();
+                final String artist = isAlbumArtist ? combination[2] : combination[1];
+                final String albumCode = albumCode(artist, combination[0], isAlbumArtist);
+
+                if (!albums.containsKey(albumCode)) {
+                    albums.put(albumCode,
+                            new Album(combination[0], new Artist(artist), isAlbumArtist));
+                }
+            }
+
+            mMPD.getExactAlbumDetails(new ArrayList<>(albums.values()));
+
+            for (final String[] combination : combinations) {
+                albumIndex.add(combination[0], combination[1], combination[2]);
             }
+            for (final Map.Entry<String, Album> entry : albums.entrySet()) {
+                final Album album = entry.getValue();
+                final AlbumDetails details = new AlbumDetails();
+
+                details.mNumTracks = album.getSongCount();
+                details.mTotalTime = album.getDuration();
+                details.mDate = album.getYear();
+                details.mPath = album.getPath();
+                albumDetails.put(entry.getKey(), details);
+            }
+            Log.d(TAG, "Read the tags of " + albums.size() + " albums.");
         }
+
+        return combinations != null;
     }
 
     /*
@@ -270,66 +422,74 @@ public class AlbumCache {
             return true;
         }
         Log.d(TAG, "Cache is NOT up to date. fetching ...");
+        final Date oldUpdate = mLastUpdate;
+        final Date dbUpdate = mMPD.getStatistics().getDbUpdate();
         mLastUpdate = Calendar.getInstance().getTime();
 
         Tools.notifyUser(R.string.updatingLocalAlbumCacheNote);
 
-        final Date oldUpdate = mLastUpdate;
-        mAlbumDetails = new HashMap<>();
-        mAlbumSet = new HashSet<>();
+        final Map<String, AlbumDetails> albumDetails = new HashMap<>();
+        final AlbumIndex.Builder albumIndex = new AlbumIndex.Builder();
+        boolean isAggregated = false;
+        LibraryTree libraryTree = null;
+        if (!force && mDbUpdate != null && mLibraryTree.getSongCount() != 0) {
+            final Date modifiedSince = new Date(mDbUpdate.getTime() - MODIFIED_SINCE_MARGIN);
+
+            try {
+                libraryTree = LibraryTree.update(mMPD, mLibraryTree, modifiedSince);
+            } catch (final IOException | MPDException e) {
+                Log.w(TAG, "Incremental update failed, listing all songs.", e);
+            }
+        }
 
-        final List<Music> allmusic;
-        try {
-            allmusic = mMPD.listAllInfo();
-            Log.d(TAG, "allmusic " + allmusic.size());
-        } catch (final IOException | MPDException e) {
-            mEnabled = false;
-            mLastUpdate = null;
-            updateConnection();
-            Log.d(TAG, "disabled AlbumCache", e);
-            Tools.notifyUser(
-                    "Error with the 'listallinfo' command. Probably you have to adjust your server's 'max_output_buffer_size'"
-            );
-            return false;
+        /**
+         * Only a cold build reads the album tags, as they don't list the songs. The next refresh
+         * then lists all songs once, so the refreshes after it can update by directory.
+         */
+        if (libraryTree == null && mDbUpdate == null && mLibraryTree.getSongCount() == 0) {
+            try {
+                isAggregated = readAlbumTags(albumIndex, albumDetails);
+            } catch (final IOException | MPDException e) {
+                Log.w(TAG, "Failed to read the album tags, listing all songs.", e);
+            }
+
+            if (isAggregated) {
+                libraryTree = new LibraryTree();
+            }
+        }
+
+        if (libraryTree == null) {
+            try {
+                libraryTree = crawl(dbUpdate);
+                Log.d(TAG, "allmusic " + libraryTree.getSongCount());
+            } catch (final IOException e) {
+                mLastUpdate = oldUpdate;
+                Log.w(TAG, "Crawl interrupted, resuming on the next refresh.", e);
+                return false;
+            } catch (final MPDException e) {
+                mCrawler = null;
+                mCrawlTree = null;
+                mEnabled = false;
+                mLastUpdate = null;
+                updateConnection();
+                Log.d(TAG, "disabled AlbumCache", e);
+                Tools.notifyUser(
+                        "Error with the 'listallinfo' command. Probably you have to adjust your server's 'max_output_buffer_size'"
+                );
+                return false;
+            }
         }
 
         try {
-            for (final Music music : allmusic) {
-                final String albumArtist = music.getAlbumArtist();
-                final String artist = music.getArtist();
-                String album = music.getAlbum();
-                if (album == null) {
-                    album = "";
-                }
-                final List<String> albumInfo = Arrays.asList
-                        (album, artist == null ? "" : artist,
-                                albumArtist == null ? "" : albumArtist);
-                mAlbumSet.add(albumInfo);
-
-                final boolean isAlbumArtist = albumArtist != null && !albumArtist.isEmpty();
-                final String thisAlbum =
-                        albumCode(isAlbumArtist ? albumArtist : artist, album, isAlbumArtist);
-                final AlbumDetails details;
-                if (mAlbumDetails.containsKey(thisAlbum)) {
-                    details = mAlbumDetails.get(thisAlbum);
-                } else {
-                    details = new AlbumDetails();
-                    mAlbumDetails.put(thisAlbum, details);
-                }
-                if (details.mPath == null) {
-                    details.mPath = music.getPath();
-                }
-                // if (details.times == null)
-                // details.times = new ArrayList<Long>();
-                // details.times.add((Long)m.getTime());
-                details.mNumTracks += 1;
-                details.mTotalTime += music.getTime();
-                if (details.mDate == 0) {
-                    details.mDate = music.getDate();
-                }
+            if (!isAggregated) {
+                libraryTree.aggregate(albumIndex, albumDetails);
             }
+            mAlbumDetails = albumDetails;
             Log.d(TAG, "albumDetails: " + mAlbumDetails.size());
-            Log.d(TAG, "albumSet: " + mAlbumSet.size());
+            mAlbumIndex = albumIndex.build();
+            Log.d(TAG, "albumIndex: " + mAlbumIndex.size());
+            mLibraryTree = libraryTree;
+            mDbUpdate = dbUpdate;
             makeUniqueAlbumSet();
             Log.d(TAG, "uniqueAlbumSet: " + mUniqueAlbumSet.size());
             if (!save()) {
@@ -346,7 +506,7 @@ public class AlbumCache {
     }
 
     protected synchronized boolean save() {
-        final File file = new File(mFilesDir, getFilename() + (GZIP ? ".gz" : ""));
+        final File file = new File(mFilesDir, getFilename());
         Log.d(TAG, "Saving to " + file);
         final File backupfile = new File(file.getAbsolutePath() + ".bak");
         if (file.exists()) {
@@ -355,19 +515,21 @@ public class AlbumCache {
             }
             file.renameTo(backupfile);
         }
-        final ObjectOutputStream save;
+        final DataOutputStream save;
         boolean error = false;
         try {
-            if (GZIP) {
-                save = new ObjectOutputStream(new GZIPOutputStream
-                        (new FileOutputStream(file)));
-            } else {
-                save = new ObjectOutputStream(new BufferedOutputStream
-                        (new FileOutputStream(file)));
+            save = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)));
+            save.writeInt(MAGIC);
+            save.writeInt(FORMAT_VERSION);
+            save.writeLong(mLastUpdate == null ? -1L : mLastUpdate.getTime());
+            save.writeLong(mDbUpdate == null ? -1L : mDbUpdate.getTime());
+            mAlbumIndex.write(save);
+            save.writeInt(mAlbumDetails.size());
+            for (final Map.Entry<String, AlbumDetails> entry : mAlbumDetails.entrySet()) {
+                AlbumIndex.writeString(save, entry.getKey());
+                entry.getValue().write(save);
             }
-            save.writeObject(mLastUpdate);
-            save.writeObject(mAlbumDetails);
-            save.writeObject(mAlbumSet);
+            mLibraryTree.write(save, mAlbumIndex);
             save.close();
             Log.d(TAG, "saved to " + file);
         } catch (final Exception e) {
@@ -386,6 +548,8 @@ public class AlbumCache {
         try {
             Log.d(TAG, "set MPD");
             mMPD = mpd;
+            mCrawler = null;
+            mCrawlTree = null;
         } catch (final Exception e) {
             Log.e(TAG, "Failed to setMPD.", e);
         }
@@ -419,9 +583,7 @@ public class AlbumCache {
         return true;
     }
 
-    static class AlbumDetails implements Serializable {
-
-        private static final long serialVersionUID = 2465675380232237273L;
+    static class AlbumDetails {
 
         long mDate = 0;
 
@@ -432,18 +594,26 @@ public class AlbumCache {
 
         long mTotalTime = 0;
 
-        private void readObject(final DataInput in)
-                throws IOException, ClassNotFoundException {
-            mPath = in.readUTF();
-            // times = (List<Long>)in.readObject();
-            mNumTracks = in.readLong();
-            mTotalTime = in.readLong();
-            mDate = in.readLong();
+        /**
+         * Reads album details written by {@link #write(DataOutput)}.
+         *
+         * @param buffer The buffer to read the album details from.
+         * @return The album details read.
+         * @throws IOException Thrown if the album details are corrupt.
+         */
+        static AlbumDetails read(final ByteBuffer buffer) throws IOException {
+            final AlbumDetails details = new AlbumDetails();
+
+            details.mPath = AlbumIndex.readString(buffer);
+            details.mNumTracks = buffer.getLong();
+            details.mTotalTime = buffer.getLong();
+            details.mDate = buffer.getLong();
+
+            return details;
         }
 
-        private void writeObject(final DataOutput out) throws IOException {
-            out.writeUTF(mPath);
-            // out.writeObject(times);
+        void write(final DataOutput out) throws IOException {
+            AlbumIndex.writeString(out, mPath);
             out.writeLong(mNumTracks);
             out.writeLong(mTotalTime);
             out.writeLong(mDate);
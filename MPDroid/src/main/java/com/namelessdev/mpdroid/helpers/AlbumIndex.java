@@ -0,0 +1,447 @@
+/*
+ * Copyright (C) 2010-2014 The MPDroid Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.namelessdev.mpdroid.helpers;
+
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * This class indexes the album, artist and album artist combinations of a library. Strings are
+ * interned to compact int ids, and every combination is indexed by each of its three strings, so
+ * a lookup costs in proportion to its result rather than to the size of the library. An index
+ * is immutable once built.
+ */
+final class AlbumIndex {
+
+    /** The album field of a combination. */
+    static final int ALBUM = 0;
+
+    /** The album artist field of a combination. */
+    static final int ALBUM_ARTIST = 2;
+
+    /** The artist field of a combination. */
+    static final int ARTIST = 1;
+
+    /** The number of fields of a combination. */
+    static final int FIELDS = 3;
+
+    /** The character set of the strings written. */
+    private static final Charset CHARSET = Charset.forName("UTF-8");
+
+    /** The combinations, as {@link #FIELDS} consecutive string ids per combination. */
+    private final int[] mEntries;
+
+    /** For each field, the combinations with each string id in this field. */
+    private final int[][][] mPostings;
+
+    /** The string ids, by string. */
+    private final Map<String, Integer> mStringIds;
+
+    /** The strings, by string id. */
+    private final String[] mStrings;
+
+    private AlbumIndex(final String[] strings, final Map<String, Integer> stringIds,
+            final int[] entries) {
+        super();
+
+        final int size = entries.length / FIELDS;
+
+        mEntries = entries;
+        mStrings = strings;
+        mStringIds = stringIds;
+        mPostings = new int[FIELDS][][];
+
+        for (int field = 0; field < FIELDS; field++) {
+            final int[] counts = new int[mStrings.length];
+            final int[][] postings = new int[mStrings.length][];
+
+            for (int entry = 0; entry < size; entry++) {
+                counts[mEntries[entry * FIELDS + field]]++;
+            }
+
+            for (int id = 0; id < postings.length; id++) {
+                postings[id] = new int[counts[id]];
+                counts[id] = 0;
+            }
+
+            for (int entry = 0; entry < size; entry++) {
+                final int id = mEntries[entry * FIELDS + field];
+
+                postings[id][counts[id]] = entry;
+                counts[id]++;
+            }
+
+            mPostings[field] = postings;
+        }
+    }
+
+    /**
+     * Reads an index written by {@link #write(DataOutput)}, decoding the ids straight into the
+     * index rather than adding each combination again.
+     *
+     * @param buffer The buffer to read the index from, at the index position.
+     * @return The index read.
+     * @throws IOException Thrown if the index is corrupt.
+     */
+    static AlbumIndex read(final ByteBuffer buffer) throws IOException {
+        final String[] strings = new String[readCount(buffer, 4)];
+        final Map<String, Integer> stringIds = new HashMap<>(strings.length);
+
+        for (int id = 0; id < strings.length; id++) {
+            strings[id] = readString(buffer);
+            stringIds.put(strings[id], Integer.valueOf(id));
+        }
+
+        final int[] entries = new int[readCount(buffer, FIELDS * 4) * FIELDS];
+        buffer.asIntBuffer().get(entries);
+        buffer.position(buffer.position() + entries.length * 4);
+
+        for (final int id : entries) {
+            if (id < 0 || id >= strings.length) {
+                throw new IOException("Invalid string id: " + id);
+            }
+        }
+
+        return new AlbumIndex(strings, stringIds, entries);
+    }
+
+    /**
+     * Reads the number of items of a section, checking it against the remaining data so a corrupt
+     * file can't cause an oversized allocation.
+     *
+     * @param buffer      The buffer to read the count from.
+     * @param minItemSize The minimum size of an item, in bytes.
+     * @return The number of items of the section.
+     * @throws IOException Thrown if the count is larger than the remaining data allows.
+     */
+    static int readCount(final ByteBuffer buffer, final int minItemSize) throws IOException {
+        final int count = buffer.getInt();
+
+        if (count < 0 || count > buffer.remaining() / minItemSize) {
+            throw new IOException("Invalid item count: " + count);
+        }
+
+        return count;
+    }
+
+    /**
+     * Reads a string written by {@link #writeString(DataOutput, String)}.
+     *
+     * @param buffer The buffer to read the string from.
+     * @return The string read, may be null.
+     * @throws IOException Thrown if the length is invalid or larger than the remaining data.
+     */
+    static String readString(final ByteBuffer buffer) throws IOException {
+        final int length = buffer.getInt();
+        final String value;
+
+        if (length < -1 || length > buffer.remaining()) {
+            throw new IOException("Invalid string length: " + length);
+        } else if (length == -1) {
+            value = null;
+        } else if (buffer.hasArray()) {
+            value = new String(buffer.array(), buffer.arrayOffset() + buffer.position(), length,
+                    CHARSET);
+            buffer.position(buffer.position() + length);
+        } else {
+            final byte[] bytes = new byte[length];
+
+            buffer.get(bytes);
+            value = new String(bytes, CHARSET);
+        }
+
+        return value;
+    }
+
+    /**
+     * Writes a string as its UTF-8 length and bytes, unlike {@link DataOutput#writeUTF(String)}
+     * which is limited to 64KiB.
+     *
+     * @param output The output to write the string to.
+     * @param value  The string to write, may be null.
+     * @throws IOException Thrown if the string could not be written.
+     */
+    static void writeString(final DataOutput output, final String value) throws IOException {
+        if (value == null) {
+            output.writeInt(-1);
+        } else {
+            final byte[] bytes = value.getBytes(CHARSET);
+
+            output.writeInt(bytes.length);
+            output.write(bytes);
+        }
+    }
+
+    /**
+     * Retrieves the combinations with a string in a field.
+     *
+     * @param field The field to look up.
+     * @param value The string to look up.
+     * @return The combinations with the string in the field.
+     */
+    private int[] getEntries(final int field, final String value) {
+        final Integer id = mStringIds.get(value);
+        final int[] entries;
+
+        if (id == null) {
+            entries = new int[0];
+        } else {
+            entries = mPostings[field][id.intValue()];
+        }
+
+        return entries;
+    }
+
+    /**
+     * Retrieves a field of a combination.
+     *
+     * @param entry The combination.
+     * @param field The field to retrieve.
+     * @return The string in the field of the combination.
+     */
+    String get(final int entry, final int field) {
+        return mStrings[mEntries[entry * FIELDS + field]];
+    }
+
+    /**
+     * Retrieves the id of a string of this index.
+     *
+     * @param value The string to look up.
+     * @return The id of the string, -1 if the string is not in this index.
+     */
+    int getId(final String value) {
+        final Integer id = mStringIds.get(value);
+        final int result;
+
+        if (id == null) {
+            result = -1;
+        } else {
+            result = id.intValue();
+        }
+
+        return result;
+    }
+
+    /**
+     * Retrieves a string of this index by id.
+     *
+     * @param id The id of the string.
+     * @return The string with the id.
+     * @throws IndexOutOfBoundsException If there is no string with the id.
+     */
+    String getString(final int id) {
+        return mStrings[id];
+    }
+
+    /**
+     * Retrieves the distinct strings of a field, for the combinations with a string in another
+     * field.
+     *
+     * @param field       The field to look up.
+     * @param value       The string to look up.
+     * @param resultField The field to retrieve.
+     * @return The distinct strings in {@code resultField} of the matching combinations.
+     */
+    Set<String> getValues(final int field, final String value, final int resultField) {
+        final int[] entries = getEntries(field, value);
+        final Set<String> values = new HashSet<>(entries.length);
+
+        for (final int entry : entries) {
+            values.add(get(entry, resultField));
+        }
+
+        return values;
+    }
+
+    /**
+     * Retrieves the distinct strings of a field, for the combinations with a given album and
+     * another string in a second field.
+     *
+     * @param album       The album to look up.
+     * @param field       The second field to look up.
+     * @param value       The string to look up in the second field.
+     * @param resultField The field to retrieve.
+     * @return The distinct strings in {@code resultField} of the matching combinations.
+     */
+    Set<String> getValues(final String album, final int field, final String value,
+            final int resultField) {
+        final int[] entries = getEntries(ALBUM, album);
+        final Integer id = mStringIds.get(value);
+        final Set<String> values = new HashSet<>();
+
+        if (id != null) {
+            for (final int entry : entries) {
+                if (mEntries[entry * FIELDS + field] == id.intValue()) {
+                    values.add(get(entry, resultField));
+                }
+            }
+        }
+
+        return values;
+    }
+
+    /**
+     * The number of combinations in this index.
+     *
+     * @return The number of combinations in this index.
+     */
+    int size() {
+        return mEntries.length / FIELDS;
+    }
+
+    /**
+     * Writes this index as its string table followed by the string ids of its combinations.
+     *
+     * @param output The output to write this index to.
+     * @throws IOException Thrown if this index could not be written.
+     */
+    void write(final DataOutput output) throws IOException {
+        output.writeInt(mStrings.length);
+        for (final String value : mStrings) {
+            writeString(output, value);
+        }
+
+        output.writeInt(size());
+        for (final int id : mEntries) {
+            output.writeInt(id);
+        }
+    }
+
+    /**
+     * This class builds an {@code AlbumIndex}, one combination at a time. Duplicate combinations
+     * are ignored.
+     */
+    static final class Builder {
+
+        /** The combinations added, to ignore duplicates. */
+        private final Set<Entry> mEntrySet = new HashSet<>();
+
+        /** The string ids, by string. */
+        private final Map<String, Integer> mStringIds = new HashMap<>();
+
+        /** The strings, by string id. */
+        private final List<String> mStrings = new ArrayList<>();
+
+        /** The combinations, as {@link #FIELDS} consecutive string ids per combination. */
+        private int[] mEntries = new int[FIELDS * 64];
+
+        /** The number of combinations added. */
+        private int mSize;
+
+        /**
+         * Adds a combination. A null string is added as an empty string.
+         *
+         * @param album       The album name.
+         * @param artist      The artist name.
+         * @param albumArtist The album artist name.
+         * @return This builder.
+         */
+        Builder add(final String album, final String artist, final String albumArtist) {
+            final Entry entry = new Entry(intern(album), intern(artist), intern(albumArtist));
+
+            if (mEntrySet.add(entry)) {
+                if (mEntries.length < (mSize + 1) * FIELDS) {
+                    mEntries = Arrays.copyOf(mEntries, mEntries.length << 1);
+                }
+
+                mEntries[mSize * FIELDS + ALBUM] = entry.mAlbum;
+                mEntries[mSize * FIELDS + ARTIST] = entry.mArtist;
+                mEntries[mSize * FIELDS + ALBUM_ARTIST] = entry.mAlbumArtist;
+                mSize++;
+            }
+
+            return this;
+        }
+
+        /**
+         * Builds the index of the combinations added. The index shares the string table of this
+         * builder, which is not to be used afterwards.
+         *
+         * @return The index of the combinations added.
+         */
+        AlbumIndex build() {
+            return new AlbumIndex(mStrings.toArray(new String[mStrings.size()]), mStringIds,
+                    Arrays.copyOf(mEntries, mSize * FIELDS));
+        }
+
+        private int intern(final String value) {
+            final String key;
+
+            if (value == null) {
+                key = "";
+            } else {
+                key = value;
+            }
+
+            Integer id = mStringIds.get(key);
+            if (id == null) {
+                id = Integer.valueOf(mStrings.size());
+                mStrings.add(key);
+                mStringIds.put(key, id);
+            }
+
+            return id.intValue();
+        }
+    }
+
+    /** The string ids of a combination, to find duplicate combinations while building. */
+    private static final class Entry {
+
+        private final int mAlbum;
+
+        private final int mAlbumArtist;
+
+        private final int mArtist;
+
+        private Entry(final int album, final int artist, final int albumArtist) {
+            super();
+
+            mAlbum = album;
+            mArtist = artist;
+            mAlbumArtist = albumArtist;
+        }
+
+        @Override
+        public boolean equals(final Object o) {
+            boolean isEqual = this == o;
+
+            if (!isEqual && o instanceof Entry) {
+                final Entry entry = (Entry) o;
+
+                isEqual = mAlbum == entry.mAlbum && mArtist == entry.mArtist &&
+                        mAlbumArtist == entry.mAlbumArtist;
+            }
+
+            return isEqual;
+        }
+
+        @Override
+        public int hashCode() {
+            return (mAlbum * 31 + mArtist) * 31 + mAlbumArtist;
+        }
+    }
+}
@@ -25,6 +25,7 @@ import com.namelessdev.mpdroid.cover.ICoverRetriever;
 import com.namelessdev.mpdroid.cover.ItunesCover;
 import com.namelessdev.mpdroid.cover.LastFMCover;
 import com.namelessdev.mpdroid.cover.LocalCover;
+import com.namelessdev.mpdroid.cover.MPDCover;
 import com.namelessdev.mpdroid.cover.MusicBrainzCover;
 import com.namelessdev.mpdroid.cover.SpotifyCover;
 import com.namelessdev.mpdroid.tools.MultiMap;
@@ -86,6 +87,8 @@ public final class CoverManager {
 
     public static final String PREFERENCE_LOCALSERVER = "enableLocalCover";
 
+    public static final String PREFERENCE_MPD = "enableMPDCover";
+
     public static final String PREFERENCE_ONLY_WIFI = "enableCoverOnlyOnWifi";
 
     private static final Pattern BLOCK_IN_COMBINING_DIACRITICAL_MARKS =
@@ -300,7 +303,11 @@ public final class CoverManager {
                     coverBytes = readBytes(new URL("file://" + url).openStream());
 
                 } else if (coverInfo.getState() == WEB_COVER_FETCH) {
-                    coverBytes = download(url);
+                    if (MPDCover.isMPDCoverUrl(url)) {
+                        coverBytes = MPDCover.download(url);
+                    } else {
+                        coverBytes = download(url);
+                    }
                 }
                 if (coverBytes != null) {
                     if (DEBUG) {
@@ -746,6 +753,9 @@ public final class CoverManager {
                 case LOCAL:
                     mCoverRetrievers[i] = new LocalCover();
                     break;
+                case MPD:
+                    mCoverRetrievers[i] = new MPDCover();
+                    break;
                 case GRACENOTE:
                     if (GracenoteCover.isClientIdAvailable()) {
                         mCoverRetrievers[i] = new GracenoteCover();
@@ -779,6 +789,9 @@ public final class CoverManager {
             enabledRetrievers.add(CoverRetrievers.CACHE);
         }
         if (!(settings.getBoolean(PREFERENCE_ONLY_WIFI, false)) | (isWifi())) {
+            if (settings.getBoolean(PREFERENCE_MPD, true)) {
+                enabledRetrievers.add(CoverRetrievers.MPD);
+            }
             if (settings.getBoolean(PREFERENCE_LOCALSERVER, false)) {
                 enabledRetrievers.add(CoverRetrievers.LOCAL);
             }
@@ -814,6 +827,7 @@ public final class CoverManager {
         CACHE,
         LASTFM,
         LOCAL,
+        MPD,
         GRACENOTE,
         DEEZER,
         MUSICBRAINZ,
@@ -978,7 +992,9 @@ public final class CoverManager {
                                 if (!(coverUrls != null && coverUrls.length > 0)
                                         && remote
                                         && !(coverRetriever.getName()
-                                        .equals(LocalCover.RETRIEVER_NAME))) {
+                                        .equals(LocalCover.RETRIEVER_NAME))
+                                        && !(coverRetriever.getName()
+                                        .equals(MPDCover.RETRIEVER_NAME))) {
                                     final AlbumInfo normalizedAlbumInfo = getNormalizedAlbumInfo(
                                             mCoverInfo);
                                     if (!normalizedAlbumInfo.equals(mCoverInfo)) {
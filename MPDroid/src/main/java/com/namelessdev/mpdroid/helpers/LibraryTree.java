@@ -0,0 +1,443 @@
+/*
+ * Copyright (C) 2010-2014 The MPDroid Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.namelessdev.mpdroid.helpers;
+
+import org.a0z.mpd.LibraryCrawler;
+import org.a0z.mpd.MPD;
+import org.a0z.mpd.exception.MPDException;
+import org.a0z.mpd.item.Music;
+import org.a0z.mpd.item.MusicBuilder;
+
+import android.util.Log;
+
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * This class keeps the songs of the media server database by directory, along with the
+ * modification time of each directory, so the {@link AlbumCache} can be refreshed by listing only
+ * the directories which changed since the last refresh. As a {@link LibraryCrawler.CrawlHandler},
+ * it adds the directories and songs of a {@code lsinfo} or {@code listallinfo} response while it
+ * is read, and removes the songs of a chunk if the chunk fails.
+ */
+final class LibraryTree implements LibraryCrawler.CrawlHandler {
+
+    private static final String TAG = "LibraryTree";
+
+    /** The song counts of the directories the current chunk added songs to, before the chunk. */
+    private final Map<Folder, Integer> mChunkSizes = new HashMap<>();
+
+    /** The directories, by path, "" being the root. Sorted, to keep the songs in database order. */
+    private final Map<String, Folder> mFolders = new TreeMap<>();
+
+    /** The subdirectories listed by the responses handled since the last {@link #flush()}. */
+    private final List<String> mListed = new ArrayList<>();
+
+    /** Interned tag values, as the values of an album are repeated for each of its songs. */
+    private final Map<String, String> mStrings = new HashMap<>();
+
+    /** The builder of the song being read, null if the current entry isn't a song. */
+    private MusicBuilder mBuilder;
+
+    /** The directory being read, null if the current entry isn't a directory. */
+    private Folder mDirectory;
+
+    LibraryTree() {
+        super();
+
+        mFolders.put("", new Folder());
+    }
+
+    /**
+     * Reads a tree written by {@link #write(DataOutput, AlbumIndex)}.
+     *
+     * @param buffer     The buffer to read the tree from.
+     * @param albumIndex The index the tag values of the songs refer to.
+     * @return The tree read.
+     * @throws IOException Thrown if the tree is corrupt.
+     */
+    static LibraryTree read(final ByteBuffer buffer, final AlbumIndex albumIndex)
+            throws IOException {
+        final LibraryTree tree = new LibraryTree();
+        /** A path length, a modification time length and a song count. */
+        final int folderCount = AlbumIndex.readCount(buffer, 12);
+
+        for (int i = 0; i < folderCount; i++) {
+            final String path = AlbumIndex.readString(buffer);
+            final Folder folder = tree.getFolder(path);
+            /** A file name length, three string ids and two longs. */
+            final int songCount = AlbumIndex.readCount(buffer, 32);
+
+            folder.mLastModified = AlbumIndex.readString(buffer);
+            for (int j = 0; j < songCount; j++) {
+                final String filename = AlbumIndex.readString(buffer);
+                final String fullPath = path.isEmpty() ? filename : path + '/' + filename;
+
+                folder.mSongs.add(new Song(fullPath, albumIndex.getString(buffer.getInt()),
+                        albumIndex.getString(buffer.getInt()),
+                        albumIndex.getString(buffer.getInt()), buffer.getLong(),
+                        buffer.getLong()));
+            }
+        }
+
+        return tree;
+    }
+
+    /**
+     * Lists the database again, from a previous tree. A directory is listed with {@code lsinfo}
+     * if it is new, if its modification time changed, or if it has subdirectories, which may
+     * have changed; the songs of the other directories are taken from the previous tree. As the
+     * modification time of a directory doesn't change when a song is modified in place, the songs
+     * modified since {@code modifiedSince} are retrieved as well.
+     *
+     * @param mpd           The media server to list.
+     * @param previous      The tree of the previous listing.
+     * @param modifiedSince The time to retrieve modified songs from.
+     * @return The tree of the database, null if the media server can't tell the songs modified
+     * in place.
+     * @throws IOException  Thrown upon a communication error with the server.
+     * @throws MPDException Thrown if an error occurs as a result of command execution.
+     */
+    static LibraryTree update(final MPD mpd, final LibraryTree previous,
+            final Date modifiedSince) throws IOException, MPDException {
+        final List<Music> modified = mpd.findModifiedSince(modifiedSince);
+        LibraryTree tree = null;
+
+        if (modified != null) {
+            final Deque<String> pending = new ArrayDeque<>();
+            int listed = 0;
+
+            tree = new LibraryTree();
+            pending.add("");
+            while (!pending.isEmpty()) {
+                mpd.listInfo(pending.remove(), tree);
+                listed++;
+
+                for (final String path : tree.flush()) {
+                    final Folder folder = tree.mFolders.get(path);
+                    final Folder old = previous.mFolders.get(path);
+
+                    if (old != null && !old.mHasDirectories && old.mLastModified != null &&
+                            old.mLastModified.equals(folder.mLastModified)) {
+                        for (final Song song : old.mSongs) {
+                            folder.mSongs.add(tree.intern(song));
+                        }
+                    } else {
+                        pending.add(path);
+                    }
+                }
+            }
+
+            for (final Music music : modified) {
+                tree.putSong(music);
+            }
+
+            Log.d(TAG, "Listed " + listed + " of " + tree.mFolders.size() + " directories, " +
+                    modified.size() + " songs modified.");
+        }
+
+        return tree;
+    }
+
+    @Override
+    public void abortChunk() {
+        mBuilder = null;
+        mDirectory = null;
+        mListed.clear();
+
+        for (final Map.Entry<Folder, Integer> entry : mChunkSizes.entrySet()) {
+            final List<Song> songs = entry.getKey().mSongs;
+
+            songs.subList(entry.getValue().intValue(), songs.size()).clear();
+        }
+        mChunkSizes.clear();
+    }
+
+    /**
+     * Adds a song read from a response to its directory.
+     *
+     * @param music The song to add.
+     */
+    private void addSong(final Music music) {
+        final Folder folder = getFolder(music.getPath());
+
+        if (!mChunkSizes.containsKey(folder)) {
+            mChunkSizes.put(folder, Integer.valueOf(folder.mSongs.size()));
+        }
+        folder.mSongs.add(newSong(music));
+    }
+
+    /**
+     * Adds the songs of this tree to the album index and details of the {@link AlbumCache}.
+     *
+     * @param albumIndex   The builder of the album index.
+     * @param albumDetails The album details, by album code.
+     */
+    void aggregate(final AlbumIndex.Builder albumIndex,
+            final Map<String, AlbumCache.AlbumDetails> albumDetails) {
+        for (final Map.Entry<String, Folder> entry : mFolders.entrySet()) {
+            for (final Song song : entry.getValue().mSongs) {
+                final boolean isAlbumArtist = !song.mAlbumArtist.isEmpty();
+                final String albumCode = AlbumCache.albumCode(
+                        isAlbumArtist ? song.mAlbumArtist : song.mArtist, song.mAlbum,
+                        isAlbumArtist);
+                AlbumCache.AlbumDetails details = albumDetails.get(albumCode);
+
+                albumIndex.add(song.mAlbum, song.mArtist, song.mAlbumArtist);
+                if (details == null) {
+                    details = new AlbumCache.AlbumDetails();
+                    albumDetails.put(albumCode, details);
+                }
+                if (details.mPath == null) {
+                    details.mPath = entry.getKey();
+                }
+                details.mNumTracks += 1;
+                details.mTotalTime += song.mTime;
+                if (details.mDate == 0) {
+                    details.mDate = song.mDate;
+                }
+            }
+        }
+    }
+
+    @Override
+    public void endChunk() {
+        flush();
+    }
+
+    /**
+     * Adds the pending song, if any, and retrieves the subdirectories listed since the last call.
+     *
+     * @return The paths of the subdirectories listed since the last call.
+     */
+    List<String> flush() {
+        final List<String> listed = new ArrayList<>(mListed);
+
+        flushSong();
+        mDirectory = null;
+        mListed.clear();
+        mChunkSizes.clear();
+
+        return listed;
+    }
+
+    /**
+     * Retrieves a directory of this tree, creating it and its parents if needed.
+     *
+     * @param path The path of the directory.
+     * @return The directory.
+     */
+    private Folder getFolder(final String path) {
+        Folder folder = mFolders.get(path);
+
+        if (folder == null) {
+            final int slashIndex = path.lastIndexOf('/');
+
+            getFolder(slashIndex == -1 ? "" : path.substring(0, slashIndex))
+                    .mHasDirectories = true;
+            folder = new Folder();
+            mFolders.put(path, folder);
+        }
+
+        return folder;
+    }
+
+    /**
+     * The number of songs of this tree.
+     *
+     * @return The number of songs of this tree.
+     */
+    int getSongCount() {
+        int count = 0;
+
+        for (final Folder folder : mFolders.values()) {
+            count += folder.mSongs.size();
+        }
+
+        return count;
+    }
+
+    @Override
+    public void handle(final String key, final String value) {
+        switch (key) {
+            case "directory":
+                flushSong();
+                mDirectory = getFolder(value);
+                mListed.add(value);
+                break;
+            case "file":
+                flushSong();
+                mDirectory = null;
+                mBuilder = new MusicBuilder();
+                mBuilder.handle(key, value);
+                break;
+            case "playlist":
+                flushSong();
+                mDirectory = null;
+                break;
+            case "Last-Modified":
+                if (mDirectory != null) {
+                    mDirectory.mLastModified = value;
+                }
+                break;
+            default:
+                if (mBuilder != null) {
+                    mBuilder.handle(key, value);
+                }
+                break;
+        }
+    }
+
+    /** Adds the song being read, if any. */
+    private void flushSong() {
+        if (mBuilder != null) {
+            addSong(mBuilder.getMusic().get(0));
+            mBuilder = null;
+        }
+    }
+
+    private String intern(final String value) {
+        final String key = value == null ? "" : value;
+        String interned = mStrings.get(key);
+
+        if (interned == null) {
+            interned = key;
+            mStrings.put(key, key);
+        }
+
+        return interned;
+    }
+
+    private Song intern(final Song song) {
+        final String album = intern(song.mAlbum);
+        final String artist = intern(song.mArtist);
+        final String albumArtist = intern(song.mAlbumArtist);
+        final Song result;
+
+        if (album == song.mAlbum && artist == song.mArtist && albumArtist == song.mAlbumArtist) {
+            result = song;
+        } else {
+            result = new Song(song.mFullPath, album, artist, albumArtist, song.mTime, song.mDate);
+        }
+
+        return result;
+    }
+
+    private Song newSong(final Music music) {
+        return new Song(music.getFullPath(), intern(music.getAlbum()), intern(music.getArtist()),
+                intern(music.getAlbumArtist()), music.getTime(), music.getDate());
+    }
+
+    /**
+     * Adds a song to its directory, replacing the song with the same path, if any.
+     *
+     * @param music The song to add.
+     */
+    private void putSong(final Music music) {
+        final List<Song> songs = getFolder(music.getPath()).mSongs;
+        final Song song = newSong(music);
+
+        for (int i = songs.size() - 1; i >= 0; i--) {
+            if (songs.get(i).mFullPath.equals(song.mFullPath)) {
+                songs.remove(i);
+            }
+        }
+
+        songs.add(song);
+    }
+
+    /**
+     * Writes this tree, referring to the tag values of the songs by their id in the album index.
+     *
+     * @param output     The output to write this tree to.
+     * @param albumIndex The index of the tag values of the songs, built from this tree.
+     * @throws IOException Thrown if this tree could not be written.
+     */
+    void write(final DataOutput output, final AlbumIndex albumIndex) throws IOException {
+        output.writeInt(mFolders.size());
+
+        for (final Map.Entry<String, Folder> entry : mFolders.entrySet()) {
+            final String path = entry.getKey();
+            final Folder folder = entry.getValue();
+            final int pathLength = path.isEmpty() ? 0 : path.length() + 1;
+
+            AlbumIndex.writeString(output, path);
+            output.writeInt(folder.mSongs.size());
+            AlbumIndex.writeString(output, folder.mLastModified);
+
+            for (final Song song : folder.mSongs) {
+                AlbumIndex.writeString(output, song.mFullPath.substring(pathLength));
+                output.writeInt(albumIndex.getId(song.mAlbum));
+                output.writeInt(albumIndex.getId(song.mArtist));
+                output.writeInt(albumIndex.getId(song.mAlbumArtist));
+                output.writeLong(song.mTime);
+                output.writeLong(song.mDate);
+            }
+        }
+    }
+
+    /** A database directory. */
+    private static final class Folder {
+
+        /** The songs of this directory, in database order. */
+        private final List<Song> mSongs = new ArrayList<>();
+
+        /** True if this directory has subdirectories. */
+        private boolean mHasDirectories;
+
+        /** The modification time of this directory, as reported by the media server. */
+        private String mLastModified;
+    }
+
+    /** The tags of a song the {@link AlbumCache} is built from, "" if not set. */
+    private static final class Song {
+
+        private final String mAlbum;
+
+        private final String mAlbumArtist;
+
+        private final String mArtist;
+
+        private final long mDate;
+
+        private final String mFullPath;
+
+        private final long mTime;
+
+        private Song(final String fullPath, final String album, final String artist,
+                final String albumArtist, final long time, final long date) {
+            super();
+
+            mFullPath = fullPath;
+            mAlbum = album;
+            mArtist = artist;
+            mAlbumArtist = albumArtist;
+            mTime = time;
+            mDate = date;
+        }
+    }
+}
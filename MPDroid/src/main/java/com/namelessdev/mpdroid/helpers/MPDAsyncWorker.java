@@ -36,7 +36,14 @@ import android.preference.PreferenceManager;
 import android.text.format.DateUtils;
 import android.util.Log;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 
 /**
  * Asynchronous worker thread-class for long during operations on JMPDComm.
@@ -64,6 +71,14 @@ public class MPDAsyncWorker implements Handler.Callback,
 
     static final int EVENT_STOP_STATUS_MONITOR = LOCAL_UID + 7;
 
+    private static final int EVENT_SAVE_QUEUE = LOCAL_UID + 8;
+
+    /** The prefix of the file names of the saved playlists, suffixed with the server and port. */
+    private static final String QUEUE_CACHE_PREFIX = "queue_";
+
+    /** The minimum delay between two saves of the playlist following playlist changes. */
+    private static final long QUEUE_SAVE_DELAY = DateUtils.SECOND_IN_MILLIS * 30L;
+
     private static final String TAG = "MPDAsyncWorker";
 
     /** A handler for the MPDAsyncHelper object. */
@@ -96,6 +111,7 @@ public class MPDAsyncWorker implements Handler.Callback,
     private void connect() {
         try {
             mMPD.connect(mConInfo.server, mConInfo.port, mConInfo.password);
+            restoreQueue();
             mHelperHandler.sendEmptyMessage(MPDAsyncHelper.EVENT_CONNECT_SUCCEEDED);
         } catch (final IOException | MPDException e) {
             Log.e(TAG, "Error while connecting to the server.", e);
@@ -106,12 +122,21 @@ public class MPDAsyncWorker implements Handler.Callback,
 
     @Override
     public void connectionStateChanged(final boolean connected, final boolean connectionLost) {
+        /** Keep the playlist last retrieved, the next connection may be a while away. */
+        if (connectionLost) {
+            mWorkerHandler.removeMessages(EVENT_SAVE_QUEUE);
+            mWorkerHandler.sendEmptyMessage(EVENT_SAVE_QUEUE);
+        }
+
         mHelperHandler.obtainMessage(MPDAsyncHelper.EVENT_CONNECTION_STATE,
                 Tools.toObjectArray(connected, connectionLost)).sendToTarget();
     }
 
     /** Disconnects the {@code MPD} object from the media server. */
     private void disconnect() {
+        mWorkerHandler.removeMessages(EVENT_SAVE_QUEUE);
+        saveQueue();
+
         try {
             mMPD.disconnect();
             Log.d(TAG, "Disconnected.");
@@ -144,6 +169,9 @@ public class MPDAsyncWorker implements Handler.Callback,
             case EVENT_DISCONNECT:
                 disconnect();
                 break;
+            case EVENT_SAVE_QUEUE:
+                saveQueue();
+                break;
             case EVENT_EXEC_ASYNC:
                 final Runnable run = (Runnable) msg.obj;
                 run.run();
@@ -174,6 +202,17 @@ public class MPDAsyncWorker implements Handler.Callback,
         return isMonitorAlive;
     }
 
+    /**
+     * Retrieves the file the playlist of the connected server is saved to. The connection
+     * settings may already have changed for the next server, so the {@code MPD} object is used.
+     *
+     * @return The file the playlist of the connected server is saved to.
+     */
+    private File getQueueFile() {
+        return new File(MPDApplication.getInstance().getCacheDir(), QUEUE_CACHE_PREFIX +
+                mMPD.getHostAddress().getHostAddress() + '_' + mMPD.getHostPort());
+    }
+
     @Override
     public void libraryStateChanged(final boolean updating, final boolean dbChanged) {
         mHelperHandler.obtainMessage(MPDAsyncHelper.EVENT_UPDATE_STATE,
@@ -213,6 +252,14 @@ public class MPDAsyncWorker implements Handler.Callback,
     public void playlistChanged(final MPDStatus mpdStatus, final int oldPlaylistVersion) {
         mHelperHandler.obtainMessage(MPDAsyncHelper.EVENT_PLAYLIST,
                 Tools.toObjectArray(mpdStatus, oldPlaylistVersion)).sendToTarget();
+
+        /**
+         * The playlist has just been refreshed, save it once the changes settle rather than on
+         * every change.
+         */
+        if (!mWorkerHandler.hasMessages(EVENT_SAVE_QUEUE)) {
+            mWorkerHandler.sendEmptyMessageDelayed(EVENT_SAVE_QUEUE, QUEUE_SAVE_DELAY);
+        }
     }
 
     @Override
@@ -227,6 +274,70 @@ public class MPDAsyncWorker implements Handler.Callback,
                 .sendToTarget();
     }
 
+    /**
+     * Restores the playlist last saved for the current server, so the status monitor only
+     * retrieves the playlist changes since.
+     */
+    private void restoreQueue() {
+        final File file = getQueueFile();
+
+        if (file.exists()) {
+            InputStream inputStream = null;
+
+            try {
+                inputStream = new BufferedInputStream(new FileInputStream(file));
+                Log.d(TAG, "Playlist restored: " + mMPD.restoreQueue(inputStream));
+            } catch (final IOException | MPDException e) {
+                Log.e(TAG, "Failed to restore the playlist.", e);
+            } finally {
+                if (inputStream != null) {
+                    try {
+                        inputStream.close();
+                    } catch (final IOException e) {
+                        Log.e(TAG, "Failed to close the saved playlist.", e);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Saves the playlist of the current server, replacing the previously saved playlist only once
+     * completely written. The playlist is saved on disconnection, on connection loss and after
+     * playlist changes, so a copy is kept even if the application is killed while connected.
+     */
+    private void saveQueue() {
+        /** Once retrieved, the playlist is kept after a connection loss and can still be saved. */
+        if (mMPD.getPlaylist().getVersion() != -1) {
+            final File file = getQueueFile();
+            final File tempFile = new File(file.getAbsolutePath() + ".tmp");
+            OutputStream outputStream = null;
+            boolean isSaved = false;
+
+            try {
+                outputStream = new BufferedOutputStream(new FileOutputStream(tempFile));
+                mMPD.saveQueue(outputStream);
+                outputStream.close();
+                outputStream = null;
+                isSaved = tempFile.renameTo(file);
+            } catch (final IOException e) {
+                Log.e(TAG, "Failed to save the playlist.", e);
+            } finally {
+                if (outputStream != null) {
+                    try {
+                        outputStream.close();
+                    } catch (final IOException e) {
+                        Log.e(TAG, "Failed to close the saved playlist.", e);
+                    }
+                }
+            }
+
+            if (!isSaved) {
+                tempFile.delete();
+            }
+        }
+    }
+
     /**
      * Sets the connection settings.
      *